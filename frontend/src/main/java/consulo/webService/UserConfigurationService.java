@@ -5,9 +5,12 @@ import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.SystemProperties;
+import consulo.webService.plugins.ArtifactBlobStore;
+import consulo.webService.plugins.DerivedArchiveCache;
 import consulo.webService.plugins.PluginAnalyzerService;
 import consulo.webService.plugins.PluginChannel;
 import consulo.webService.plugins.PluginChannelService;
+import consulo.webService.plugins.PluginLibraryCache;
 import consulo.webService.util.ConsuloHelper;
 import consulo.webService.util.PropertyKeys;
 import consulo.webService.util.PropertySet;
@@ -25,6 +28,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -45,6 +50,14 @@ public class UserConfigurationService
 
 	private final File myConfigDirectory;
 
+	private File myWorkingDirectory;
+
+	private ArtifactBlobStore myBlobStore;
+
+	private DerivedArchiveCache myDerivedArchiveCache;
+
+	private PluginLibraryCache myPluginLibraryCache;
+
 	private File myTempUploadDirectory;
 
 	private AtomicLong myTempCount = new AtomicLong();
@@ -68,6 +81,9 @@ public class UserConfigurationService
 	private PropertySet myPropertySet;
 	private TaskExecutor myTaskExecutor;
 
+	private final List<Runnable> myInitializeListeners = new ArrayList<>();
+	private boolean myInitialized;
+
 	@Autowired
 	public UserConfigurationService(@Nonnull TaskExecutor taskExecutor)
 	{
@@ -152,6 +168,24 @@ public class UserConfigurationService
 		return myPluginChannelServices[channel.ordinal()];
 	}
 
+	@Nullable
+	public ArtifactBlobStore getBlobStore()
+	{
+		return myBlobStore;
+	}
+
+	@Nonnull
+	public PluginLibraryCache getPluginLibraryCache()
+	{
+		return Objects.requireNonNull(myPluginLibraryCache);
+	}
+
+	@Nonnull
+	public File getWorkingDirectory()
+	{
+		return Objects.requireNonNull(myWorkingDirectory);
+	}
+
 	@Nonnull
 	public File createTempFile(String prefix, @Nullable String ext)
 	{
@@ -181,6 +215,23 @@ public class UserConfigurationService
 		});
 	}
 
+	/**
+	 * Listener is called once, after initialization of working directory and channels. If they are already initialized - listener is called immediately
+	 */
+	public void addInitializeListener(@Nonnull Runnable listener)
+	{
+		synchronized(myInitializeListeners)
+		{
+			if(!myInitialized)
+			{
+				myInitializeListeners.add(listener);
+				return;
+			}
+		}
+
+		listener.run();
+	}
+
 	@PostConstruct
 	public void contextInitialized()
 	{
@@ -210,6 +261,8 @@ public class UserConfigurationService
 			File workingDirectory = new File(workDirValue);
 			FileUtilRt.createDirectory(workingDirectory);
 
+			myWorkingDirectory = workingDirectory;
+
 			myTempUploadDirectory = new File(workingDirectory, "tempUpload");
 			FileSystemUtils.deleteRecursively(myTempUploadDirectory);
 			FileUtilRt.createDirectory(myTempUploadDirectory);
@@ -217,11 +270,41 @@ public class UserConfigurationService
 			File pluginChannelDir = new File(workingDirectory, "plugin");
 			FileUtilRt.createDirectory(pluginChannelDir);
 
+			// blobs must be on same file system with channels, for hard links
+			myBlobStore = new ArtifactBlobStore(new File(pluginChannelDir, ArtifactBlobStore.DIRECTORY_NAME));
+
+			// inside working directory, for download offload
+			myDerivedArchiveCache = new DerivedArchiveCache(new File(workingDirectory, DerivedArchiveCache.DIRECTORY_NAME),
+					() -> getPropertySet().getIntProperty(PropertyKeys.DOWNLOAD_DERIVED_CACHE_SIZE, 4096) * 1024L * 1024L);
+
+			myPluginLibraryCache = new PluginLibraryCache(new File(workingDirectory, PluginLibraryCache.DIRECTORY_NAME),
+					() -> getPropertySet().getIntProperty(PropertyKeys.ANALYZE_LIBRARY_CACHE_SIZE, 1024) * 1024L * 1024L);
+
 			for(PluginChannelService service : myPluginChannelServices)
 			{
 				try
 				{
-					service.initImpl(pluginChannelDir);
+					service.initImpl(pluginChannelDir, myBlobStore, myDerivedArchiveCache);
+				}
+				catch(Exception e)
+				{
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+
+			List<Runnable> listeners;
+			synchronized(myInitializeListeners)
+			{
+				myInitialized = true;
+				listeners = new ArrayList<>(myInitializeListeners);
+				myInitializeListeners.clear();
+			}
+
+			for(Runnable listener : listeners)
+			{
+				try
+				{
+					listener.run();
 				}
 				catch(Exception e)
 				{
@@ -135,6 +135,56 @@ public class ConfigPanel extends VerticalLayout
 			map(String.class, deployKeyField, PropertyKeys.DEPLOY_KEY, null);
 
 			layout.addComponent(VaadinUIUtil.labeledFill("Deploy key: ", deployKeyField));
+
+			TextField downloadOffloadHeaderField = TinyComponents.newTextField();
+			map(String.class, downloadOffloadHeaderField, PropertyKeys.DOWNLOAD_OFFLOAD_HEADER, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Download offload header (X-Accel-Redirect/X-Sendfile): ", downloadOffloadHeaderField));
+
+			TextField downloadOffloadPrefixField = TinyComponents.newTextField();
+			map(String.class, downloadOffloadPrefixField, PropertyKeys.DOWNLOAD_OFFLOAD_PREFIX, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Download offload path prefix: ", downloadOffloadPrefixField));
+
+			TextField downloadDerivedCacheSizeField = TinyComponents.newTextField();
+			map(String.class, downloadDerivedCacheSizeField, PropertyKeys.DOWNLOAD_DERIVED_CACHE_SIZE, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Generated zip archives cache size (MB): ", downloadDerivedCacheSizeField));
+
+			TextField deployGzipThreadsField = TinyComponents.newTextField();
+			map(String.class, deployGzipThreadsField, PropertyKeys.DEPLOY_GZIP_THREADS, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Platform gzip compression threads: ", deployGzipThreadsField));
+
+			TextField deployJobWorkerCountField = TinyComponents.newTextField();
+			map(String.class, deployJobWorkerCountField, PropertyKeys.DEPLOY_JOB_WORKER_COUNT, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Deploy threads: ", deployJobWorkerCountField));
+
+			TextField deployJobMaxQueuedField = TinyComponents.newTextField();
+			map(String.class, deployJobMaxQueuedField, PropertyKeys.DEPLOY_JOB_MAX_QUEUED, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Max queued deploys: ", deployJobMaxQueuedField));
+
+			TextField analyzeLibraryCacheSizeField = TinyComponents.newTextField();
+			map(String.class, analyzeLibraryCacheSizeField, PropertyKeys.ANALYZE_LIBRARY_CACHE_SIZE, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Analyze libraries cache size (MB): ", analyzeLibraryCacheSizeField));
+
+			TextField analyzeWorkerCountField = TinyComponents.newTextField();
+			map(String.class, analyzeWorkerCountField, PropertyKeys.ANALYZE_WORKER_COUNT, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Analyze processes (0 - inside webservice): ", analyzeWorkerCountField));
+
+			TextField analyzeWorkerMemoryField = TinyComponents.newTextField();
+			map(String.class, analyzeWorkerMemoryField, PropertyKeys.ANALYZE_WORKER_MEMORY, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Analyze process memory (MB): ", analyzeWorkerMemoryField));
+
+			TextField analyzeWorkerTimeoutField = TinyComponents.newTextField();
+			map(String.class, analyzeWorkerTimeoutField, PropertyKeys.ANALYZE_WORKER_TIMEOUT, null);
+
+			layout.addComponent(VaadinUIUtil.labeledFill("Analyze timeout (seconds): ", analyzeWorkerTimeoutField));
 		});
 	}
 
@@ -0,0 +1,147 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content addressed store of plugin archives. Blob file name is sha256 of content, archives in channel directories are hard links to blobs,
+ * so same archive in many channels use disk space only once.
+ *
+ * Blobs and linked archives must never be changed - they are same file.
+ *
+ * If file system not support hard links - archives are stored as before, without store
+ *
+ * @since 18-Oct-26
+ */
+public class ArtifactBlobStore
+{
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactBlobStore.class);
+
+	public static final String DIRECTORY_NAME = ".blobs";
+
+	private final File myRoot;
+
+	public ArtifactBlobStore(@Nonnull File root)
+	{
+		myRoot = root;
+	}
+
+	@Nonnull
+	public File getBlobFile(@Nonnull String sha256)
+	{
+		return new File(new File(myRoot, sha256.substring(0, 2)), sha256);
+	}
+
+	/**
+	 * Register archive in store. If store already have blob with same content - archive is replaced by link to it
+	 */
+	public void add(@Nonnull File file, @Nonnull String sha256)
+	{
+		File blob = getBlobFile(sha256);
+
+		try
+		{
+			if(!blob.exists())
+			{
+				Files.createDirectories(blob.getParentFile().toPath());
+
+				try
+				{
+					Files.createLink(blob.toPath(), file.toPath());
+					return;
+				}
+				catch(FileAlreadyExistsException ignored)
+				{
+					// created by concurrent deploy
+				}
+			}
+
+			if(Files.isSameFile(blob.toPath(), file.toPath()))
+			{
+				return;
+			}
+
+			// replace file by link atomically, file can be downloaded now
+			Path tempLink = new File(file.getParentFile(), file.getName() + ".link").toPath();
+			Files.deleteIfExists(tempLink);
+			Files.createLink(tempLink, blob.toPath());
+			Files.move(tempLink, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException | UnsupportedOperationException e)
+		{
+			logger.warn("Failed to add archive to blob store: " + file.getPath(), e);
+		}
+	}
+
+	/**
+	 * Create target as link to blob
+	 *
+	 * @return false if blob is not exists, or links are not supported
+	 */
+	public boolean link(@Nonnull String sha256, @Nonnull File target)
+	{
+		return createLink(getBlobFile(sha256), target);
+	}
+
+	public static boolean createLink(@Nonnull File existing, @Nonnull File target)
+	{
+		try
+		{
+			Files.createLink(target.toPath(), existing.toPath());
+			return true;
+		}
+		catch(IOException | UnsupportedOperationException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Delete blobs, which are not linked by any channel
+	 */
+	public void collectGarbage()
+	{
+		if(!myRoot.exists())
+		{
+			return;
+		}
+
+		int count = 0;
+		try (Stream<Path> stream = Files.walk(myRoot.toPath(), 2))
+		{
+			for(Path path : (Iterable<Path>) stream::iterator)
+			{
+				if(!Files.isRegularFile(path))
+				{
+					continue;
+				}
+
+				Object linkCount = Files.getAttribute(path, "unix:nlink");
+				if(linkCount instanceof Integer && (Integer) linkCount == 1)
+				{
+					Files.deleteIfExists(path);
+					count++;
+				}
+			}
+		}
+		catch(IOException | UnsupportedOperationException | IllegalArgumentException e)
+		{
+			logger.warn("Failed to collect blob garbage", e);
+		}
+
+		if(count > 0)
+		{
+			logger.info("Removed unused blobs: " + count);
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import consulo.webService.util.ETagUtil;
+
+/**
+ * Writing plugin archives to response with support of conditional and single range requests.
+ *
+ * If servlet container support sendfile (Tomcat NIO), file is transferred by container without copying to user-space,
+ * in other case used {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ *
+ * @since 18-Oct-26
+ */
+public class ArtifactDownloadUtil
+{
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * Delegate sending of file to reverse proxy, which will handle range and conditional requests itself
+	 *
+	 * @param headerName    'X-Accel-Redirect' or 'X-Sendfile'
+	 * @param proxyFilePath path of file, which will be resolved by proxy
+	 * @param onNewDownload same as for {@link #send(HttpServletRequest, HttpServletResponse, PluginNode, Runnable)} - conditional and range headers are checked before proxy
+	 */
+	public static void sendViaProxy(@Nonnull HttpServletRequest request,
+									@Nonnull HttpServletResponse response,
+									@Nonnull PluginNode node,
+									@Nonnull String headerName,
+									@Nonnull String proxyFilePath,
+									@Nonnull Runnable onNewDownload)
+	{
+		File file = node.targetFile;
+		assert file != null;
+
+		long length = file.length();
+		long lastModified = getLastModified(node, file);
+		String eTag = getETag(node, length, lastModified);
+
+		if(isNewDownload(request, eTag, lastModified, length))
+		{
+			onNewDownload.run();
+		}
+
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"");
+		response.setHeader(headerName, proxyFilePath);
+	}
+
+	/**
+	 * Same checks as {@link #send(HttpServletRequest, HttpServletResponse, PluginNode, Runnable)}, without sending
+	 */
+	private static boolean isNewDownload(@Nonnull HttpServletRequest request, @Nonnull String eTag, long lastModified, long length)
+	{
+		if(isNotModified(request, eTag, lastModified))
+		{
+			return false;
+		}
+
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if(range == null || !isIfRangeMatched(request, eTag, lastModified))
+		{
+			return true;
+		}
+
+		long[] parsedRange = parseRange(range, length);
+		// not satisfiable range is not download
+		return parsedRange != null && (parsedRange.length == 0 || parsedRange[0] == 0);
+	}
+
+	/**
+	 * @param onNewDownload called if client start downloading from first byte (not called for 304 and continue of download)
+	 */
+	public static void send(@Nonnull HttpServletRequest request, @Nonnull HttpServletResponse response, @Nonnull PluginNode node, @Nonnull Runnable onNewDownload) throws IOException
+	{
+		File file = node.targetFile;
+		assert file != null;
+
+		long length = file.length();
+		long lastModified = getLastModified(node, file);
+		String eTag = getETag(node, length, lastModified);
+
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.ETAG, eTag);
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+		if(isNotModified(request, eTag, lastModified))
+		{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long start = 0;
+		long end = length - 1;
+
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if(range != null && isIfRangeMatched(request, eTag, lastModified))
+		{
+			long[] parsedRange = parseRange(range, length);
+			if(parsedRange == null)
+			{
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+
+			// empty array - ignored range (for example multiple ranges), send full file
+			if(parsedRange.length != 0)
+			{
+				start = parsedRange[0];
+				end = parsedRange[1];
+
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+
+		if(start == 0)
+		{
+			onNewDownload.run();
+		}
+
+		long contentLength = end - start + 1;
+
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"");
+		response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+
+		if("HEAD".equals(request.getMethod()) || contentLength == 0)
+		{
+			return;
+		}
+
+		if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)))
+		{
+			request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, start);
+			// exclusive
+			request.setAttribute(SENDFILE_END, end + 1);
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			OutputStream outputStream = response.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(outputStream);
+
+			long position = start;
+			long remaining = contentLength;
+			while(remaining > 0)
+			{
+				long transferred = channel.transferTo(position, remaining, target);
+				if(transferred <= 0)
+				{
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+
+			outputStream.flush();
+		}
+	}
+
+	private static long getLastModified(@Nonnull PluginNode node, @Nonnull File file)
+	{
+		// http date have seconds precision
+		return (node.date != null ? node.date : file.lastModified()) / 1000 * 1000;
+	}
+
+	@Nonnull
+	private static String getETag(@Nonnull PluginNode node, long length, long lastModified)
+	{
+		PluginNode.Checksum checksum = node.checksum;
+		if(checksum != null && checksum.sha_256 != null)
+		{
+			return "\"" + checksum.sha_256 + "\"";
+		}
+		// archives are never changed after deploy, length and date is enough for old plugins without checksum
+		return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+
+	private static boolean isNotModified(@Nonnull HttpServletRequest request, @Nonnull String eTag, long lastModified)
+	{
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if(ifNoneMatch != null)
+		{
+			return ETagUtil.matches(ifNoneMatch, eTag);
+		}
+
+		long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+		return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+	}
+
+	private static boolean isIfRangeMatched(@Nonnull HttpServletRequest request, @Nonnull String eTag, long lastModified)
+	{
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if(ifRange == null)
+		{
+			return true;
+		}
+
+		// If-Range use strong comparison
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+		{
+			return ifRange.equals(eTag);
+		}
+
+		long date = getDateHeader(request, HttpHeaders.IF_RANGE);
+		return date != -1 && date == lastModified;
+	}
+
+	private static long getDateHeader(@Nonnull HttpServletRequest request, @Nonnull String name)
+	{
+		try
+		{
+			return request.getDateHeader(name);
+		}
+		catch(IllegalArgumentException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * @return null if range is not satisfiable, empty array if range must be ignored, or array with first and last (inclusive) positions
+	 */
+	@Nullable
+	static long[] parseRange(@Nonnull String range, long length)
+	{
+		if(!range.startsWith("bytes="))
+		{
+			return new long[0];
+		}
+
+		String value = range.substring("bytes=".length()).trim();
+		// we don't support multipart/byteranges, full file is valid response for it
+		if(value.indexOf(',') != -1)
+		{
+			return new long[0];
+		}
+
+		int dash = value.indexOf('-');
+		if(dash == -1)
+		{
+			return new long[0];
+		}
+
+		try
+		{
+			String startValue = value.substring(0, dash).trim();
+			String endValue = value.substring(dash + 1).trim();
+
+			long start;
+			long end;
+			if(startValue.isEmpty())
+			{
+				// suffix range - last N bytes
+				long suffixLength = Long.parseLong(endValue);
+				if(suffixLength <= 0)
+				{
+					return null;
+				}
+				start = Math.max(0, length - suffixLength);
+				end = length - 1;
+			}
+			else
+			{
+				start = Long.parseLong(startValue);
+				end = length - 1;
+				if(!endValue.isEmpty())
+				{
+					long last = Long.parseLong(endValue);
+					// syntactically invalid range, like 'bytes=5-3' - header is ignored
+					if(last < start)
+					{
+						return new long[0];
+					}
+					end = Math.min(last, end);
+				}
+			}
+
+			if(start < 0 || start >= length)
+			{
+				return null;
+			}
+			return new long[]{start, end};
+		}
+		catch(NumberFormatException e)
+		{
+			return new long[0];
+		}
+	}
+}
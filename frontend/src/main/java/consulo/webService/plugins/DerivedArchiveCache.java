@@ -0,0 +1,323 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ThrowableConsumer;
+
+/**
+ * Disk cache of archives, which are not stored while deploy, and generated from deployed archive on first download - for example zip archive of windows platform.
+ *
+ * Concurrent requests of same archive wait one generation. Size of cache is limited, least recently downloaded archives are deleted
+ *
+ * @since 18-Oct-26
+ */
+public class DerivedArchiveCache
+{
+	/**
+	 * Acquired archive. File is not deleted by eviction until archive is closed, and some time after it - reverse proxy opens file after response
+	 */
+	public class Archive implements AutoCloseable
+	{
+		private final Entry myEntry;
+		private boolean myClosed;
+
+		private Archive(Entry entry)
+		{
+			myEntry = entry;
+		}
+
+		@Nonnull
+		public File getFile()
+		{
+			return myEntry.myFile;
+		}
+
+		@Override
+		public void close()
+		{
+			synchronized(myEntries)
+			{
+				if(myClosed)
+				{
+					return;
+				}
+
+				myClosed = true;
+				myEntry.myUseCount--;
+				myEntry.myReleaseTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private static class Entry
+	{
+		private final File myFile;
+		private final long mySize;
+
+		// guarded by myEntries
+		private int myUseCount;
+		private long myReleaseTime;
+
+		private Entry(File file)
+		{
+			myFile = file;
+			mySize = file.length();
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(DerivedArchiveCache.class);
+
+	public static final String DIRECTORY_NAME = "derivedCache";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private final File myRoot;
+	private final LongSupplier myMaxSize;
+	private final long myReleaseDelay;
+
+	// key -> entry, in access order. Each archive is stored in own directory, named by key
+	private final LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private long mySize;
+
+	private final Map<String, CompletableFuture<Void>> myGenerations = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxSize max size of cache in bytes
+	 */
+	public DerivedArchiveCache(@Nonnull File root, @Nonnull LongSupplier maxSize)
+	{
+		this(root, maxSize, TimeUnit.MINUTES.toMillis(1));
+	}
+
+	/**
+	 * @param releaseDelay time in ms after close of archive, while it's not evicted
+	 */
+	@VisibleForTesting
+	DerivedArchiveCache(@Nonnull File root, @Nonnull LongSupplier maxSize, long releaseDelay)
+	{
+		myRoot = root;
+		myMaxSize = maxSize;
+		myReleaseDelay = releaseDelay;
+
+		load();
+	}
+
+	/**
+	 * Return archive, it's generated if not cached. Archive must be closed after sending
+	 *
+	 * @param key       key of archive, must be changed if source archive is changed
+	 * @param fileName  name of archive file, which is visible in download
+	 * @param generator write archive to file
+	 */
+	@Nonnull
+	public Archive acquire(@Nonnull String key, @Nonnull String fileName, @Nonnull ThrowableConsumer<File, Exception> generator) throws Exception
+	{
+		while(true)
+		{
+			Archive archive = acquireCached(key);
+			if(archive != null)
+			{
+				return archive;
+			}
+
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			CompletableFuture<Void> oldFuture = myGenerations.putIfAbsent(key, future);
+			if(oldFuture != null)
+			{
+				await(oldFuture);
+				// generated archive can be deleted before acquire - try again
+				continue;
+			}
+
+			try
+			{
+				// generation can be finished between checks
+				archive = acquireCached(key);
+				if(archive == null)
+				{
+					archive = generate(key, fileName, generator);
+				}
+
+				future.complete(null);
+				return archive;
+			}
+			catch(Throwable e)
+			{
+				future.completeExceptionally(e);
+				throw e;
+			}
+			finally
+			{
+				myGenerations.remove(key, future);
+			}
+		}
+	}
+
+	private Archive acquireCached(String key)
+	{
+		synchronized(myEntries)
+		{
+			Entry entry = myEntries.get(key);
+			if(entry == null)
+			{
+				return null;
+			}
+
+			if(!entry.myFile.exists())
+			{
+				myEntries.remove(key);
+				mySize -= entry.mySize;
+				return null;
+			}
+
+			entry.myUseCount++;
+			// access order is restored by modification time after restart
+			entry.myFile.setLastModified(System.currentTimeMillis());
+			return new Archive(entry);
+		}
+	}
+
+	@Nonnull
+	private Archive generate(String key, String fileName, ThrowableConsumer<File, Exception> generator) throws Exception
+	{
+		File directory = new File(myRoot, key);
+		FileUtil.createDirectory(directory);
+
+		File file = new File(directory, fileName);
+		File tempFile = new File(directory, fileName + TEMP_EXTENSION);
+
+		long time = System.currentTimeMillis();
+		try
+		{
+			generator.consume(tempFile);
+
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			FileUtil.delete(tempFile);
+		}
+
+		logger.info("Generated archive: " + file.getPath() + " by " + (System.currentTimeMillis() - time) + " ms");
+
+		synchronized(myEntries)
+		{
+			Entry entry = new Entry(file);
+			entry.myUseCount++;
+
+			Entry oldEntry = myEntries.put(key, entry);
+			if(oldEntry != null)
+			{
+				mySize -= oldEntry.mySize;
+			}
+			mySize += entry.mySize;
+
+			evict();
+			return new Archive(entry);
+		}
+	}
+
+	/**
+	 * Must be called under lock. Archives in use are skipped - cache can be larger than max size, until they are released
+	 */
+	private void evict()
+	{
+		long maxSize = myMaxSize.getAsLong();
+		long releaseTime = System.currentTimeMillis() - myReleaseDelay;
+
+		Iterator<Entry> iterator = myEntries.values().iterator();
+		while(mySize > maxSize && iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+			if(entry.myUseCount > 0 || entry.myReleaseTime > releaseTime)
+			{
+				continue;
+			}
+
+			mySize -= entry.mySize;
+			iterator.remove();
+
+			// opened files can be still downloaded
+			FileUtil.delete(entry.myFile.getParentFile());
+		}
+	}
+
+	private void load()
+	{
+		FileUtil.createDirectory(myRoot);
+
+		File[] directories = myRoot.listFiles();
+		if(directories == null)
+		{
+			return;
+		}
+
+		List<File> files = new ArrayList<>();
+		for(File directory : directories)
+		{
+			File[] children = directory.listFiles();
+			File file = children == null ? null : Arrays.stream(children).filter(it -> !it.getName().endsWith(TEMP_EXTENSION)).findFirst().orElse(null);
+			if(file == null)
+			{
+				// not finished generation
+				FileUtil.delete(directory);
+				continue;
+			}
+
+			files.add(file);
+		}
+
+		files.sort(Comparator.comparingLong(File::lastModified));
+
+		synchronized(myEntries)
+		{
+			for(File file : files)
+			{
+				Entry entry = new Entry(file);
+				myEntries.put(file.getParentFile().getName(), entry);
+				mySize += entry.mySize;
+			}
+
+			evict();
+		}
+
+		logger.info("Loaded derived archives: " + myEntries.size() + ", size: " + mySize);
+	}
+
+	private static void await(CompletableFuture<Void> future) throws Exception
+	{
+		try
+		{
+			future.get();
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception)
+			{
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.util.GsonUtil;
+
+/**
+ * Disk cache of analyze results. Key is calculated from plugin archive and archives of dependencies, results are stored
+ * in directory of analyzer version - directories of other versions are deleted on start
+ *
+ * @since 18-Oct-26
+ */
+public class PluginAnalyzeCache
+{
+	public static class Result
+	{
+		public PluginNode.Extension[] extensions;
+		public PluginNode.Extension[] extensionsV2;
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginAnalyzeCache.class);
+
+	public static final String DIRECTORY_NAME = "analyzeCache";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private final File myRoot;
+	private final File myDirectory;
+
+	/**
+	 * @param analyzerVersion fingerprint of analyzer and platform jars
+	 */
+	public PluginAnalyzeCache(@Nonnull File root, @Nonnull String analyzerVersion)
+	{
+		myRoot = root;
+		myDirectory = new File(root, analyzerVersion);
+
+		load();
+	}
+
+	@Nonnull
+	public File getRoot()
+	{
+		return myRoot;
+	}
+
+	/**
+	 * @param archiveSha256 checksum of plugin archive
+	 * @param dependencies  ids of dependencies, they are selected from snapshot like while analyze
+	 */
+	@Nonnull
+	public static String createKey(@Nonnull String archiveSha256, @Nonnull String[] dependencies, @Nonnull PluginChannelService channelService)
+	{
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(archiveSha256, StandardCharsets.UTF_8);
+
+		for(String dependencyId : dependencies)
+		{
+			hasher.putString(";" + dependencyId + ":", StandardCharsets.UTF_8);
+
+			PluginNode pluginNode = channelService.select(PluginChannelService.SNAPSHOT, dependencyId, null, false);
+			if(pluginNode == null)
+			{
+				continue;
+			}
+
+			String sha256 = pluginNode.checksum == null ? null : pluginNode.checksum.sha_256;
+			if(sha256 != null)
+			{
+				hasher.putString(sha256, StandardCharsets.UTF_8);
+			}
+			else
+			{
+				// old archives without checksum
+				File archive = pluginNode.targetFile;
+				hasher.putString(pluginNode.version + ":" + (archive == null ? "" : archive.length() + ":" + archive.lastModified()), StandardCharsets.UTF_8);
+			}
+		}
+		return hasher.hash().toString();
+	}
+
+	@Nullable
+	public Result get(@Nonnull String key)
+	{
+		File file = new File(myDirectory, key);
+		if(!file.exists())
+		{
+			return null;
+		}
+
+		try
+		{
+			return GsonUtil.get().fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), Result.class);
+		}
+		catch(Exception e)
+		{
+			logger.warn("Failed to read analyze result: " + file.getPath(), e);
+			FileUtil.delete(file);
+			return null;
+		}
+	}
+
+	public void put(@Nonnull String key, @Nonnull Result result)
+	{
+		File file = new File(myDirectory, key);
+		File tempFile = new File(myDirectory, key + TEMP_EXTENSION);
+
+		try
+		{
+			Files.write(tempFile.toPath(), GsonUtil.get().toJson(result).getBytes(StandardCharsets.UTF_8));
+
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			logger.warn("Failed to write analyze result: " + file.getPath(), e);
+		}
+		finally
+		{
+			FileUtil.delete(tempFile);
+		}
+	}
+
+	private void load()
+	{
+		FileUtil.createDirectory(myDirectory);
+
+		File[] directories = myRoot.listFiles();
+		if(directories != null)
+		{
+			for(File directory : directories)
+			{
+				if(!directory.equals(myDirectory))
+				{
+					// results of other analyzer version
+					FileUtil.delete(directory);
+				}
+			}
+		}
+
+		int count = 0;
+		File[] files = myDirectory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				if(file.getName().endsWith(TEMP_EXTENSION))
+				{
+					// not finished write
+					FileUtil.delete(file);
+					continue;
+				}
+
+				count++;
+			}
+		}
+
+		logger.info("Loaded analyze results: " + count + ", version: " + myDirectory.getName());
+	}
+}
@@ -1,15 +1,16 @@
 package consulo.webService.plugins;
 
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.intellij.lang.Language;
+import com.intellij.openapi.application.AccessToken;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.SingleRootFileViewProvider;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.ThrowableConsumer;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.io.URLUtil;
-import com.intellij.util.io.ZipUtil;
 import consulo.container.impl.PluginDescriptorImpl;
 import consulo.container.impl.classloader.PluginClassLoaderFactory;
 import consulo.container.impl.parser.ExtensionInfo;
@@ -25,6 +26,8 @@ import consulo.util.nodep.classloader.UrlClassLoader;
 import consulo.util.nodep.map.SimpleMultiMap;
 import consulo.util.nodep.xml.node.SimpleXmlElement;
 import consulo.webService.UserConfigurationService;
+import consulo.webService.util.PropertyKeys;
+import consulo.webService.util.PropertySet;
 import org.jdom.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,14 +35,24 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.lang.reflect.Constructor;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.security.CodeSource;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author VISTALL
@@ -80,12 +93,45 @@ public class PluginAnalyzerService
 	{
 		public MultiMap<String, String> v1 = MultiMap.create();
 		public MultiMap<String, String> v2 = MultiMap.create();
+		// false if some extensions are not analyzed by failure of analyze process, result must not be cached
+		public boolean complete = true;
+	}
+
+	/**
+	 * Class loader of platform jars with started analyzer application, used if analyze processes are disabled. Plugin classes are loaded by child class loader
+	 */
+	private static class PlatformClassLoader
+	{
+		private final URLClassLoader myClassLoader;
+		private final Class<?> myAnalyzerClass;
+		private final AtomicInteger myAnalyzeCount = new AtomicInteger();
+
+		private PlatformClassLoader(URLClassLoader classLoader, Class<?> analyzerClass)
+		{
+			myClassLoader = classLoader;
+			myAnalyzerClass = analyzerClass;
+		}
 	}
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PluginAnalyzerService.class);
 
+	// after this count of analyzes, platform class loader is recreated - classes of plugins can be still referenced by application
+	private static final int ourMaxAnalyzeCount = 100;
+	// platform class loader is recreated, if used metaspace is greater than this part of max size
+	private static final double ourMaxMetaspaceUsage = 0.8;
+
 	private final List<URL> platformClassUrls = new ArrayList<>();
 
+	// analyzes hold read lock while using platform class loader, recreation hold write lock
+	private final ReentrantReadWriteLock myPlatformLock = new ReentrantReadWriteLock();
+	private PlatformClassLoader myPlatformClassLoader;
+
+	// created on first analyze, null if plugin code is executed inside webservice process
+	private PluginAnalyzerWorkerPool myWorkerPool;
+	private boolean myWorkerPoolInitialized;
+
+	private PluginAnalyzeCache myAnalyzeCache;
+
 	private UserConfigurationService myUserConfigurationService;
 
 	@Autowired
@@ -179,6 +225,57 @@ public class PluginAnalyzerService
 		addUrlByClass(Lists.class);
 		// plugin-analyzer-rt
 		addUrlByClass(Analyzer.class);
+		// asm
+		addUrlByClass("org.objectweb.asm.ClassReader");
+		// asm-tree
+		addUrlByClass("org.objectweb.asm.tree.ClassNode");
+	}
+
+	/**
+	 * Fingerprint of platform jars, including analyzer runtime - analyze results are changed if some jar is changed
+	 */
+	@Nonnull
+	private String calcAnalyzerVersion()
+	{
+		Hasher hasher = Hashing.sha256().newHasher();
+		for(URL url : platformClassUrls)
+		{
+			putFile(hasher, URLUtil.urlToFile(url));
+		}
+		return hasher.hash().toString();
+	}
+
+	private static void putFile(Hasher hasher, File file)
+	{
+		if(file.isDirectory())
+		{
+			File[] children = file.listFiles();
+			if(children != null)
+			{
+				Arrays.sort(children);
+				for(File child : children)
+				{
+					putFile(hasher, child);
+				}
+			}
+			return;
+		}
+
+		hasher.putString(file.getPath() + ":" + file.length() + ":" + file.lastModified() + ";", StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Cache of analyze results inside working directory, it's recreated if working directory is changed
+	 */
+	@Nonnull
+	public synchronized PluginAnalyzeCache getAnalyzeCache()
+	{
+		File root = new File(myUserConfigurationService.getWorkingDirectory(), PluginAnalyzeCache.DIRECTORY_NAME);
+		if(myAnalyzeCache == null || !myAnalyzeCache.getRoot().equals(root))
+		{
+			myAnalyzeCache = new PluginAnalyzeCache(root, calcAnalyzerVersion());
+		}
+		return myAnalyzeCache;
 	}
 
 	private void addUrlByClass(Class<?> clazz)
@@ -217,210 +314,342 @@ public class PluginAnalyzerService
 		throw new IllegalArgumentException("can't find path for class " + aClass.getName());
 	}
 
+	/**
+	 * Hold read lock of platform class loader, it's not recreated until token is finished
+	 */
 	@Nonnull
-	public ExtensionsResult analyze(PluginDescriptorImpl ideaPluginDescriptor, PluginChannelService channelService, String[] dependencies) throws Exception
+	private AccessToken lockPlatformClassLoader() throws Exception
 	{
-		SimpleMultiMap<String, ExtensionInfo> extensions = ideaPluginDescriptor.getExtensions();
-		if(extensions.isEmpty())
+		while(true)
 		{
-			return new ExtensionsResult();
+			Lock readLock = myPlatformLock.readLock();
+			readLock.lock();
+
+			PlatformClassLoader platformClassLoader = myPlatformClassLoader;
+			if(platformClassLoader != null && !isRecycleNeeded(platformClassLoader))
+			{
+				platformClassLoader.myAnalyzeCount.incrementAndGet();
+				return new AccessToken()
+				{
+					@Override
+					public void finish()
+					{
+						readLock.unlock();
+					}
+				};
+			}
+
+			readLock.unlock();
+
+			Lock writeLock = myPlatformLock.writeLock();
+			writeLock.lock();
+			try
+			{
+				if(myPlatformClassLoader == null || isRecycleNeeded(myPlatformClassLoader))
+				{
+					disposePlatformClassLoader();
+
+					myPlatformClassLoader = createPlatformClassLoader();
+				}
+			}
+			finally
+			{
+				writeLock.unlock();
+			}
+		}
+	}
+
+	@Nonnull
+	private PlatformClassLoader createPlatformClassLoader() throws Exception
+	{
+		long time = System.currentTimeMillis();
+
+		URLClassLoader classLoader = URLClassLoader.newInstance(platformClassUrls.toArray(new URL[platformClassUrls.size()]), null);
+		try
+		{
+			Class<?> analyzerClass = classLoader.loadClass(Analyzer.class.getName());
+			analyzerClass.getDeclaredMethod("before").invoke(null);
+
+			LOGGER.info("Platform class loader created by " + (System.currentTimeMillis() - time) + " ms");
+			return new PlatformClassLoader(classLoader, analyzerClass);
+		}
+		catch(Exception e)
+		{
+			classLoader.close();
+			throw e;
 		}
+	}
 
-		List<URL> urls = new ArrayList<>();
-		urls.addAll(platformClassUrls);
+	private static boolean isRecycleNeeded(@Nonnull PlatformClassLoader platformClassLoader)
+	{
+		if(platformClassLoader.myAnalyzeCount.get() >= ourMaxAnalyzeCount)
+		{
+			return true;
+		}
 
-		File[] forRemove = new File[0];
-		for(String dependencyId : dependencies)
+		for(MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans())
 		{
-			PluginNode pluginNode = channelService.select(PluginChannelService.SNAPSHOT, dependencyId, null, false);
-			if(pluginNode == null)
+			if("Metaspace".equals(bean.getName()))
 			{
-				continue;
+				MemoryUsage usage = bean.getUsage();
+				// -1 if max size is not defined
+				return usage.getMax() > 0 && usage.getUsed() > usage.getMax() * ourMaxMetaspaceUsage;
 			}
+		}
+		return false;
+	}
+
+	private void disposePlatformClassLoader()
+	{
+		PlatformClassLoader platformClassLoader = myPlatformClassLoader;
+		if(platformClassLoader == null)
+		{
+			return;
+		}
+
+		myPlatformClassLoader = null;
+
+		try
+		{
+			platformClassLoader.myAnalyzerClass.getDeclaredMethod("after").invoke(null);
+		}
+		catch(Throwable e)
+		{
+			LOGGER.warn("Failed to dispose analyzer application", e);
+		}
+
+		try
+		{
+			platformClassLoader.myClassLoader.close();
+		}
+		catch(IOException e)
+		{
+			LOGGER.warn(e.getMessage(), e);
+		}
+	}
 
-			File analyzeUnzip = myUserConfigurationService.createTempFile("analyze_unzip", "");
-			forRemove = ArrayUtil.append(forRemove, analyzeUnzip);
+	@Nullable
+	private synchronized PluginAnalyzerWorkerPool getWorkerPool()
+	{
+		if(!myWorkerPoolInitialized)
+		{
+			myWorkerPoolInitialized = true;
 
-			ZipUtil.extract(pluginNode.targetFile, analyzeUnzip, null);
+			PropertySet propertySet = myUserConfigurationService.getPropertySet();
 
-			File libFile = new File(analyzeUnzip, dependencyId + "/lib");
-			File[] files = libFile.listFiles((dir, name) -> name.endsWith(".jar"));
-			if(files != null)
+			int workerCount = propertySet.getIntProperty(PropertyKeys.ANALYZE_WORKER_COUNT, 2);
+			if(workerCount > 0)
 			{
-				for(File file : files)
+				myWorkerPool = new PluginAnalyzerWorkerPool(platformClassUrls, workerCount, propertySet.getIntProperty(PropertyKeys.ANALYZE_WORKER_MEMORY, 512),
+						propertySet.getIntProperty(PropertyKeys.ANALYZE_WORKER_TIMEOUT, 60));
+			}
+		}
+		return myWorkerPool;
+	}
+
+	private void executeInProcess(List<URL> urls, List<PluginAnalyzerWorkerPool.Task> tasks) throws Exception
+	{
+		try (AccessToken ignored = lockPlatformClassLoader();
+			 URLClassLoader urlClassLoader = URLClassLoader.newInstance(urls.toArray(new URL[urls.size()]), myPlatformClassLoader.myClassLoader))
+		{
+			Method analyzeExtension = myPlatformClassLoader.myAnalyzerClass.getDeclaredMethod("analyzeExtension", ClassLoader.class, String.class, String.class, Set.class,
+					Set.class);
+
+			for(PluginAnalyzerWorkerPool.Task task : tasks)
+			{
+				try
 				{
-					urls.add(file.toURI().toURL());
+					analyzeExtension.invoke(null, urlClassLoader, task.myExtensionKey, task.myImplementation, task.myExtensions, task.myExtensionsV2);
+				}
+				catch(InvocationTargetException e)
+				{
+					task.myError = String.valueOf(e.getCause());
 				}
 			}
 		}
+	}
 
-		for(File file : ideaPluginDescriptor.getClassPath())
+	@PreDestroy
+	public void dispose()
+	{
+		synchronized(this)
 		{
-			urls.add(file.toURI().toURL());
+			if(myWorkerPool != null)
+			{
+				myWorkerPool.close();
+				myWorkerPool = null;
+			}
 		}
 
-		MultiMap<String, String> extensionsV1 = new TreeMultiMap<>();
-		MultiMap<String, String> extensionsV2 = new TreeMultiMap<>();
+		Lock writeLock = myPlatformLock.writeLock();
+		writeLock.lock();
+		try
+		{
+			disposePlatformClassLoader();
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
 
-		try (URLClassLoader urlClassLoader = URLClassLoader.newInstance(urls.toArray(new URL[urls.size()]), null))
+	@Nonnull
+	public ExtensionsResult analyze(PluginDescriptorImpl ideaPluginDescriptor, PluginChannelService channelService, String[] dependencies) throws Exception
+	{
+		SimpleMultiMap<String, ExtensionInfo> extensions = ideaPluginDescriptor.getExtensions();
+		if(extensions.isEmpty())
 		{
-			Class<?> analyzerClass = urlClassLoader.loadClass(Analyzer.class.getName());
-			analyzerClass.getDeclaredMethod("before").invoke(null);
+			return new ExtensionsResult();
+		}
 
-			Class<?> configurationTypeClass = urlClassLoader.loadClass("com.intellij.execution.configurations.ConfigurationType");
-			Method configurationTypeIdMethod = configurationTypeClass.getDeclaredMethod("getId");
+		MultiMap<String, String> extensionsV1 = new TreeMultiMap<>();
+		MultiMap<String, String> extensionsV2 = new TreeMultiMap<>();
 
-			for(Map.Entry<String, Collection<ExtensionInfo>> entry : extensions.entrySet())
+		// extensions, which require plugin code
+		List<PluginAnalyzerWorkerPool.Task> tasks = new ArrayList<>();
+		boolean complete = true;
+
+		for(Map.Entry<String, Collection<ExtensionInfo>> entry : extensions.entrySet())
+		{
+			String key = entry.getKey();
+			switch(key)
 			{
-				String key = entry.getKey();
-				switch(key)
-				{
-					case "com.intellij.configurationType":
-						forEachQuiet(entry, element ->
-						{
-							String implementation = element.getAttributeValue("implementation");
-							if(implementation != null)
-							{
-								Class<?> aClass = urlClassLoader.loadClass(implementation);
-
-								Object configurationType = newInstance(aClass);
-
-								String id = (String) configurationTypeIdMethod.invoke(configurationType);
-
-								extensionsV1.putValue(key, id);
-								extensionsV2.putValue(key, id);
-							}
-						});
-						break;
-					case "com.intellij.vcs":
-						forEachQuiet(entry, element ->
-						{
-							String extensionKey = element.getAttributeValue("name");
-							if(extensionKey != null)
-							{
-								extensionsV1.putValue(key, extensionKey);
-								extensionsV2.putValue(key, extensionKey);
-							}
-						});
-						break;
-					case "com.intellij.fileType":
-						forEachQuiet(entry, element ->
+				case Analyzer.CONFIGURATION_TYPE:
+				case Analyzer.FILE_TYPE_FACTORY:
+				case Analyzer.ARTIFACT_TYPE:
+					forEachQuiet(entry, element ->
+					{
+						String implementation = element.getAttributeValue("implementation");
+						if(implementation != null)
 						{
-							String exts = element.getAttributeValue("extensions");
-							
-							List<String> extsAsList = StringUtil.split(StringUtil.notNullize(exts), ";");
-							for(String ext : extsAsList)
-							{
-								extensionsV1.putValue(key, ext);
-								extensionsV2.putValue(key, "*|" + ext);
-							}
-						});
-						break;
-					case "com.intellij.fileTypeFactory":
-						forEachQuiet(entry, element ->
+							tasks.add(new PluginAnalyzerWorkerPool.Task(key, implementation));
+						}
+					});
+					break;
+				case "com.intellij.vcs":
+					forEachQuiet(entry, element ->
+					{
+						String extensionKey = element.getAttributeValue("name");
+						if(extensionKey != null)
 						{
-							String implementation = element.getAttributeValue("implementation");
-							if(implementation != null)
-							{
-								Class<?> aClass = urlClassLoader.loadClass(implementation);
-
-								Object fileTypeFactory = newInstance(aClass);
-
-								Class<?> fileTypeFactoryClass = urlClassLoader.loadClass("com.intellij.openapi.fileTypes.FileTypeFactory");
-
-								Set<String> extV1 = new TreeSet<>();
-								Set<String> extV2 = new TreeSet<>();
-
-								Method analyzeFileType = analyzerClass.getDeclaredMethod("analyzeFileType", Set.class, Set.class, fileTypeFactoryClass);
-								try
-								{
-									analyzeFileType.invoke(null, extV1, extV2, fileTypeFactory);
-								}
-								catch(Throwable e)
-								{
-									e.printStackTrace();
-									// somebodies can insert foreign logic in factory (com.intellij.xml.XmlFileTypeFactory:38)
-									// it can failed, but - before logic, extensions can be registered
-									//LOGGER.error(e.getMessage(), e);
-								}
-
-								extensionsV1.putValues(key, extV1);
-								extensionsV2.putValues(key, extV2);
-							}
-						});
-						break;
-					case "com.intellij.packaging.artifactType":
-						forEachQuiet(entry, element ->
+							extensionsV1.putValue(key, extensionKey);
+							extensionsV2.putValue(key, extensionKey);
+						}
+					});
+					break;
+				case "com.intellij.fileType":
+					forEachQuiet(entry, element ->
+					{
+						String exts = element.getAttributeValue("extensions");
+						
+						List<String> extsAsList = StringUtil.split(StringUtil.notNullize(exts), ";");
+						for(String ext : extsAsList)
 						{
-							String implementation = element.getAttributeValue("implementation");
-							if(implementation != null)
-							{
-								Class<?> aClass = urlClassLoader.loadClass(implementation);
-
-								Object artifactInstance = newInstance(aClass);
-
-								Class<?> artifactType = urlClassLoader.loadClass("com.intellij.packaging.artifacts.ArtifactType");
-
-								Method idMethod = artifactType.getMethod("getId");
-								idMethod.setAccessible(true);
-
-								String artifactId = (String) idMethod.invoke(artifactInstance);
-								if(!StringUtil.isEmpty(artifactId))
-								{
-									extensionsV1.putValue(key, artifactId);
-									extensionsV2.putValue(key, artifactId);
-								}
-							}
-						});
-						break;
-					case "com.intellij.moduleExtensionProvider":
-						forEachQuiet(entry, element ->
+							extensionsV1.putValue(key, ext);
+							extensionsV2.putValue(key, "*|" + ext);
+						}
+					});
+					break;
+				case "com.intellij.moduleExtensionProvider":
+					forEachQuiet(entry, element ->
+					{
+						String extensionKey = element.getAttributeValue("key");
+						if(extensionKey != null)
 						{
-							String extensionKey = element.getAttributeValue("key");
-							if(extensionKey != null)
-							{
-								extensionsV1.putValue(key, extensionKey);
-								extensionsV2.putValue(key, extensionKey);
-							}
-						});
-						break;
-				}
+							extensionsV1.putValue(key, extensionKey);
+							extensionsV2.putValue(key, extensionKey);
+						}
+					});
+					break;
 			}
-
-			analyzerClass.getDeclaredMethod("after").invoke(null);
 		}
-		finally
+
+		if(!tasks.isEmpty())
 		{
-			myUserConfigurationService.asyncDelete(forRemove);
+			// platform classes are loaded by parent class loader
+			List<URL> urls = new ArrayList<>();
+
+			List<PluginLibraryCache.Library> libraries = acquireLibraries(channelService, dependencies);
+			try
+			{
+				for(PluginLibraryCache.Library library : libraries)
+				{
+					urls.addAll(library.getJarUrls());
+				}
+
+				for(File file : ideaPluginDescriptor.getClassPath())
+				{
+					urls.add(file.toURI().toURL());
+				}
+
+				PluginAnalyzerWorkerPool workerPool = getWorkerPool();
+				if(workerPool != null)
+				{
+					workerPool.execute(urls, tasks);
+				}
+				else
+				{
+					executeInProcess(urls, tasks);
+				}
+			}
+			finally
+			{
+				libraries.forEach(PluginLibraryCache.Library::close);
+			}
+
+			for(PluginAnalyzerWorkerPool.Task task : tasks)
+			{
+				if(task.myWorkerFailed)
+				{
+					complete = false;
+				}
+
+				if(task.myError != null)
+				{
+					LOGGER.info("Failed to analyze extension " + task.myImplementation + " of plugin " + ideaPluginDescriptor.getPluginId().getIdString() + ": " + task.myError);
+					continue;
+				}
+
+				extensionsV1.putValues(task.myExtensionKey, task.myExtensions);
+				extensionsV2.putValues(task.myExtensionKey, task.myExtensionsV2);
+			}
 		}
 
 		ExtensionsResult extensionsResult = new ExtensionsResult();
 		extensionsResult.v1 = extensionsV1;
 		extensionsResult.v2 = extensionsV2;
+		extensionsResult.complete = complete;
 		return extensionsResult;
 	}
 
+	/**
+	 * @return lib directories of dependencies, they must be closed after analyze
+	 */
 	@Nonnull
-	private static Object newInstance(Class<?> clazz) throws Exception
+	private List<PluginLibraryCache.Library> acquireLibraries(PluginChannelService channelService, String[] dependencies) throws Exception
 	{
-		Constructor constructorForNew = null;
+		PluginLibraryCache libraryCache = myUserConfigurationService.getPluginLibraryCache();
 
-		Constructor<?>[] declaredConstructors = clazz.getDeclaredConstructors();
-		for(Constructor<?> declaredConstructor : declaredConstructors)
+		List<PluginLibraryCache.Library> libraries = new ArrayList<>();
+		try
 		{
-			if(declaredConstructor.getParameterCount() == 0)
+			for(String dependencyId : dependencies)
 			{
-				declaredConstructor.setAccessible(true);
-				constructorForNew = declaredConstructor;
-				break;
+				PluginNode pluginNode = channelService.select(PluginChannelService.SNAPSHOT, dependencyId, null, false);
+				if(pluginNode == null)
+				{
+					continue;
+				}
+
+				libraries.add(libraryCache.acquire(pluginNode));
 			}
+			return libraries;
 		}
-
-		if(constructorForNew == null)
+		catch(Exception e)
 		{
-			throw new IllegalArgumentException("no empty constructor");
+			libraries.forEach(PluginLibraryCache.Library::close);
+			throw e;
 		}
-		return constructorForNew.newInstance();
 	}
 
 	private static void forEachQuiet(Map.Entry<String, Collection<ExtensionInfo>> entry, ThrowableConsumer<SimpleXmlElement, Throwable> consumer)
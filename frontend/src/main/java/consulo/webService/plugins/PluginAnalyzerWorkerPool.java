@@ -0,0 +1,290 @@
+package consulo.webService.plugins;
+
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.URLUtil;
+import consulo.pluginAnalyzer.AnalyzerWorker;
+
+/**
+ * Pool of analyzer processes. Plugin code is executed in separate JVM - if it hangs, or consume all memory, only worker process is killed,
+ * and classes of plugins are not loaded to webservice.
+ *
+ * Worker process is started on first use, and restarted after fixed count of jobs, or after failure
+ *
+ * @since 18-Oct-26
+ */
+public class PluginAnalyzerWorkerPool implements Closeable
+{
+	/**
+	 * Extension, which is analyzed by worker. Result is written to task
+	 */
+	public static class Task
+	{
+		public final String myExtensionKey;
+		public final String myImplementation;
+
+		public final Set<String> myExtensions = new TreeSet<>();
+		public final Set<String> myExtensionsV2 = new TreeSet<>();
+		// not null if extension is failed
+		public String myError;
+		// true if worker is failed or killed by timeout - it's not error of extension, and result can be different in next analyze
+		public boolean myWorkerFailed;
+
+		public Task(@Nonnull String extensionKey, @Nonnull String implementation)
+		{
+			myExtensionKey = extensionKey;
+			myImplementation = implementation;
+		}
+	}
+
+	private static class Worker
+	{
+		private final Process myProcess;
+		private final DataOutputStream myOutput;
+		private final DataInputStream myInput;
+		private int myJobCount;
+
+		private Worker(Process process)
+		{
+			myProcess = process;
+			myOutput = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			myInput = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginAnalyzerWorkerPool.class);
+
+	// after this count of jobs, worker is restarted - classes of plugins can be still referenced by application
+	private static final int ourMaxJobCount = 50;
+	private static final int ourMaxMetaspaceSize = 256;
+
+	private final List<String> myCommand = new ArrayList<>();
+	private final long myTimeout;
+
+	private final Semaphore myPermits;
+	private final Queue<Worker> myIdleWorkers = new ConcurrentLinkedQueue<>();
+
+	private final ScheduledExecutorService myWatchdog = Executors.newSingleThreadScheduledExecutor(r ->
+	{
+		Thread thread = new Thread(r, "Analyzer Worker Watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile boolean myClosed;
+
+	/**
+	 * @param classPath   platform jars
+	 * @param workerCount max count of processes
+	 * @param memory      max heap size of process in megabytes
+	 * @param timeout     max time of job in seconds, after it worker is killed
+	 */
+	public PluginAnalyzerWorkerPool(@Nonnull List<URL> classPath, int workerCount, int memory, int timeout)
+	{
+		myPermits = new Semaphore(workerCount);
+		myTimeout = timeout;
+
+		List<String> paths = new ArrayList<>();
+		for(URL url : classPath)
+		{
+			paths.add(URLUtil.urlToFile(url).getPath());
+		}
+
+		myCommand.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+		myCommand.add("-Xmx" + memory + "m");
+		myCommand.add("-XX:MaxMetaspaceSize=" + ourMaxMetaspaceSize + "m");
+		// worker is restarted by pool, it's better than continue in broken state
+		myCommand.add("-XX:+ExitOnOutOfMemoryError");
+		myCommand.add("-Djava.awt.headless=true");
+		myCommand.add("-cp");
+		myCommand.add(StringUtil.join(paths, File.pathSeparator));
+		myCommand.add(AnalyzerWorker.class.getName());
+	}
+
+	/**
+	 * Analyze extensions by worker. If worker is failed or killed by timeout - error is set to all tasks without result
+	 *
+	 * @param urls jars of plugin and dependencies
+	 */
+	public void execute(@Nonnull List<URL> urls, @Nonnull List<Task> tasks) throws InterruptedException
+	{
+		myPermits.acquire();
+		try
+		{
+			if(myClosed)
+			{
+				throw new IllegalStateException("Pool is closed");
+			}
+
+			Worker worker = null;
+			// worker is killed, or state of protocol is unknown
+			boolean broken = false;
+			ScheduledFuture<?> watchdog = null;
+			int index = 0;
+			try
+			{
+				worker = acquireWorker();
+
+				Process process = worker.myProcess;
+				watchdog = myWatchdog.schedule(process::destroyForcibly, myTimeout, TimeUnit.SECONDS);
+
+				writeRequest(worker.myOutput, urls, tasks);
+
+				DataInputStream input = worker.myInput;
+				for(; index < tasks.size(); index++)
+				{
+					Task task = tasks.get(index);
+					if(input.readBoolean())
+					{
+						readStrings(input, task.myExtensions);
+						readStrings(input, task.myExtensionsV2);
+					}
+					else
+					{
+						task.myError = input.readUTF();
+					}
+				}
+
+				broken = !watchdog.cancel(false);
+				worker.myJobCount++;
+			}
+			catch(IOException e)
+			{
+				broken = true;
+
+				boolean timeout = watchdog != null && !watchdog.cancel(false);
+
+				String error = timeout ? "Worker is killed by timeout: " + myTimeout + " seconds" : "Worker is failed: " + e;
+				for(; index < tasks.size(); index++)
+				{
+					Task task = tasks.get(index);
+					task.myError = error;
+					task.myWorkerFailed = true;
+				}
+
+				logger.warn(error);
+			}
+			finally
+			{
+				if(worker != null)
+				{
+					if(broken || worker.myJobCount >= ourMaxJobCount || !worker.myProcess.isAlive() || myClosed)
+					{
+						stopWorker(worker);
+					}
+					else
+					{
+						myIdleWorkers.add(worker);
+					}
+				}
+			}
+		}
+		finally
+		{
+			myPermits.release();
+		}
+	}
+
+	@Nonnull
+	private Worker acquireWorker() throws IOException
+	{
+		Worker worker;
+		while((worker = myIdleWorkers.poll()) != null)
+		{
+			if(worker.myProcess.isAlive())
+			{
+				return worker;
+			}
+
+			stopWorker(worker);
+		}
+
+		ProcessBuilder builder = new ProcessBuilder(myCommand);
+		// logs of worker are visible in webservice output
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return new Worker(builder.start());
+	}
+
+	private static void writeRequest(DataOutputStream output, List<URL> urls, List<Task> tasks) throws IOException
+	{
+		output.writeInt(urls.size());
+		for(URL url : urls)
+		{
+			output.writeUTF(url.toExternalForm());
+		}
+
+		output.writeInt(tasks.size());
+		for(Task task : tasks)
+		{
+			output.writeUTF(task.myExtensionKey);
+			output.writeUTF(task.myImplementation);
+		}
+
+		output.flush();
+	}
+
+	private static void readStrings(DataInputStream input, Set<String> values) throws IOException
+	{
+		int count = input.readInt();
+		for(int i = 0; i < count; i++)
+		{
+			values.add(input.readUTF());
+		}
+	}
+
+	private static void stopWorker(@Nonnull Worker worker)
+	{
+		try
+		{
+			// worker is stopped after end of input
+			worker.myOutput.close();
+		}
+		catch(IOException ignored)
+		{
+		}
+
+		try
+		{
+			if(!worker.myProcess.waitFor(5, TimeUnit.SECONDS))
+			{
+				worker.myProcess.destroyForcibly();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			worker.myProcess.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		myClosed = true;
+
+		Worker worker;
+		while((worker = myIdleWorkers.poll()) != null)
+		{
+			stopWorker(worker);
+		}
+
+		myWatchdog.shutdownNow();
+	}
+}
@@ -2,7 +2,6 @@ package consulo.webService.plugins;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.util.Comparing;
-import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.util.ArrayUtil;
 import consulo.webService.UserConfigurationService;
 import consulo.webService.plugins.pluginsState.PluginsState;
@@ -138,6 +137,19 @@ public class PluginChannelIterationService
 		}
 	}
 
+	/**
+	 * every hour
+	 */
+	@Scheduled(cron = "0 30 * * * *")
+	public void collectBlobGarbage()
+	{
+		ArtifactBlobStore blobStore = myUserConfigurationService.getBlobStore();
+		if(blobStore != null)
+		{
+			blobStore.collectGarbage();
+		}
+	}
+
 	private static boolean weNeedSkip(PluginNode pluginNode)
 	{
 		if(PluginChannelService.ourStandardWinId.equals(pluginNode.id) && pluginNode.version.equals(ourConsuloBootBuild))
@@ -208,11 +220,12 @@ public class PluginChannelIterationService
 						return;
 					}
 
-					myPluginDeployService.deployPlatform(to, Integer.parseInt(node.platformVersion), node.id, targetFile);
+					myPluginDeployService.promotePlatform(to, originalNode, targetFile);
 				}
 				else
 				{
-					toChannel.push(node, "zip", file -> FileUtilRt.copy(targetFile, file));
+					// same archive - just link it
+					toChannel.pushLinked(node, "zip", targetFile);
 				}
 			}
 			catch(Exception e)
@@ -6,11 +6,13 @@ import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -19,8 +21,12 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.text.StringUtil;
 import consulo.webService.UserConfigurationService;
+import consulo.webService.util.ETagUtil;
 import consulo.webService.util.PropertyKeys;
+import consulo.webService.util.PropertySet;
 
 /**
  * @author VISTALL
@@ -32,21 +38,30 @@ public class PluginChannelRestController
 	private final UserConfigurationService myUserConfigurationService;
 	private final PluginDeployService myPluginDeployService;
 	private final PluginStatisticsService myPluginStatisticsService;
+	private final PluginListResponseCache myPluginListResponseCache;
+	private final PluginDeployJobService myPluginDeployJobService;
+	private final PluginUploadService myPluginUploadService;
 
 	@Autowired
 	public PluginChannelRestController(@Nonnull UserConfigurationService userConfigurationService,
 			@Nonnull PluginDeployService pluginDeployService,
-			@Nonnull PluginStatisticsService pluginStatisticsService)
+			@Nonnull PluginStatisticsService pluginStatisticsService,
+			@Nonnull PluginListResponseCache pluginListResponseCache,
+			@Nonnull PluginDeployJobService pluginDeployJobService,
+			@Nonnull PluginUploadService pluginUploadService)
 	{
 		myUserConfigurationService = userConfigurationService;
 		myPluginDeployService = pluginDeployService;
 		myPluginStatisticsService = pluginStatisticsService;
+		myPluginListResponseCache = pluginListResponseCache;
+		myPluginDeployJobService = pluginDeployJobService;
+		myPluginUploadService = pluginUploadService;
 	}
 
 	// api methods
 
 	@RequestMapping("/api/repository/download")
-	public ResponseEntity<?> download(@RequestParam("channel") PluginChannel channel,
+	public void download(@RequestParam("channel") PluginChannel channel,
 			@RequestParam("platformVersion") String platformVersion,
 			@Deprecated @RequestParam(value = "pluginId", required = false) final String pluginId,
 			@RequestParam(value = "id", required = false /* TODO [VISTALL] remove it after dropping 'pluginId' parameter*/) final String id,
@@ -54,7 +69,9 @@ public class PluginChannelRestController
 			@RequestParam(value = "platformBuildSelect", defaultValue = "false", required = false) boolean platformBuildSelect,
 			@RequestParam(value = "zip", defaultValue = "false", required = false) boolean zip,
 			@RequestParam(value = "viaUpdate", defaultValue = "false", required = false) boolean viaUpdate,
-			@RequestParam(value = "version", required = false) String version)
+			@RequestParam(value = "version", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws Exception
 	{
 		if(id == null && pluginId == null)
 		{
@@ -69,32 +86,58 @@ public class PluginChannelRestController
 
 		PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(channel);
 
-		String idNew = idValue;
-		if(zip)
+		// generated zip archive is held in cache while sending
+		if(zip && channelService.selectZip(platformVersion, idValue, version, platformBuildSelect, node -> send(request, response, channel, platformVersion, node, noTracking, viaUpdate)))
 		{
-			idNew = idValue + "-zip";
+			return;
 		}
 
-		PluginNode select = channelService.select(platformVersion, idNew, version, platformBuildSelect);
+		PluginNode select = channelService.select(platformVersion, idValue, version, platformBuildSelect);
 		if(select == null)
 		{
-			idNew = idValue;
-			select = channelService.select(platformVersion, idNew, version, platformBuildSelect);
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
 
-		if(select == null)
+		send(request, response, channel, platformVersion, select, noTracking, viaUpdate);
+	}
+
+	private void send(HttpServletRequest request,
+			HttpServletResponse response,
+			PluginChannel channel,
+			String platformVersion,
+			PluginNode select,
+			boolean noTracking,
+			boolean viaUpdate) throws Exception
+	{
+		// range requests which continue download, are not tracked
+		Runnable onNewDownload = () ->
 		{
-			return ResponseEntity.notFound().build();
-		}
+			if(!noTracking)
+			{
+				myPluginStatisticsService.increaseDownload(select.id, channel, select.version, platformVersion, viaUpdate);
+			}
+		};
 
-		if(!noTracking)
+		PropertySet propertySet = myUserConfigurationService.getPropertySet();
+		String offloadHeader = StringUtil.nullize(propertySet.getStringProperty(PropertyKeys.DOWNLOAD_OFFLOAD_HEADER), true);
+		if(offloadHeader != null)
 		{
-			myPluginStatisticsService.increaseDownload(idNew, channel, select.version, platformVersion, viaUpdate);
+			File targetFile = select.targetFile;
+			assert targetFile != null;
+
+			String relativePath = FileUtilRt.getRelativePath(myUserConfigurationService.getWorkingDirectory(), targetFile);
+			if(relativePath != null)
+			{
+				relativePath = FileUtilRt.toSystemIndependentName(relativePath);
+				String prefix = StringUtil.notNullize(propertySet.getStringProperty(PropertyKeys.DOWNLOAD_OFFLOAD_PREFIX));
+
+				ArtifactDownloadUtil.sendViaProxy(request, response, select, offloadHeader, prefix + relativePath, onNewDownload);
+				return;
+			}
 		}
 
-		File targetFile = select.targetFile;
-		assert targetFile != null;
-		return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + targetFile.getName() + "\"").body(new FileSystemResource(targetFile));
+		ArtifactDownloadUtil.send(request, response, select, onNewDownload);
 	}
 
 	@RequestMapping(value = "/api/repository/platformDeploy", method = RequestMethod.POST)
@@ -103,13 +146,7 @@ public class PluginChannelRestController
 			@RequestParam("platformVersion") int platformVersion,
 			@RequestHeader("Authorization") String authorization) throws Exception
 	{
-		String keyFromClient = authorization;
-		String keyFromFs = getDeployKey();
-		//TODO [VISTALL] removed this hack later - use oauth
-		if(!Objects.equals(keyFromClient, keyFromFs))
-		{
-			throw new IOException("bad auth");
-		}
+		checkAuthorization(authorization);
 
 		return myPluginDeployService.deployPlatform(channel, platformVersion, file);
 	}
@@ -119,25 +156,164 @@ public class PluginChannelRestController
 			@RequestBody(required = true) MultipartFile file,
 			@RequestHeader("Authorization") String authorization) throws Exception
 	{
-		String keyFromClient = authorization;
-		String keyFromFs = getDeployKey();
-		//TODO [VISTALL] removed this hack later - use oauth
-		if(!Objects.equals(keyFromClient, keyFromFs))
+		checkAuthorization(authorization);
+
+		return myPluginDeployService.deployPlugin(channel, file::getInputStream);
+	}
+
+	/**
+	 * Same as platformDeploy, but deploy is executed in background - returned job can be polled by {@link #deployJob(String, String)}
+	 */
+	@RequestMapping(value = "/api/repository/platformDeployJob", method = RequestMethod.POST)
+	public PluginDeployJob platformDeployJob(@RequestParam("channel") PluginChannel channel,
+			@RequestBody(required = true) MultipartFile file,
+			@RequestParam("platformVersion") int platformVersion,
+			@RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		return myPluginDeployJobService.submitPlatform(channel, platformVersion, file);
+	}
+
+	/**
+	 * Same as pluginDeploy, but deploy is executed in background - returned job can be polled by {@link #deployJob(String, String)}
+	 */
+	@RequestMapping(value = "/api/repository/pluginDeployJob", method = RequestMethod.POST)
+	public PluginDeployJob pluginDeployJob(@RequestParam("channel") PluginChannel channel,
+			@RequestBody(required = true) MultipartFile file,
+			@RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		return myPluginDeployJobService.submitPlugin(channel, file);
+	}
+
+	@RequestMapping("/api/repository/deployJob")
+	public ResponseEntity<PluginDeployJob> deployJob(@RequestParam("id") String id, @RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		PluginDeployJob job = myPluginDeployJobService.getJob(id);
+		if(job == null)
 		{
-			throw new IOException("bad auth");
+			return ResponseEntity.notFound().build();
 		}
+		return ResponseEntity.ok(job);
+	}
 
-		return myPluginDeployService.deployPlugin(channel, file::getInputStream);
+	// chunked upload: create session, put chunks in order, finish - it's return deploy job
+	// sessions are not persisted - after restart, requests of old session return 404, and upload must be started again
+
+	@RequestMapping(value = "/api/repository/upload/create", method = RequestMethod.POST)
+	public PluginUploadSession uploadCreate(@RequestParam("type") PluginDeployJob.Type type,
+			@RequestParam("channel") PluginChannel channel,
+			@RequestParam(value = "platformVersion", required = false) Integer platformVersion,
+			@RequestParam(value = "pluginId", required = false) String pluginId,
+			@RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		return myPluginUploadService.create(type, channel, platformVersion, pluginId);
+	}
+
+	@RequestMapping("/api/repository/upload/status")
+	public ResponseEntity<PluginUploadSession> uploadStatus(@RequestParam("id") String id, @RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		PluginUploadSession session = myPluginUploadService.getSession(id);
+		if(session == null)
+		{
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(session);
+	}
+
+	/**
+	 * Body of request is chunk data. If offset is not equal to received size - returned 409 with session, and client must continue from session offset.
+	 * If checksum of chunk is not matched - returned 400, and chunk can be sent again. If data is not valid archive - returned 422, and archive must be uploaded again
+	 */
+	@RequestMapping(value = "/api/repository/upload/chunk", method = RequestMethod.PUT)
+	public ResponseEntity<PluginUploadSession> uploadChunk(@RequestParam("id") String id,
+			@RequestParam("offset") long offset,
+			@RequestParam(value = "sha256", required = false) String sha256,
+			@RequestHeader("Authorization") String authorization,
+			HttpServletRequest request) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		PluginUploadSession session = myPluginUploadService.getSession(id);
+		if(session == null)
+		{
+			return ResponseEntity.notFound().build();
+		}
+
+		int length = request.getContentLength();
+		if(length < 0)
+		{
+			return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+		}
+
+		if(!myPluginUploadService.writeChunk(session, offset, sha256, request.getInputStream(), length))
+		{
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(session);
+		}
+		return ResponseEntity.ok(session);
+	}
+
+	@RequestMapping(value = "/api/repository/upload/finish", method = RequestMethod.POST)
+	public ResponseEntity<PluginDeployJob> uploadFinish(@RequestParam("id") String id,
+			@RequestParam(value = "sha256", required = false) String sha256,
+			@RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		PluginUploadSession session = myPluginUploadService.getSession(id);
+		if(session == null)
+		{
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(myPluginUploadService.finish(session, sha256));
+	}
+
+	@RequestMapping(value = "/api/repository/upload/cancel", method = RequestMethod.POST)
+	public ResponseEntity<?> uploadCancel(@RequestParam("id") String id, @RequestHeader("Authorization") String authorization) throws Exception
+	{
+		checkAuthorization(authorization);
+
+		PluginUploadSession session = myPluginUploadService.getSession(id);
+		if(session == null)
+		{
+			return ResponseEntity.notFound().build();
+		}
+
+		myPluginUploadService.cancel(session);
+		return ResponseEntity.ok().build();
 	}
 
 	@RequestMapping("/api/repository/list")
-	public PluginNode[] list(@RequestParam("channel") PluginChannel channel,
+	public ResponseEntity<byte[]> list(@RequestParam("channel") PluginChannel channel,
 			@RequestParam("platformVersion") String platformVersion,
-			@RequestParam(value = "platformBuildSelect", defaultValue = "false", required = false) boolean platformBuildSelect)
+			@RequestParam(value = "platformBuildSelect", defaultValue = "false", required = false) boolean platformBuildSelect,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
 	{
-		PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(channel);
+		PluginListResponseCache.Response response = myPluginListResponseCache.get(channel, platformVersion, platformBuildSelect);
+
+		boolean gzip = isGzipAccepted(acceptEncoding);
+		String eTag = gzip ? response.getGzipETag() : response.getETag();
 
-		return channelService.select(myPluginStatisticsService, platformVersion, platformBuildSelect);
+		if(ETagUtil.matches(ifNoneMatch, eTag))
+		{
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+		}
+
+		ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).eTag(eTag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if(gzip)
+		{
+			return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(response.getGzipBytes());
+		}
+		return builder.body(response.getBytes());
 	}
 
 	@RequestMapping("/api/repository/info")
@@ -145,21 +321,29 @@ public class PluginChannelRestController
 			@RequestParam("platformVersion") String platformVersion,
 			@RequestParam("id") final String id,
 			@RequestParam(value = "zip", defaultValue = "false", required = false) boolean zip,
-			@RequestParam(value = "version") String version)
+			@RequestParam(value = "version") String version,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws Exception
 	{
 		PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(channel);
 
-		String idNew = id;
+		// info is not depend on download statistics, only on channel state
+		String eTag = ETagUtil.build(channelService.getGeneration());
+
+		if(ETagUtil.matches(ifNoneMatch, eTag))
+		{
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		}
+
+		PluginNode select = null;
 		if(zip)
 		{
-			idNew = id + "-zip";
+			// zip is not generated for info, it will be generated on download
+			select = channelService.selectStoredZip(platformVersion, id, version, true);
 		}
 
-		PluginNode select = channelService.select(platformVersion, idNew, version, true);
 		if(select == null)
 		{
-			idNew = id;
-			select = channelService.select(platformVersion, idNew, version, true);
+			select = channelService.select(platformVersion, id, version, true);
 		}
 
 		if(select == null)
@@ -167,7 +351,47 @@ public class PluginChannelRestController
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
 		}
 
-		return ResponseEntity.ok(select.clone());
+		return ResponseEntity.ok().eTag(eTag).body(select.clone());
+	}
+
+	private static boolean isGzipAccepted(@Nullable String acceptEncoding)
+	{
+		if(acceptEncoding == null)
+		{
+			return false;
+		}
+
+		for(String value : acceptEncoding.split(","))
+		{
+			String[] parts = value.trim().split(";");
+			if(!"gzip".equalsIgnoreCase(parts[0].trim()))
+			{
+				continue;
+			}
+
+			// gzip;q=0 - mean not acceptable
+			for(int i = 1; i < parts.length; i++)
+			{
+				String parameter = parts[i].trim();
+				if(parameter.matches("q=0(\\.0{0,3})?"))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void checkAuthorization(String authorization) throws IOException
+	{
+		String keyFromClient = authorization;
+		String keyFromFs = getDeployKey();
+		//TODO [VISTALL] removed this hack later - use oauth
+		if(!Objects.equals(keyFromClient, keyFromFs))
+		{
+			throw new IOException("bad auth");
+		}
 	}
 
 	@Nullable
@@ -3,24 +3,40 @@ package consulo.webService.plugins;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.ThrowableConsumer;
 import com.intellij.util.containers.ContainerUtil;
+import consulo.webService.plugins.archive.TarGzArchiveRewriter;
+import consulo.webService.plugins.pluginsState.PluginChannelIndex;
+import consulo.webService.plugins.pluginsState.PluginChannelJournal;
 import consulo.webService.plugins.pluginsState.PluginsSetWithLock;
 import consulo.webService.plugins.pluginsState.PluginsState;
 import consulo.webService.util.GsonUtil;
@@ -55,22 +71,64 @@ public class PluginChannelService
 		return ArrayUtil.contains(pluginId, ourPlatformPluginIds);
 	}
 
+	/**
+	 * Windows platform is available as zip archive too. Zip archive is not stored while deploy - it's generated from tar.gz on first download
+	 */
+	public static boolean hasDerivedZip(String pluginId)
+	{
+		return isPlatformNode(pluginId + "-zip");
+	}
+
 	private static final Logger logger = LoggerFactory.getLogger(PluginChannelService.class);
 	public static final String SNAPSHOT = "SNAPSHOT";
 
+	private static final ScheduledExecutorService ourIndexWriter = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "plugin channel index writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	private File myPluginChannelDirectory;
 
 	private final PluginChannel myChannel;
 
 	private final Map<String, PluginsState> myPlugins = new ConcurrentSkipListMap<>();
 
-	private boolean myLoading;
+	private final AtomicLong myGeneration = new AtomicLong();
+
+	// journal records count, after which index is rewritten and journal compacted
+	private static final int ourCheckpointRecordCount = 1000;
+
+	private PluginChannelIndex myIndex;
+	private PluginChannelJournal myJournal;
+	private ArtifactBlobStore myBlobStore;
+	private DerivedArchiveCache myDerivedArchiveCache;
+
+	// push & remove hold read lock while changing files, journal and memory state, checkpoint hold write lock while collecting state
+	private final ReentrantReadWriteLock myIndexLock = new ReentrantReadWriteLock();
+
+	private final AtomicBoolean myCheckpointScheduled = new AtomicBoolean();
+
+	// upload checksum -> nodes, rebuilt after change of generation
+	private volatile Pair<Long, Map<String, List<PluginNode>>> myUploadChecksumIndex;
+
+	// read by sync thread
+	private volatile boolean myLoading;
 
 	public PluginChannelService(PluginChannel channel)
 	{
 		myChannel = channel;
 	}
 
+	/**
+	 * @return counter, which changed after each modification of channel plugins
+	 */
+	public long getGeneration()
+	{
+		return myGeneration.get();
+	}
+
 	public boolean isInRepository(String pluginId, String version, String platformVersion)
 	{
 		PluginsState state = myPlugins.get(pluginId);
@@ -85,7 +143,20 @@ public class PluginChannelService
 			return;
 		}
 
-		state.remove(version, platformVersion);
+		Lock lock = myIndexLock.readLock();
+		lock.lock();
+		try
+		{
+			state.remove(version, platformVersion);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		syncJournal();
+
+		myGeneration.incrementAndGet();
 	}
 
 	@Nullable
@@ -100,6 +171,103 @@ public class PluginChannelService
 		return state.select(platformVersion, version, platformBuildSelect);
 	}
 
+	/**
+	 * Same as {@link #selectZip(String, String, String, boolean, ThrowableConsumer)}, but zip archive is never generated
+	 *
+	 * @return stored '-zip' node, or null
+	 */
+	@Nullable
+	public PluginNode selectStoredZip(@Nonnull String platformVersion, @Nonnull String pluginId, @Nullable String version, boolean platformBuildSelect)
+	{
+		String zipId = pluginId + "-zip";
+
+		PluginNode node = select(platformVersion, pluginId, version, platformBuildSelect);
+		if(node == null)
+		{
+			return select(platformVersion, zipId, version, platformBuildSelect);
+		}
+
+		return select(node.platformVersion, zipId, node.version, true);
+	}
+
+	/**
+	 * Select zip archive of plugin. Old deploys store it as '-zip' node, for new deploys it's generated from tar.gz on first request.
+	 * Generated archive is not deleted from cache, while consumer is running
+	 *
+	 * @return false if plugin has not zip archive, or generation is failed - tar.gz must be used
+	 */
+	public boolean selectZip(@Nonnull String platformVersion,
+			@Nonnull String pluginId,
+			@Nullable String version,
+			boolean platformBuildSelect,
+			@Nonnull ThrowableConsumer<PluginNode, Exception> consumer) throws Exception
+	{
+		PluginNode stored = selectStoredZip(platformVersion, pluginId, version, platformBuildSelect);
+		if(stored != null)
+		{
+			consumer.consume(stored);
+			return true;
+		}
+
+		PluginNode node = select(platformVersion, pluginId, version, platformBuildSelect);
+		if(node == null)
+		{
+			return false;
+		}
+
+		String zipId = pluginId + "-zip";
+		DerivedArchiveCache cache = myDerivedArchiveCache;
+		File sourceFile = node.targetFile;
+		if(!hasDerivedZip(pluginId) || cache == null || sourceFile == null)
+		{
+			return false;
+		}
+
+		String sha256 = node.checksum == null ? null : node.checksum.sha_256;
+		// old archives without checksum
+		String key = "zip_" + (sha256 != null ? sha256 : Hashing.sha256().hashString(sourceFile.getPath() + ":" + sourceFile.length() + ":" + sourceFile.lastModified(),
+				StandardCharsets.UTF_8).toString());
+
+		DerivedArchiveCache.Archive archive;
+		try
+		{
+			archive = cache.acquire(key, zipId + "_" + node.version + ".zip", file ->
+			{
+				// tar.gz already contains channel marker
+				new TarGzArchiveRewriter().rewrite(sourceFile, Collections.singletonList(Pair.create(file, ArchiveStreamFactory.ZIP)));
+			});
+		}
+		catch(Exception e)
+		{
+			if(e instanceof InterruptedException)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			logger.error("Failed to generate zip archive: " + sourceFile.getPath() + ". Channel: " + myChannel, e);
+			return false;
+		}
+
+		try
+		{
+			File zipFile = archive.getFile();
+
+			PluginNode zipNode = node.clone();
+			zipNode.id = zipId;
+			zipNode.targetFile = zipFile;
+			zipNode.length = zipFile.length();
+			// checksum of zip is not calculated, date is same for all generations of archive
+			zipNode.checksum = null;
+
+			consumer.consume(zipNode);
+			return true;
+		}
+		finally
+		{
+			archive.close();
+		}
+	}
+
 	@Nonnull
 	public PluginNode[] select(@Nonnull PluginStatisticsService statisticsService, @Nonnull String platformVersion, boolean platformBuildSelect)
 	{
@@ -131,24 +299,94 @@ public class PluginChannelService
 		}
 	}
 
+	/**
+	 * @return nodes, which deployed from archive with this checksum
+	 */
+	@Nonnull
+	public List<PluginNode> findByUploadChecksum(@Nonnull String uploadSha256)
+	{
+		long generation = myGeneration.get();
+
+		Pair<Long, Map<String, List<PluginNode>>> index = myUploadChecksumIndex;
+		if(index == null || index.getFirst() != generation)
+		{
+			Map<String, List<PluginNode>> map = new HashMap<>();
+			iteratePluginNodes(node ->
+			{
+				if(node.checksum != null && node.checksum.upload_sha_256 != null)
+				{
+					map.computeIfAbsent(node.checksum.upload_sha_256, it -> new ArrayList<>()).add(node);
+				}
+			});
+
+			index = Pair.create(generation, map);
+			myUploadChecksumIndex = index;
+		}
+
+		return index.getSecond().getOrDefault(uploadSha256, Collections.emptyList());
+	}
+
 	public void push(PluginNode pluginNode, String ext, ThrowableConsumer<File, Exception> writeConsumer) throws Exception
 	{
-		PluginsState pluginsState = myPlugins.computeIfAbsent(pluginNode.id, id -> new PluginsSetWithLock(myPluginChannelDirectory, pluginNode.id));
+		push(pluginNode, ext, writeConsumer, null);
+	}
+
+	/**
+	 * Push archive, which is already stored in other channel. Archive will be linked if possible, without copying
+	 */
+	public void pushLinked(PluginNode pluginNode, String ext, File sourceFile) throws Exception
+	{
+		String sha256 = pluginNode.checksum == null ? null : pluginNode.checksum.sha_256;
+
+		push(pluginNode, ext, file ->
+		{
+			if(sha256 != null && myBlobStore != null && myBlobStore.link(sha256, file))
+			{
+				return;
+			}
+
+			if(!ArtifactBlobStore.createLink(sourceFile, file))
+			{
+				FileUtilRt.copy(sourceFile, file);
+			}
+		}, sha256);
+	}
+
+	private void push(PluginNode pluginNode, String ext, ThrowableConsumer<File, Exception> writeConsumer, @Nullable String sha256) throws Exception
+	{
+		PluginsState pluginsState = myPlugins.computeIfAbsent(pluginNode.id, this::newPluginsState);
 
-		pluginsState.push(pluginNode, ext, writeConsumer);
+		Lock lock = myIndexLock.readLock();
+		lock.lock();
+		try
+		{
+			pluginsState.push(pluginNode, ext, writeConsumer, sha256);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		syncJournal();
+
+		myGeneration.incrementAndGet();
 	}
 
 	@VisibleForTesting
 	public void _add(PluginNode node) throws Exception
 	{
-		PluginsState pluginsState = myPlugins.computeIfAbsent(node.id, id -> new PluginsSetWithLock(myPluginChannelDirectory, node.id));
+		PluginsState pluginsState = myPlugins.computeIfAbsent(node.id, this::newPluginsState);
 
 		pluginsState._add(node);
+
+		myGeneration.incrementAndGet();
 	}
 
-	public void initImpl(File pluginChannelDir)
+	public void initImpl(File pluginChannelDir, @Nullable ArtifactBlobStore blobStore, @Nullable DerivedArchiveCache derivedArchiveCache)
 	{
 		myLoading = true;
+		myBlobStore = blobStore;
+		myDerivedArchiveCache = derivedArchiveCache;
 		File channelDir = new File(pluginChannelDir, myChannel.name());
 
 		FileUtil.createDirectory(channelDir);
@@ -165,8 +403,54 @@ public class PluginChannelService
 		long time = System.currentTimeMillis();
 		Map<String, List<Pair<PluginNode, File>>> map = ContainerUtil.newConcurrentMap();
 
+		myIndex = new PluginChannelIndex(channelDir);
+
+		PluginChannelIndex.Content index = myIndex.read();
+		Map<String, PluginChannelIndex.Directory> indexedState = index == null ? null : index.myDirectories;
+
+		closeJournal();
+
+		PluginChannelJournal journal = new PluginChannelJournal(channelDir, myIndex::readJournalSequence);
+		AtomicLong replayedRecords = new AtomicLong();
+		try
+		{
+			journal.open(index == null ? 0 : index.myJournalSequence, record ->
+			{
+				// without index all directories will be scanned
+				if(indexedState != null)
+				{
+					replayRecord(indexedState, record);
+					replayedRecords.incrementAndGet();
+				}
+			});
+
+			myJournal = journal;
+		}
+		catch(IOException e)
+		{
+			// without journal directories changes will be detected only by modification time
+			logger.error("Failed to open journal. Channel: " + myChannel, e);
+		}
+
+		AtomicLong indexedDirectories = new AtomicLong();
+		AtomicLong scannedDirectories = new AtomicLong();
+
 		Arrays.stream(pluginIdDirectories).parallel().filter(File::isDirectory).forEach(file ->
 		{
+			PluginChannelIndex.Directory indexed = indexedState == null ? null : indexedState.get(file.getName());
+			// directory was not changed after last checkpoint or journal record
+			if(indexed != null && indexed.myLastModified == file.lastModified())
+			{
+				for(Pair<PluginNode, File> pair : indexed.myNodes)
+				{
+					map.computeIfAbsent(pair.getFirst().id, it -> ContainerUtil.createConcurrentList()).add(pair);
+				}
+				indexedDirectories.incrementAndGet();
+				return;
+			}
+
+			scannedDirectories.incrementAndGet();
+
 			File[] files = file.listFiles();
 			if(files != null)
 			{
@@ -176,8 +460,306 @@ public class PluginChannelService
 
 		map.entrySet().parallelStream().forEach(this::processEntry);
 
+		myGeneration.incrementAndGet();
+
+		// index is missed, or it contains removed or changed directories
+		if(indexedState == null || scannedDirectories.get() > 0 || indexedState.size() != indexedDirectories.get())
+		{
+			scheduleCheckpoint();
+		}
+
 		myLoading = false;
-		logger.info("Loading done by " + (System.currentTimeMillis() - time) + " ms. Channel: " + myChannel);
+		logger.info("Loading done by " + (System.currentTimeMillis() - time) + " ms. Indexed directories: " + indexedDirectories + ", scanned directories: " + scannedDirectories +
+				", replayed journal records: " + replayedRecords + ". Channel: " + myChannel);
+	}
+
+	private static void replayRecord(@Nonnull Map<String, PluginChannelIndex.Directory> directories, @Nonnull PluginChannelJournal.Record record)
+	{
+		PluginChannelIndex.Directory directory = directories.get(record.myDirectoryName);
+
+		List<Pair<PluginNode, File>> nodes = directory == null ? new ArrayList<>() : directory.myNodes;
+		nodes.removeIf(pair -> pair.getFirst().version.equals(record.myVersion) && pair.getFirst().platformVersion.equals(record.myPlatformVersion));
+
+		if(record.myType == PluginChannelJournal.PUSH)
+		{
+			nodes.add(Pair.create(record.myNode, record.myArchive));
+		}
+
+		directories.put(record.myDirectoryName, new PluginChannelIndex.Directory(record.myDirectoryModified, nodes));
+	}
+
+	private void closeJournal()
+	{
+		if(myJournal != null)
+		{
+			try
+			{
+				myJournal.close();
+			}
+			catch(IOException e)
+			{
+				logger.warn(e.getMessage(), e);
+			}
+			myJournal = null;
+		}
+	}
+
+	private void syncJournal()
+	{
+		PluginChannelJournal journal = myJournal;
+		if(journal == null)
+		{
+			return;
+		}
+
+		try
+		{
+			journal.sync();
+		}
+		catch(IOException e)
+		{
+			// directory modification time will not match journal, and directory will be scanned at next start
+			logger.error("Failed to sync journal. Channel: " + myChannel, e);
+		}
+
+		if(journal.getRecordCount() >= ourCheckpointRecordCount)
+		{
+			scheduleCheckpoint();
+		}
+	}
+
+	/**
+	 * Checkpoints are coalesced - many requests in short time, will produce one index write
+	 */
+	private void scheduleCheckpoint()
+	{
+		if(myIndex != null && myCheckpointScheduled.compareAndSet(false, true))
+		{
+			ourIndexWriter.schedule(this::checkpoint, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Apply changes, which made by other nodes with shared storage
+	 *
+	 * @return count of applied changes
+	 */
+	public int syncWithJournal()
+	{
+		PluginChannelJournal journal = myJournal;
+		if(journal == null || myLoading)
+		{
+			return 0;
+		}
+
+		int count;
+		Lock lock = myIndexLock.readLock();
+		lock.lock();
+		try
+		{
+			count = journal.tail(this::applyRecord);
+		}
+		catch(IOException e)
+		{
+			logger.error("Failed to read journal. Channel: " + myChannel, e);
+			return 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if(count == -1)
+		{
+			logger.warn("Journal was compacted before applying. Reloading from checkpoint. Channel: " + myChannel);
+
+			count = reloadFromCheckpoint(journal);
+		}
+
+		if(count > 0)
+		{
+			myGeneration.incrementAndGet();
+
+			if(journal.getRecordCount() >= ourCheckpointRecordCount)
+			{
+				scheduleCheckpoint();
+			}
+		}
+		return count;
+	}
+
+	@Nullable
+	public PluginChannelJournal getJournal()
+	{
+		return myJournal;
+	}
+
+	/**
+	 * @return count of plugins
+	 */
+	private int reloadFromCheckpoint(@Nonnull PluginChannelJournal journal)
+	{
+		Map<String, PluginChannelIndex.Directory> directories = new HashMap<>();
+
+		Lock lock = myIndexLock.writeLock();
+		lock.lock();
+		try
+		{
+			journal.reload(() ->
+			{
+				PluginChannelIndex.Content content = myIndex.read();
+				if(content == null)
+				{
+					// compaction is always after checkpoint, index can't be missed
+					throw new IllegalStateException("Index is not found. Channel: " + myChannel);
+				}
+
+				directories.putAll(content.myDirectories);
+				return content.myJournalSequence;
+			}, record -> replayRecord(directories, record));
+
+			int count = 0;
+			for(PluginChannelIndex.Directory directory : directories.values())
+			{
+				count += directory.myNodes.size();
+			}
+
+			for(String pluginId : myPlugins.keySet())
+			{
+				directories.putIfAbsent(pluginId, new PluginChannelIndex.Directory(0, new ArrayList<>()));
+			}
+
+			for(Map.Entry<String, PluginChannelIndex.Directory> entry : directories.entrySet())
+			{
+				List<PluginNode> nodes = new ArrayList<>();
+				for(Pair<PluginNode, File> pair : entry.getValue().myNodes)
+				{
+					PluginNode node = pair.getFirst();
+					node.targetFile = pair.getSecond();
+					nodes.add(node);
+				}
+
+				PluginsState pluginsState = myPlugins.computeIfAbsent(entry.getKey(), this::newPluginsState);
+				pluginsState.replace(nodes);
+			}
+			return count;
+		}
+		catch(IOException | IllegalStateException e)
+		{
+			logger.error("Failed to reload from checkpoint. Channel: " + myChannel, e);
+			return 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Nonnull
+	private PluginsState newPluginsState(@Nonnull String pluginId)
+	{
+		return new PluginsSetWithLock(myPluginChannelDirectory, pluginId, myJournal, myBlobStore);
+	}
+
+	private void applyRecord(@Nonnull PluginChannelJournal.Record record)
+	{
+		PluginsState pluginsState = myPlugins.computeIfAbsent(record.myDirectoryName, this::newPluginsState);
+
+		pluginsState.apply(record);
+	}
+
+	/**
+	 * Write all channel state to index, and remove journal records which are included to it
+	 */
+	private void checkpoint()
+	{
+		myCheckpointScheduled.set(false);
+
+		Map<String, PluginChannelIndex.Directory> directories = new LinkedHashMap<>();
+
+		Lock lock = myIndexLock.writeLock();
+		// do not wait long deploy, try again later
+		if(!lock.tryLock())
+		{
+			scheduleCheckpoint();
+			return;
+		}
+
+		PluginChannelJournal journal = myJournal;
+		long journalSequence;
+		try
+		{
+			if(journal != null)
+			{
+				// changes of other nodes must be included to index
+				int count = journal.tail(this::applyRecord);
+				if(count == -1)
+				{
+					// other node already wrote newer checkpoint
+					return;
+				}
+
+				if(count > 0)
+				{
+					myGeneration.incrementAndGet();
+				}
+			}
+
+			journalSequence = journal == null ? 0 : journal.getAppliedSequence();
+
+			for(PluginsState state : myPlugins.values())
+			{
+				File pluginDirectory = state.getPluginDirectory();
+
+				List<Pair<PluginNode, File>> nodes = new ArrayList<>();
+				for(PluginNode node : state.getAll())
+				{
+					// nodes without file - added by tests
+					if(node.targetFile != null)
+					{
+						nodes.add(Pair.create(node, node.targetFile));
+					}
+				}
+
+				directories.put(pluginDirectory.getName(), new PluginChannelIndex.Directory(pluginDirectory.lastModified(), nodes));
+			}
+		}
+		catch(IOException e)
+		{
+			logger.warn("Failed to read journal. Channel: " + myChannel, e);
+			return;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		try
+		{
+			if(journal != null)
+			{
+				journal.compact(journalSequence, sequence -> writeIndex(sequence, directories));
+			}
+			else
+			{
+				writeIndex(journalSequence, directories);
+			}
+		}
+		catch(IOException e)
+		{
+			logger.warn("Failed to write checkpoint. Channel: " + myChannel, e);
+		}
+	}
+
+	private void writeIndex(long journalSequence, @Nonnull Map<String, PluginChannelIndex.Directory> directories) throws IOException
+	{
+		// other node already wrote newer checkpoint
+		if(myIndex.readJournalSequence() > journalSequence)
+		{
+			return;
+		}
+
+		myIndex.write(journalSequence, directories);
 	}
 
 	public boolean isLoading()
@@ -212,6 +794,8 @@ public class PluginChannelService
 			return;
 		}
 
+		pluginNode.length = targetArchive.length();
+
 		List<Pair<PluginNode, File>> list = map.computeIfAbsent(pluginNode.id, it -> ContainerUtil.createConcurrentList());
 		list.add(Pair.create(pluginNode, targetArchive));
 	}
@@ -220,7 +804,7 @@ public class PluginChannelService
 	{
 		String pluginId = entry.getKey();
 
-		PluginsState pluginsState = myPlugins.computeIfAbsent(pluginId, id -> new PluginsSetWithLock(myPluginChannelDirectory, pluginId));
+		PluginsState pluginsState = myPlugins.computeIfAbsent(pluginId, this::newPluginsState);
 
 		pluginsState.processEntry(entry);
 	}
@@ -0,0 +1,49 @@
+package consulo.webService.plugins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.plugins.pluginsState.PluginChannelJournal;
+
+/**
+ * Apply plugin changes, which made by other nodes with shared storage
+ *
+ * @since 18-Oct-26
+ */
+@Service
+public class PluginChannelSyncService
+{
+	private static final Logger logger = LoggerFactory.getLogger(PluginChannelSyncService.class);
+
+	// warn, if changes of other nodes are visible after this delay. Delay is only reported - after tail all written records are already applied,
+	// and reload from checkpoint can't make them visible earlier
+	private static final long ourMaxApplyDelay = 30 * 1000L;
+
+	private final UserConfigurationService myUserConfigurationService;
+
+	@Autowired
+	public PluginChannelSyncService(UserConfigurationService userConfigurationService)
+	{
+		myUserConfigurationService = userConfigurationService;
+	}
+
+	@Scheduled(fixedDelay = 1000)
+	public void sync()
+	{
+		for(PluginChannel channel : PluginChannel.values())
+		{
+			PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(channel);
+
+			int count = channelService.syncWithJournal();
+
+			PluginChannelJournal journal = channelService.getJournal();
+			if(count > 0 && journal != null && journal.getLastApplyDelay() > ourMaxApplyDelay)
+			{
+				logger.warn("Journal apply delay is " + journal.getLastApplyDelay() + " ms. Channel: " + channel);
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package consulo.webService.plugins;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * State of deploy, which executed by {@link PluginDeployJobService}. Fields are changed by worker thread, and read by status requests
+ *
+ * @since 18-Oct-26
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PluginDeployJob
+{
+	public enum Type
+	{
+		// plugins are small - they are executed before platforms
+		plugin,
+		platform
+	}
+
+	public enum Stage
+	{
+		queued,
+		reading,
+		analyzing,
+		writing,
+		finished,
+		failed
+	}
+
+	public String id;
+	public Type type;
+	public PluginChannel channel;
+
+	public volatile Stage stage = Stage.queued;
+
+	// result of deploy, if stage is finished
+	public volatile PluginNode node;
+	// error message, if stage is failed
+	public volatile String error;
+
+	public long createTime;
+	public volatile Long startTime;
+	public volatile Long finishTime;
+
+	public boolean isDone()
+	{
+		Stage stage = this.stage;
+		return stage == Stage.finished || stage == Stage.failed;
+	}
+}
@@ -0,0 +1,418 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.util.GsonUtil;
+import consulo.webService.util.PropertyKeys;
+
+/**
+ * Execute deploys in background. Upload is stored to temp file, and deploy is executed by bounded worker pool - plugins before platforms.
+ *
+ * Upload and manifest of job are stored in working directory, until deploy is finished. Not finished jobs are queued again after restart,
+ * deploy of same upload is not duplicated - it's found by upload checksum
+ *
+ * Client receive job id, and poll job status
+ *
+ * @since 18-Oct-26
+ */
+@Service
+public class PluginDeployJobService
+{
+	// stored as json in jobs directory
+	private static class Manifest
+	{
+		public String id;
+		public PluginDeployJob.Type type;
+		public PluginChannel channel;
+		public long createTime;
+		// name of upload in jobs directory
+		public String uploadFile;
+		public String uploadSha256;
+
+		// only for platform
+		public int platformVersion;
+		public String pluginId;
+	}
+
+	private class Task implements Runnable, Comparable<Task>
+	{
+		private final PluginDeployJob myJob;
+		private final Manifest myManifest;
+		private final File myUploadFile;
+		private final File myManifestFile;
+		private final long myOrder;
+
+		private Task(PluginDeployJob job, Manifest manifest, File uploadFile, File manifestFile)
+		{
+			myJob = job;
+			myManifest = manifest;
+			myUploadFile = uploadFile;
+			myManifestFile = manifestFile;
+			myOrder = myOrderCounter.incrementAndGet();
+		}
+
+		@Override
+		public void run()
+		{
+			myQueuedCount.decrementAndGet();
+
+			myJob.startTime = System.currentTimeMillis();
+			boolean restartable = false;
+			try
+			{
+				if(myManifest.type == PluginDeployJob.Type.platform)
+				{
+					myJob.node = myPluginDeployService.deployPlatform(myManifest.channel, myManifest.platformVersion, myManifest.pluginId, myUploadFile, myManifest.uploadSha256,
+							stage -> myJob.stage = stage);
+				}
+				else
+				{
+					myJob.node = myPluginDeployService.deployPlugin(myManifest.channel, myUploadFile, myManifest.uploadSha256, stage -> myJob.stage = stage);
+				}
+				myJob.stage = PluginDeployJob.Stage.finished;
+			}
+			catch(Throwable e)
+			{
+				if(myShutdown)
+				{
+					// job is queued again after restart
+					restartable = true;
+					logger.info("Deploy is interrupted by shutdown: " + myJob.id);
+					return;
+				}
+
+				logger.error("Deploy failed: " + myJob.id, e);
+
+				myJob.error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+				myJob.stage = PluginDeployJob.Stage.failed;
+			}
+			finally
+			{
+				myJob.finishTime = System.currentTimeMillis();
+
+				if(!restartable)
+				{
+					// manifest is deleted first - job is not queued again after restart
+					FileUtil.delete(myManifestFile);
+					myUserConfigurationService.asyncDelete(myUploadFile);
+				}
+			}
+		}
+
+		@Override
+		public int compareTo(@Nonnull Task o)
+		{
+			int compare = myJob.type.compareTo(o.myJob.type);
+			if(compare != 0)
+			{
+				return compare;
+			}
+			return Long.compare(myOrder, o.myOrder);
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginDeployJobService.class);
+
+	public static final String DIRECTORY_NAME = "deployJobs";
+
+	private static final String MANIFEST_EXTENSION = ".json";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	// finished jobs are available for polling this time
+	private static final long ourJobExpireTime = TimeUnit.HOURS.toMillis(1);
+
+	private final UserConfigurationService myUserConfigurationService;
+	private final PluginDeployService myPluginDeployService;
+
+	private final Map<String, PluginDeployJob> myJobs = new ConcurrentHashMap<>();
+
+	private final AtomicLong myOrderCounter = new AtomicLong();
+	private final AtomicInteger myQueuedCount = new AtomicInteger();
+
+	private ThreadPoolExecutor myExecutor;
+	private volatile boolean myShutdown;
+
+	@Autowired
+	public PluginDeployJobService(UserConfigurationService userConfigurationService, PluginDeployService pluginDeployService)
+	{
+		myUserConfigurationService = userConfigurationService;
+		myPluginDeployService = pluginDeployService;
+
+		myUserConfigurationService.addInitializeListener(this::restoreJobs);
+	}
+
+	@Nonnull
+	public PluginDeployJob submitPlugin(@Nonnull PluginChannel channel, @Nonnull MultipartFile multipartFile) throws IOException
+	{
+		File uploadFile = createUploadFile("zip");
+
+		return submitPlugin(channel, uploadFile, store(multipartFile, uploadFile));
+	}
+
+	@Nonnull
+	public PluginDeployJob submitPlatform(@Nonnull PluginChannel channel, int platformVersion, @Nonnull MultipartFile multipartFile) throws IOException
+	{
+		String pluginId = multipartFile.getOriginalFilename().replace(".tar.gz", "");
+
+		File uploadFile = createUploadFile("tar.gz");
+
+		return submitPlatform(channel, platformVersion, pluginId, uploadFile, store(multipartFile, uploadFile));
+	}
+
+	/**
+	 * @param uploadFile   file in temp directory, which will be moved to jobs directory, and deleted after deploy
+	 * @param uploadSha256 checksum of uploadFile, or null if it's not calculated
+	 */
+	@Nonnull
+	public PluginDeployJob submitPlugin(@Nonnull PluginChannel channel, @Nonnull File uploadFile, @Nullable String uploadSha256) throws IOException
+	{
+		Manifest manifest = new Manifest();
+		manifest.type = PluginDeployJob.Type.plugin;
+		manifest.channel = channel;
+		manifest.uploadSha256 = uploadSha256;
+		return submit(manifest, uploadFile, "zip");
+	}
+
+	/**
+	 * @param uploadFile   file in temp directory, which will be moved to jobs directory, and deleted after deploy
+	 * @param uploadSha256 checksum of uploadFile, or null if it's not calculated
+	 */
+	@Nonnull
+	public PluginDeployJob submitPlatform(@Nonnull PluginChannel channel, int platformVersion, @Nonnull String pluginId, @Nonnull File uploadFile, @Nullable String uploadSha256)
+			throws IOException
+	{
+		Manifest manifest = new Manifest();
+		manifest.type = PluginDeployJob.Type.platform;
+		manifest.channel = channel;
+		manifest.uploadSha256 = uploadSha256;
+		manifest.platformVersion = platformVersion;
+		manifest.pluginId = pluginId;
+		return submit(manifest, uploadFile, "tar.gz");
+	}
+
+	public boolean isQueueFull()
+	{
+		return myQueuedCount.get() >= myUserConfigurationService.getPropertySet().getIntProperty(PropertyKeys.DEPLOY_JOB_MAX_QUEUED, 32);
+	}
+
+	@Nullable
+	public PluginDeployJob getJob(@Nonnull String id)
+	{
+		return myJobs.get(id);
+	}
+
+	@Scheduled(fixedDelay = 60 * 1000)
+	public void removeExpiredJobs()
+	{
+		long time = System.currentTimeMillis() - ourJobExpireTime;
+
+		myJobs.values().removeIf(job -> job.isDone() && job.finishTime != null && job.finishTime < time);
+	}
+
+	@PreDestroy
+	public synchronized void shutdown()
+	{
+		myShutdown = true;
+
+		if(myExecutor != null)
+		{
+			myExecutor.shutdownNow();
+		}
+	}
+
+	@Nonnull
+	private synchronized ThreadPoolExecutor getExecutor()
+	{
+		if(myExecutor == null)
+		{
+			int workerCount = Math.max(1, myUserConfigurationService.getPropertySet().getIntProperty(PropertyKeys.DEPLOY_JOB_WORKER_COUNT, 2));
+
+			AtomicInteger threadCounter = new AtomicInteger();
+			myExecutor = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable ->
+			{
+				Thread thread = new Thread(runnable, "plugin deploy " + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return myExecutor;
+	}
+
+	@Nonnull
+	private File getJobsDirectory()
+	{
+		File directory = new File(myUserConfigurationService.getWorkingDirectory(), DIRECTORY_NAME);
+		FileUtil.createDirectory(directory);
+		return directory;
+	}
+
+	@Nonnull
+	private File createUploadFile(String ext) throws IOException
+	{
+		if(isQueueFull())
+		{
+			throw new IOException("Deploy queue is full");
+		}
+
+		return myUserConfigurationService.createTempFile("deploy_job", ext);
+	}
+
+	/**
+	 * @return sha256 of upload
+	 */
+	@Nonnull
+	private static String store(MultipartFile multipartFile, File uploadFile) throws IOException
+	{
+		try (InputStream inputStream = multipartFile.getInputStream())
+		{
+			return PluginDeployService.storeUpload(inputStream, uploadFile);
+		}
+	}
+
+	@Nonnull
+	private PluginDeployJob submit(Manifest manifest, File tempFile, String ext) throws IOException
+	{
+		manifest.id = UUID.randomUUID().toString();
+		manifest.createTime = System.currentTimeMillis();
+		manifest.uploadFile = manifest.id + "." + ext;
+
+		File directory = getJobsDirectory();
+		File uploadFile = new File(directory, manifest.uploadFile);
+		File manifestFile = new File(directory, manifest.id + MANIFEST_EXTENSION);
+		try
+		{
+			// temp directory is inside working directory - it's rename
+			Files.move(tempFile.toPath(), uploadFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+			writeManifest(manifest, manifestFile);
+		}
+		catch(IOException e)
+		{
+			myUserConfigurationService.asyncDelete(tempFile, uploadFile);
+			throw e;
+		}
+
+		return enqueue(manifest, uploadFile, manifestFile);
+	}
+
+	@Nonnull
+	private PluginDeployJob enqueue(Manifest manifest, File uploadFile, File manifestFile)
+	{
+		PluginDeployJob job = new PluginDeployJob();
+		job.id = manifest.id;
+		job.type = manifest.type;
+		job.channel = manifest.channel;
+		job.createTime = manifest.createTime;
+
+		myJobs.put(job.id, job);
+
+		myQueuedCount.incrementAndGet();
+		getExecutor().execute(new Task(job, manifest, uploadFile, manifestFile));
+		return job;
+	}
+
+	private static void writeManifest(Manifest manifest, File manifestFile) throws IOException
+	{
+		File tempFile = new File(manifestFile.getParentFile(), manifestFile.getName() + TEMP_EXTENSION);
+		try
+		{
+			Files.write(tempFile.toPath(), GsonUtil.get().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+
+			Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			FileUtil.delete(tempFile);
+		}
+	}
+
+	/**
+	 * Queue again jobs, which are not finished before restart. Called after initialization of working directory and channels
+	 */
+	private void restoreJobs()
+	{
+		File directory = getJobsDirectory();
+
+		File[] files = directory.listFiles();
+		if(files == null)
+		{
+			return;
+		}
+
+		List<Manifest> manifests = new ArrayList<>();
+		Set<String> usedFiles = new HashSet<>();
+		for(File file : files)
+		{
+			if(!file.getName().endsWith(MANIFEST_EXTENSION))
+			{
+				continue;
+			}
+
+			try
+			{
+				Manifest manifest = GsonUtil.get().fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), Manifest.class);
+				if(manifest == null || manifest.id == null || manifest.type == null || manifest.channel == null || manifest.uploadFile == null || !new File(directory,
+						manifest.uploadFile).exists())
+				{
+					throw new IOException("Bad manifest");
+				}
+
+				manifests.add(manifest);
+				usedFiles.add(file.getName());
+				usedFiles.add(manifest.uploadFile);
+			}
+			catch(Exception e)
+			{
+				logger.warn("Failed to restore deploy job: " + file.getPath(), e);
+			}
+		}
+
+		// uploads without manifest, broken manifests and temp files
+		for(File file : files)
+		{
+			if(!usedFiles.contains(file.getName()))
+			{
+				FileUtil.delete(file);
+			}
+		}
+
+		manifests.sort(Comparator.comparingLong(manifest -> manifest.createTime));
+
+		for(Manifest manifest : manifests)
+		{
+			logger.info("Deploy job is queued after restart: " + manifest.id);
+
+			enqueue(manifest, new File(directory, manifest.uploadFile), new File(directory, manifest.id + MANIFEST_EXTENSION));
+		}
+	}
+}
@@ -1,20 +1,23 @@
 package consulo.webService.plugins;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.ThrowableComputable;
-import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
-import com.intellij.util.CommonProcessors;
+import com.intellij.util.ThrowableConsumer;
 import com.intellij.util.containers.MultiMap;
-import com.intellij.util.io.ZipUtil;
 import consulo.container.impl.ContainerLogger;
 import consulo.container.impl.PluginDescriptorImpl;
 import consulo.container.impl.PluginDescriptorLoader;
 import consulo.container.plugin.PluginId;
 import consulo.webService.UserConfigurationService;
-import consulo.webService.plugins.archive.TarGzArchive;
+import consulo.webService.plugins.archive.PluginZipArchive;
+import consulo.webService.plugins.archive.TarGzArchiveRewriter;
+import consulo.webService.util.PropertyKeys;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,8 +29,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * @author VISTALL
@@ -83,61 +86,110 @@ public class PluginDeployService
 	{
 		File tempFile = myUserConfigurationService.createTempFile("deploy", "tar.gz");
 
-		multipartFile.transferTo(tempFile);
+		String uploadSha256;
+		try (InputStream inputStream = multipartFile.getInputStream())
+		{
+			uploadSha256 = storeUpload(inputStream, tempFile);
+		}
 
 		String pluginId = multipartFile.getOriginalFilename().replace(".tar.gz", "");
 
-		PluginNode pluginNode = deployPlatform(channel, platformVersion, pluginId, tempFile);
-
-		myUserConfigurationService.asyncDelete(tempFile);
-
-		return pluginNode;
+		try
+		{
+			return deployPlatform(channel, platformVersion, pluginId, tempFile, uploadSha256, stage ->
+			{
+			});
+		}
+		finally
+		{
+			myUserConfigurationService.asyncDelete(tempFile);
+		}
 	}
 
 	@Nonnull
 	public PluginNode deployPlatform(@Nonnull PluginChannel channel, int platformVersion, @Nonnull String pluginId, @Nonnull File tempFile) throws Exception
 	{
-		File deployPlatform = myUserConfigurationService.createTempFile("deploy_platform_extract", null);
+		return deployPlatform(channel, platformVersion, pluginId, tempFile, null, stage ->
+		{
+		});
+	}
+
+	/**
+	 * @param uploadSha256 checksum of tempFile, or null if it's not calculated
+	 */
+	@Nonnull
+	public PluginNode deployPlatform(@Nonnull PluginChannel channel,
+			int platformVersion,
+			@Nonnull String pluginId,
+			@Nonnull File tempFile,
+			@Nullable String uploadSha256,
+			@Nonnull Consumer<PluginDeployJob.Stage> progress) throws Exception
+	{
+		String checksum = uploadSha256 != null ? uploadSha256 : sha256(tempFile);
 
-		TarGzArchive archive = new TarGzArchive();
+		String platformVersionAsString = String.valueOf(platformVersion);
+		PluginNode deployed = findDeployed(channel, checksum, node -> pluginId.equals(node.id) && platformVersionAsString.equals(node.platformVersion));
+		if(deployed != null)
+		{
+			return deployed;
+		}
 
-		archive.extract(tempFile, deployPlatform);
+		// archive is read while writing
+		progress.accept(PluginDeployJob.Stage.writing);
 
-		PluginNode pluginNode = deployPlatformImpl(channel, pluginId, platformVersion, archive, "tar.gz");
+		return writePlatform(channel, platformVersion, pluginId, tempFile, checksum);
+	}
 
-		if(pluginId.startsWith("consulo-win"))
+	/**
+	 * Deploy platform archive of other channel (iteration). Archive is not hashed, and not checked for same deploy - iteration skip nodes,
+	 * which are already in channel
+	 *
+	 * @param sourceNode node of other channel, upload checksum is copied from it
+	 */
+	@Nonnull
+	public PluginNode promotePlatform(@Nonnull PluginChannel channel, @Nonnull PluginNode sourceNode, @Nonnull File sourceFile) throws Exception
+	{
+		String uploadSha256 = sourceNode.checksum == null ? null : sourceNode.checksum.upload_sha_256;
+
+		return writePlatform(channel, Integer.parseInt(sourceNode.platformVersion), sourceNode.id, sourceFile, uploadSha256);
+	}
+
+	@Nonnull
+	private PluginNode writePlatform(PluginChannel channel, int platformVersion, String pluginId, File tempFile, @Nullable String uploadSha256) throws Exception
+	{
+		TarGzArchiveRewriter rewriter = new TarGzArchiveRewriter();
+		rewriter.setGzipThreads(myUserConfigurationService.getPropertySet().getIntProperty(PropertyKeys.DEPLOY_GZIP_THREADS, 1));
+
+		// remove old plugin channel markets
+		for(PluginChannel pluginChannel : PluginChannel.values())
 		{
-			// special hack for windows
-			deployPlatformImpl(channel, pluginId + "-zip", platformVersion, archive, "zip");
+			rewriter.removeEntry(makePluginChannelFileName(pluginId, pluginChannel));
 		}
 
-		myUserConfigurationService.asyncDelete(deployPlatform);
+		rewriter.putEntry(makePluginChannelFileName(pluginId, channel), ArrayUtil.EMPTY_BYTE_ARRAY);
 
-		return pluginNode;
+		// zip archive of windows platform is generated on first download, see PluginChannelService#selectZip
+		return deployPlatformImpl(channel, pluginId, platformVersion, "tar.gz", uploadSha256, file -> rewriter.rewrite(tempFile, Collections.singletonList(Pair.create(file, ArchiveStreamFactory.TAR))));
 	}
 
 	@Nonnull
-	private PluginNode deployPlatformImpl(PluginChannel channel, String pluginId, int platformVersion, TarGzArchive archive, String ext) throws Exception
+	private PluginNode deployPlatformImpl(PluginChannel channel,
+			String pluginId,
+			int platformVersion,
+			String ext,
+			@Nullable String uploadSha256,
+			ThrowableConsumer<File, Exception> writeConsumer) throws Exception
 	{
 		PluginNode pluginNode = new PluginNode();
 		pluginNode.id = pluginId;
 		pluginNode.version = String.valueOf(platformVersion);
 		pluginNode.name = "Platform";
 		pluginNode.platformVersion = String.valueOf(platformVersion);
-
-		// remove old plugin channel markets
-		for(PluginChannel pluginChannel : PluginChannel.values())
-		{
-			archive.removeEntry(makePluginChannelFileName(pluginId, pluginChannel));
-		}
-
-		archive.putEntry(makePluginChannelFileName(pluginId, channel), ArrayUtil.EMPTY_BYTE_ARRAY);
+		setUploadChecksum(pluginNode, uploadSha256);
 
 		PluginChannelService pluginChannelService = myUserConfigurationService.getRepositoryByChannel(channel);
 
-		String type = ext.equals("zip") ? ArchiveStreamFactory.ZIP : ArchiveStreamFactory.TAR;
-
-		pluginChannelService.push(pluginNode, ext, f -> archive.create(f, type));
+		pluginChannelService.push(pluginNode, ext, writeConsumer);
 
 		return pluginNode;
 	}
@@ -159,40 +211,78 @@ public class PluginDeployService
 	{
 		File tempFile = myUserConfigurationService.createTempFile("deploy", "zip");
 
+		String uploadSha256;
 		try (InputStream inputStream = streamSupplier.compute())
 		{
-			try (OutputStream output = new FileOutputStream(tempFile))
+			uploadSha256 = storeUpload(inputStream, tempFile);
+		}
+
+		try
+		{
+			return deployPlugin(channel, tempFile, uploadSha256, stage ->
 			{
-				ByteStreams.copy(inputStream, output);
-			}
+			});
+		}
+		finally
+		{
+			myUserConfigurationService.asyncDelete(tempFile);
+		}
+	}
+
+	/**
+	 * @param zipFile      uploaded plugin archive, it's not deleted after deploy
+	 * @param uploadSha256 checksum of zipFile, or null if it's not calculated
+	 */
+	public PluginNode deployPlugin(@Nonnull PluginChannel channel, @Nonnull File zipFile, @Nullable String uploadSha256, @Nonnull Consumer<PluginDeployJob.Stage> progress) throws Exception
+	{
+		String checksum = uploadSha256 != null ? uploadSha256 : sha256(zipFile);
+
+		// same archive is already deployed (for example, CI build is restarted)
+		PluginNode deployed = findDeployed(channel, checksum, node -> true);
+		if(deployed != null)
+		{
+			return deployed;
 		}
 
+		progress.accept(PluginDeployJob.Stage.reading);
+
 		File deployUnzip = myUserConfigurationService.createTempFile("deploy_unzip", "");
 
-		FileUtilRt.createDirectory(deployUnzip);
+		PluginNode pluginNode;
+		try (PluginZipArchive archive = new PluginZipArchive(zipFile))
+		{
+			List<String> pluginDirectories = archive.findPluginDirectories();
+			if(pluginDirectories.size() != 1)
+			{
+				throw new IllegalArgumentException("Bad plugin [" + pluginDirectories.size() + "]");
+			}
 
-		ZipUtil.extract(tempFile, deployUnzip, null);
+			String pluginPrefix = pluginDirectories.get(0);
 
-		PluginNode pluginNode = loadPlugin(myUserConfigurationService, channel, deployUnzip);
+			// only lib jars and descriptor are extracted - descriptor loader and analyzer need them as files
+			File pluginDirectory = new File(deployUnzip, pluginPrefix);
+			archive.extractLibraries(pluginPrefix, pluginDirectory);
 
-		myUserConfigurationService.asyncDelete(tempFile);
-		myUserConfigurationService.asyncDelete(deployUnzip);
+			pluginNode = loadPlugin(myUserConfigurationService, channel, archive, pluginPrefix, pluginDirectory, checksum, progress);
+		}
+		finally
+		{
+			myUserConfigurationService.asyncDelete(deployUnzip);
+		}
 		return pluginNode;
 	}
 
-	private PluginNode loadPlugin(UserConfigurationService userConfigurationService, PluginChannel channel, File deployUnzip) throws Exception
+	private PluginNode loadPlugin(UserConfigurationService userConfigurationService, PluginChannel channel, PluginZipArchive archive, String pluginPrefix,
+			File pluginDirectory,
+			String uploadSha256,
+			Consumer<PluginDeployJob.Stage> progress) throws Exception
 	{
-		List<PluginDescriptorImpl> pluginDescriptors = new ArrayList<>();
-
-		loadDescriptors(deployUnzip, pluginDescriptors);
-
-		if(pluginDescriptors.size() != 1)
+		PluginDescriptorImpl pluginDescriptor = PluginDescriptorLoader.loadDescriptor(pluginDirectory, true, false, OwnContainerLogger.ourInstance);
+		if(pluginDescriptor == null)
 		{
-			throw new IllegalArgumentException("Bad plugin [" + pluginDescriptors.size() + "]");
+			throw new IllegalArgumentException("Bad plugin [0]");
 		}
 
-		PluginDescriptorImpl pluginDescriptor = pluginDescriptors.get(0);
-
 		PluginNode pluginNode = new PluginNode();
 		pluginNode.id = pluginDescriptor.getPluginId().getIdString();
 		pluginNode.version = stableVersion(pluginDescriptor.getVersion());
@@ -217,70 +307,99 @@ public class PluginDeployService
 		}
 
 		pluginNode.dependencies = deps.stream().map(PluginId::getIdString).toArray(String[]::new);
+		setUploadChecksum(pluginNode, uploadSha256);
 
 		PluginChannelService pluginChannelService = userConfigurationService.getRepositoryByChannel(channel);
 
-		try
-		{
-			PluginAnalyzerService.ExtensionsResult result = myPluginAnalyzerService.analyze(pluginDescriptor, pluginChannelService, pluginNode.dependencies);
+		progress.accept(PluginDeployJob.Stage.analyzing);
 
-			pluginNode.extensions = convert(result.v1);
-			pluginNode.extensionsV2 = convert(result.v2);
-		}
-		catch(Exception e)
+		// same archive with same dependencies is already analyzed (redeploy, or deploy to other channel)
+		PluginAnalyzeCache analyzeCache = myPluginAnalyzerService.getAnalyzeCache();
+		String analyzeKey = PluginAnalyzeCache.createKey(uploadSha256, pluginNode.dependencies, pluginChannelService);
+
+		PluginAnalyzeCache.Result cachedResult = analyzeCache.get(analyzeKey);
+		if(cachedResult != null)
 		{
-			logger.info(e.getMessage(), e);
+			pluginNode.extensions = cachedResult.extensions;
+			pluginNode.extensionsV2 = cachedResult.extensionsV2;
 		}
-
-		pluginChannelService.push(pluginNode, "zip", f -> {
-			try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(f)))
+		else
+		{
+			try
 			{
-				CommonProcessors.CollectProcessor<File> fileCollectProcessor = new CommonProcessors.CollectProcessor<>();
-				File ideaPluginDescriptorPath = pluginDescriptor.getPath();
-				assert ideaPluginDescriptorPath != null;
-				FileUtil.visitFiles(ideaPluginDescriptorPath, fileCollectProcessor);
-
-				for(File child : fileCollectProcessor.getResults())
-				{
-					if(child.isDirectory())
-					{
-						continue;
-					}
+				PluginAnalyzerService.ExtensionsResult result = myPluginAnalyzerService.analyze(pluginDescriptor, pluginChannelService, pluginNode.dependencies);
 
-					String relativePath = FileUtilRt.getRelativePath(ideaPluginDescriptorPath, child);
+				pluginNode.extensions = convert(result.v1);
+				pluginNode.extensionsV2 = convert(result.v2);
 
-					ZipEntry zipEntry = new ZipEntry(pluginNode.id + "/" + relativePath);
-					zipOutputStream.putNextEntry(zipEntry);
-
-					try (FileInputStream fileOutputStream = new FileInputStream(child))
-					{
-						ByteStreams.copy(fileOutputStream, zipOutputStream);
-					}
-
-					zipOutputStream.closeEntry();
+				if(result.complete)
+				{
+					PluginAnalyzeCache.Result newResult = new PluginAnalyzeCache.Result();
+					newResult.extensions = pluginNode.extensions;
+					newResult.extensionsV2 = pluginNode.extensionsV2;
+					analyzeCache.put(analyzeKey, newResult);
 				}
 			}
-		});
+			catch(Exception e)
+			{
+				logger.info(e.getMessage(), e);
+			}
+		}
+
+		progress.accept(PluginDeployJob.Stage.writing);
+
+		pluginChannelService.push(pluginNode, "zip", f -> archive.repack(pluginPrefix, pluginNode.id + "/", f));
 
 		return pluginNode;
 	}
 
-	public static void loadDescriptors(@Nonnull File pluginsHome, @Nonnull List<PluginDescriptorImpl> result)
+	/**
+	 * Copy upload to file, and calculate checksum while copying
+	 *
+	 * @return sha256 of upload
+	 */
+	@Nonnull
+	public static String storeUpload(@Nonnull InputStream inputStream, @Nonnull File file) throws IOException
 	{
-		final File[] files = pluginsHome.listFiles();
-		if(files != null)
+		HashingInputStream hashingStream = new HashingInputStream(Hashing.sha256(), inputStream);
+		try (OutputStream output = new FileOutputStream(file))
 		{
-			for(File file : files)
-			{
-				final PluginDescriptorImpl descriptor = PluginDescriptorLoader.loadDescriptor(file, true, false, OwnContainerLogger.ourInstance);
-				if(descriptor == null)
-				{
-					continue;
-				}
+			ByteStreams.copy(hashingStream, output);
+		}
+		return hashingStream.hash().toString();
+	}
+
+	@Nullable
+	private PluginNode findDeployed(PluginChannel channel, String uploadSha256, Predicate<PluginNode> filter)
+	{
+		PluginChannelService pluginChannelService = myUserConfigurationService.getRepositoryByChannel(channel);
 
-				result.add(descriptor);
+		for(PluginNode node : pluginChannelService.findByUploadChecksum(uploadSha256))
+		{
+			if(filter.test(node))
+			{
+				logger.info("Archive is already deployed: " + node.id + "=" + node.version + ", channel: " + channel);
+				return node;
 			}
 		}
+		return null;
+	}
+
+	private static void setUploadChecksum(PluginNode pluginNode, @Nullable String uploadSha256)
+	{
+		if(uploadSha256 == null)
+		{
+			return;
+		}
+
+		pluginNode.checksum = new PluginNode.Checksum();
+		pluginNode.checksum.upload_sha_256 = uploadSha256;
+	}
+
+	@Nonnull
+	private static String sha256(File file) throws IOException
+	{
+		return Files.asByteSource(file).hash(Hashing.sha256()).toString();
 	}
 
 	@Nullable
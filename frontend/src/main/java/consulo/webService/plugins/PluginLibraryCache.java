@@ -0,0 +1,322 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.plugins.archive.PluginZipArchive;
+
+/**
+ * Disk cache of extracted lib directories of plugins, which are used as dependencies while analyzing other plugins.
+ *
+ * Directory is extracted once per plugin archive, concurrent requests wait one extraction. Size of cache is limited, least recently used
+ * directories are deleted - but not while they are used by analyze
+ *
+ * @since 18-Oct-26
+ */
+public class PluginLibraryCache
+{
+	/**
+	 * Acquired lib directory. Directory is not deleted until library is closed
+	 */
+	public class Library implements AutoCloseable
+	{
+		private final Entry myEntry;
+		private boolean myClosed;
+
+		private Library(Entry entry)
+		{
+			myEntry = entry;
+		}
+
+		@Nonnull
+		public List<URL> getJarUrls() throws MalformedURLException
+		{
+			List<URL> urls = new ArrayList<>();
+			File[] files = myEntry.myDirectory.listFiles((dir, name) -> name.endsWith(".jar"));
+			if(files != null)
+			{
+				for(File file : files)
+				{
+					urls.add(file.toURI().toURL());
+				}
+			}
+			return urls;
+		}
+
+		@Override
+		public void close()
+		{
+			synchronized(myEntries)
+			{
+				if(myClosed)
+				{
+					return;
+				}
+
+				myClosed = true;
+				myEntry.myUseCount--;
+
+				evict();
+			}
+		}
+	}
+
+	private static class Entry
+	{
+		private final String myKey;
+		private final File myDirectory;
+		private final long mySize;
+
+		// guarded by myEntries
+		private int myUseCount;
+
+		private Entry(String key, File directory)
+		{
+			myKey = key;
+			myDirectory = directory;
+
+			File[] files = directory.listFiles();
+			mySize = files == null ? 0 : Arrays.stream(files).mapToLong(File::length).sum();
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginLibraryCache.class);
+
+	public static final String DIRECTORY_NAME = "libraryCache";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private final File myRoot;
+	private final LongSupplier myMaxSize;
+
+	// key -> entry, in access order
+	private final LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private long mySize;
+
+	private final Map<String, CompletableFuture<Void>> myExtractions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxSize max size of cache in bytes
+	 */
+	public PluginLibraryCache(@Nonnull File root, @Nonnull LongSupplier maxSize)
+	{
+		myRoot = root;
+		myMaxSize = maxSize;
+
+		load();
+	}
+
+	/**
+	 * Return lib directory of plugin, it's extracted from plugin archive if not cached
+	 */
+	@Nonnull
+	public Library acquire(@Nonnull PluginNode pluginNode) throws Exception
+	{
+		File archive = pluginNode.targetFile;
+		assert archive != null;
+
+		String sha256 = pluginNode.checksum == null ? null : pluginNode.checksum.sha_256;
+		// old archives without checksum
+		String archiveKey = sha256 != null ? sha256 : archive.getPath() + ":" + archive.length() + ":" + archive.lastModified();
+
+		String key = Hashing.sha256().hashString(pluginNode.id + ":" + pluginNode.version + ":" + archiveKey, StandardCharsets.UTF_8).toString();
+
+		while(true)
+		{
+			Library library = acquireCached(key);
+			if(library != null)
+			{
+				return library;
+			}
+
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			CompletableFuture<Void> oldFuture = myExtractions.putIfAbsent(key, future);
+			if(oldFuture != null)
+			{
+				await(oldFuture);
+				// extracted directory can be evicted before acquire - try again
+				continue;
+			}
+
+			try
+			{
+				// extraction can be finished between checks
+				library = acquireCached(key);
+				if(library == null)
+				{
+					library = extract(key, pluginNode.id, archive);
+				}
+
+				future.complete(null);
+				return library;
+			}
+			catch(Throwable e)
+			{
+				future.completeExceptionally(e);
+				throw e;
+			}
+			finally
+			{
+				myExtractions.remove(key, future);
+			}
+		}
+	}
+
+	private Library acquireCached(String key)
+	{
+		synchronized(myEntries)
+		{
+			Entry entry = myEntries.get(key);
+			if(entry == null)
+			{
+				return null;
+			}
+
+			entry.myUseCount++;
+			// access order is restored by modification time after restart
+			entry.myDirectory.setLastModified(System.currentTimeMillis());
+			return new Library(entry);
+		}
+	}
+
+	@Nonnull
+	private Library extract(String key, String pluginId, File archive) throws Exception
+	{
+		File directory = new File(myRoot, key);
+		File tempDirectory = new File(myRoot, key + TEMP_EXTENSION);
+
+		long time = System.currentTimeMillis();
+		try
+		{
+			FileUtil.delete(tempDirectory);
+
+			try (PluginZipArchive zipArchive = new PluginZipArchive(archive))
+			{
+				// lib jars are extracted to tempDirectory/lib
+				zipArchive.extractLibraries(pluginId + "/", tempDirectory);
+			}
+
+			FileUtil.delete(directory);
+			Files.move(new File(tempDirectory, "lib").toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			FileUtil.delete(tempDirectory);
+		}
+
+		logger.info("Extracted libraries of plugin: " + pluginId + " by " + (System.currentTimeMillis() - time) + " ms");
+
+		synchronized(myEntries)
+		{
+			Entry entry = new Entry(key, directory);
+			entry.myUseCount++;
+
+			myEntries.put(key, entry);
+			mySize += entry.mySize;
+
+			evict();
+			return new Library(entry);
+		}
+	}
+
+	/**
+	 * Must be called under lock
+	 */
+	private void evict()
+	{
+		long maxSize = myMaxSize.getAsLong();
+
+		Iterator<Entry> iterator = myEntries.values().iterator();
+		while(mySize > maxSize && iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+			if(entry.myUseCount > 0)
+			{
+				continue;
+			}
+
+			mySize -= entry.mySize;
+			iterator.remove();
+
+			FileUtil.delete(entry.myDirectory);
+		}
+	}
+
+	private void load()
+	{
+		FileUtil.createDirectory(myRoot);
+
+		File[] directories = myRoot.listFiles();
+		if(directories == null)
+		{
+			return;
+		}
+
+		List<File> list = new ArrayList<>();
+		for(File directory : directories)
+		{
+			if(directory.getName().endsWith(TEMP_EXTENSION))
+			{
+				// not finished extraction
+				FileUtil.delete(directory);
+				continue;
+			}
+
+			list.add(directory);
+		}
+
+		list.sort(Comparator.comparingLong(File::lastModified));
+
+		synchronized(myEntries)
+		{
+			for(File directory : list)
+			{
+				Entry entry = new Entry(directory.getName(), directory);
+				myEntries.put(entry.myKey, entry);
+				mySize += entry.mySize;
+			}
+
+			evict();
+		}
+
+		logger.info("Loaded plugin libraries: " + myEntries.size() + ", size: " + mySize);
+	}
+
+	private static void await(CompletableFuture<Void> future) throws Exception
+	{
+		try
+		{
+			future.get();
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception)
+			{
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+}
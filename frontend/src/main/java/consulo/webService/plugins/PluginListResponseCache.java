@@ -0,0 +1,165 @@
+package consulo.webService.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.util.ETagUtil;
+
+/**
+ * Cache of serialized /api/repository/list responses.
+ *
+ * Key contains channel and statistics generations, that why entries never invalidated explicitly - outdated entries are just not requested anymore and evicted by size.
+ * Concurrent requests of same key are waiting for single build.
+ *
+ * @since 18-Oct-26
+ */
+@Service
+public class PluginListResponseCache
+{
+	private static final class Key
+	{
+		private final PluginChannel myChannel;
+		private final String myPlatformVersion;
+		private final boolean myPlatformBuildSelect;
+		private final long myChannelGeneration;
+		private final long myStatisticsGeneration;
+
+		private Key(PluginChannel channel, String platformVersion, boolean platformBuildSelect, long channelGeneration, long statisticsGeneration)
+		{
+			myChannel = channel;
+			myPlatformVersion = platformVersion;
+			myPlatformBuildSelect = platformBuildSelect;
+			myChannelGeneration = channelGeneration;
+			myStatisticsGeneration = statisticsGeneration;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(o == null || getClass() != o.getClass())
+			{
+				return false;
+			}
+			Key key = (Key) o;
+			return myPlatformBuildSelect == key.myPlatformBuildSelect &&
+					myChannelGeneration == key.myChannelGeneration &&
+					myStatisticsGeneration == key.myStatisticsGeneration &&
+					myChannel == key.myChannel &&
+					Objects.equals(myPlatformVersion, key.myPlatformVersion);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(myChannel, myPlatformVersion, myPlatformBuildSelect, myChannelGeneration, myStatisticsGeneration);
+		}
+	}
+
+	public static final class Response
+	{
+		private final byte[] myBytes;
+		private final byte[] myGzipBytes;
+		private final String myETag;
+		private final String myGzipETag;
+
+		private Response(byte[] bytes, byte[] gzipBytes, String eTag)
+		{
+			myBytes = bytes;
+			myGzipBytes = gzipBytes;
+			myETag = eTag;
+			// each encoding is separate representation, and strong etag must be different
+			myGzipETag = ETagUtil.withSuffix(eTag, "gzip");
+		}
+
+		@Nonnull
+		public String getETag()
+		{
+			return myETag;
+		}
+
+		@Nonnull
+		public String getGzipETag()
+		{
+			return myGzipETag;
+		}
+
+		@Nonnull
+		public byte[] getBytes()
+		{
+			return myBytes;
+		}
+
+		@Nonnull
+		public byte[] getGzipBytes()
+		{
+			return myGzipBytes;
+		}
+	}
+
+	private static final int ourMaxEntries = 256;
+
+	private final UserConfigurationService myUserConfigurationService;
+	private final PluginStatisticsService myPluginStatisticsService;
+	private final ObjectMapper myObjectMapper;
+
+	private final LoadingCache<Key, Response> myCache = CacheBuilder.newBuilder().maximumSize(ourMaxEntries).build(CacheLoader.from(this::build));
+
+	@Autowired
+	public PluginListResponseCache(@Nonnull UserConfigurationService userConfigurationService, @Nonnull PluginStatisticsService pluginStatisticsService, @Nonnull ObjectMapper objectMapper)
+	{
+		myUserConfigurationService = userConfigurationService;
+		myPluginStatisticsService = pluginStatisticsService;
+		myObjectMapper = objectMapper;
+	}
+
+	@Nonnull
+	public Response get(@Nonnull PluginChannel channel, @Nonnull String platformVersion, boolean platformBuildSelect)
+	{
+		PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(channel);
+
+		// generations must be read before building, then response can't be older than key
+		Key key = new Key(channel, platformVersion, platformBuildSelect, channelService.getGeneration(), myPluginStatisticsService.getGeneration());
+		return myCache.getUnchecked(key);
+	}
+
+	@Nonnull
+	private Response build(@Nonnull Key key)
+	{
+		PluginChannelService channelService = myUserConfigurationService.getRepositoryByChannel(key.myChannel);
+
+		PluginNode[] nodes = channelService.select(myPluginStatisticsService, key.myPlatformVersion, key.myPlatformBuildSelect);
+
+		try
+		{
+			byte[] bytes = myObjectMapper.writeValueAsBytes(nodes);
+
+			ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream(bytes.length / 4);
+			try (GZIPOutputStream stream = new GZIPOutputStream(gzipBytes))
+			{
+				stream.write(bytes);
+			}
+
+			return new Response(bytes, gzipBytes.toByteArray(), ETagUtil.build(key.myChannelGeneration, key.myStatisticsGeneration));
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package consulo.webService.plugins;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.intellij.util.ArrayUtil;
 import consulo.util.nodep.ArrayUtilRt;
+import consulo.webService.plugins.pluginsState.VersionKey;
 
 import java.io.File;
 
@@ -20,6 +21,14 @@ public class PluginNode implements Cloneable
 		public String[] values = ArrayUtilRt.EMPTY_STRING_ARRAY;
 	}
 
+	public static class Checksum
+	{
+		public String sha_256;
+		// checksum of uploaded archive (before repacking), used for skipping deploy of same archive.
+		// it's not visible in api, and stored only in channel index and journal
+		public transient String upload_sha_256;
+	}
+
 	private static final String CORE_PLUGIN = "com.intellij";
 
 	public static final PluginNode[] EMPTY_ARRAY = new PluginNode[0];
@@ -44,8 +53,14 @@ public class PluginNode implements Cloneable
 
 	public boolean experimental;
 
+	// can be null for plugins deployed before checksum calculation
+	public Checksum checksum;
+
 	public transient File targetFile;
 
+	// parsed version, initialized while adding to repository
+	public transient VersionKey versionKey;
+
 	public void clean()
 	{
 		dependencies = dependencies == null ? ArrayUtil.EMPTY_STRING_ARRAY : ArrayUtil.remove(dependencies, CORE_PLUGIN);
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.PostConstruct;
@@ -53,6 +54,8 @@ public class PluginStatisticsService
 
 	private final Map<String, DownloadPluginStatistics> myStatistics = new ConcurrentHashMap<>();
 
+	private final AtomicLong myGeneration = new AtomicLong();
+
 	@Autowired
 	public PluginStatisticsService(MongoPluginNodeRepository mongoPluginNodeRepository, MongoDownloadStatRepository mongoDownloadStatRepository)
 	{
@@ -94,6 +97,16 @@ public class PluginStatisticsService
 		}
 
 		myStatistics.putAll(map);
+
+		myGeneration.incrementAndGet();
+	}
+
+	/**
+	 * @return counter, which changed after each recalculation of download counts
+	 */
+	public long getGeneration()
+	{
+		return myGeneration.get();
 	}
 
 	public void increaseDownload(@Nonnull String pluginId, PluginChannel channel, @Nonnull String version, @Nonnull String platformVersion, boolean viaUpdate)
@@ -0,0 +1,305 @@
+package consulo.webService.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.intellij.openapi.util.text.StringUtil;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.plugins.archive.GzipStreamValidator;
+
+/**
+ * Resumable upload of deploy archives. Client create session, send chunks in order, and finish session - after it archive is deployed by {@link PluginDeployJobService}.
+ *
+ * Chunks are written to temp directory, hash and gzip check are calculated while chunks are received. If chunk is lost,
+ * client can ask session offset, and continue from it.
+ *
+ * Sessions are stored only in memory (state of hash and gzip check can't be restored), and temp directory is cleared at start - after restart
+ * of webservice all not finished uploads are lost, all session requests return 404, and client must upload archive again in new session
+ *
+ * @since 18-Oct-26
+ */
+@Service
+public class PluginUploadService
+{
+	/**
+	 * Chunk is broken while sending - chunk is not stored, and client can send it again
+	 */
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public static class BadChunkException extends IOException
+	{
+		public BadChunkException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * Uploaded data is not valid archive - client must upload archive again in new session
+	 */
+	@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+	public static class BadArchiveException extends IOException
+	{
+		public BadArchiveException(String message)
+		{
+			super(message);
+		}
+
+		public BadArchiveException(String message, Throwable cause)
+		{
+			super(message, cause);
+		}
+	}
+
+	@ResponseStatus(HttpStatus.CONFLICT)
+	public static class SessionFinishedException extends IOException
+	{
+		public SessionFinishedException()
+		{
+			super("Upload is already finished");
+		}
+	}
+
+	private static final int ourMaxChunkSize = 32 * 1024 * 1024;
+	private static final long ourSessionExpireTime = TimeUnit.DAYS.toMillis(1);
+
+	private static final byte[] ourZipMagic = {'P', 'K', 3, 4};
+
+	private final UserConfigurationService myUserConfigurationService;
+	private final PluginDeployJobService myPluginDeployJobService;
+
+	private final Map<String, PluginUploadSession> mySessions = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PluginUploadService(UserConfigurationService userConfigurationService, PluginDeployJobService pluginDeployJobService)
+	{
+		myUserConfigurationService = userConfigurationService;
+		myPluginDeployJobService = pluginDeployJobService;
+	}
+
+	@Nonnull
+	public PluginUploadSession create(@Nonnull PluginDeployJob.Type type, @Nonnull PluginChannel channel, @Nullable Integer platformVersion, @Nullable String pluginId)
+	{
+		PluginUploadSession session = new PluginUploadSession();
+		session.id = UUID.randomUUID().toString();
+		session.type = type;
+		session.channel = channel;
+
+		if(type == PluginDeployJob.Type.platform)
+		{
+			if(platformVersion == null || StringUtil.isEmpty(pluginId))
+			{
+				throw new IllegalArgumentException("'platformVersion' or 'pluginId' is empty");
+			}
+
+			session.platformVersion = platformVersion;
+			session.pluginId = pluginId;
+			session.gzipValidator = new GzipStreamValidator();
+			session.file = myUserConfigurationService.createTempFile("upload", "tar.gz");
+		}
+		else
+		{
+			session.file = myUserConfigurationService.createTempFile("upload", "zip");
+		}
+
+		try
+		{
+			session.digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		session.lastAccessTime = System.currentTimeMillis();
+
+		mySessions.put(session.id, session);
+		return session;
+	}
+
+	@Nullable
+	public PluginUploadSession getSession(@Nonnull String id)
+	{
+		return mySessions.get(id);
+	}
+
+	/**
+	 * @param sha256 checksum of chunk, chunk is not stored if checksum is not matched
+	 * @return false if offset is not equal to session offset - client must continue from session offset
+	 */
+	public boolean writeChunk(@Nonnull PluginUploadSession session, long offset, @Nullable String sha256, @Nonnull InputStream stream, int length) throws IOException
+	{
+		if(length < 0 || length > ourMaxChunkSize)
+		{
+			throw new IllegalArgumentException("Bad chunk size: " + length + ", max: " + ourMaxChunkSize);
+		}
+
+		byte[] chunk = new byte[length];
+		ByteStreams.readFully(stream, chunk);
+
+		if(sha256 != null && !sha256.equalsIgnoreCase(Hashing.sha256().hashBytes(chunk).toString()))
+		{
+			throw new BadChunkException("Chunk checksum mismatch");
+		}
+
+		synchronized(session)
+		{
+			checkActive(session);
+
+			session.lastAccessTime = System.currentTimeMillis();
+
+			if(offset != session.offset)
+			{
+				return false;
+			}
+
+			if(offset == 0 && session.type == PluginDeployJob.Type.plugin && !startsWith(chunk, ourZipMagic))
+			{
+				throw new BadArchiveException("Bad zip data");
+			}
+
+			try (RandomAccessFile file = new RandomAccessFile(session.file, "rw"))
+			{
+				file.seek(offset);
+				file.write(chunk);
+				// drop tail of previous failed write
+				file.setLength(offset + chunk.length);
+			}
+
+			if(session.gzipValidator != null)
+			{
+				try
+				{
+					session.gzipValidator.update(chunk, 0, chunk.length);
+				}
+				catch(IOException e)
+				{
+					// broken archive can't be continued
+					cancel(session);
+					throw new BadArchiveException(e.getMessage(), e);
+				}
+			}
+
+			session.digest.update(chunk);
+			session.offset += chunk.length;
+			return true;
+		}
+	}
+
+	/**
+	 * @param sha256 checksum of all archive
+	 */
+	@Nonnull
+	public PluginDeployJob finish(@Nonnull PluginUploadSession session, @Nullable String sha256) throws IOException
+	{
+		synchronized(session)
+		{
+			checkActive(session);
+
+			if(myPluginDeployJobService.isQueueFull())
+			{
+				throw new IOException("Deploy queue is full");
+			}
+
+			String actualSha256 = HashCode.fromBytes(session.digest.digest()).toString();
+			if(sha256 != null && !sha256.equalsIgnoreCase(actualSha256))
+			{
+				cancel(session);
+				throw new BadArchiveException("Archive checksum mismatch");
+			}
+
+			if(session.gzipValidator != null && !session.gzipValidator.isComplete())
+			{
+				cancel(session);
+				throw new BadArchiveException("Bad gzip data: archive is not complete");
+			}
+
+			closeSession(session);
+
+			if(session.type == PluginDeployJob.Type.platform)
+			{
+				return myPluginDeployJobService.submitPlatform(session.channel, session.platformVersion, session.pluginId, session.file, actualSha256);
+			}
+			else
+			{
+				return myPluginDeployJobService.submitPlugin(session.channel, session.file, actualSha256);
+			}
+		}
+	}
+
+	public void cancel(@Nonnull PluginUploadSession session)
+	{
+		synchronized(session)
+		{
+			closeSession(session);
+
+			myUserConfigurationService.asyncDelete(session.file);
+		}
+	}
+
+	@Scheduled(fixedDelay = 60 * 60 * 1000)
+	public void removeExpiredSessions()
+	{
+		long time = System.currentTimeMillis() - ourSessionExpireTime;
+
+		for(PluginUploadSession session : mySessions.values())
+		{
+			if(session.lastAccessTime < time)
+			{
+				cancel(session);
+			}
+		}
+	}
+
+	private void checkActive(PluginUploadSession session) throws IOException
+	{
+		if(mySessions.get(session.id) != session)
+		{
+			throw new SessionFinishedException();
+		}
+	}
+
+	private void closeSession(PluginUploadSession session)
+	{
+		mySessions.remove(session.id);
+
+		if(session.gzipValidator != null)
+		{
+			session.gzipValidator.dispose();
+		}
+	}
+
+	private static boolean startsWith(byte[] data, byte[] prefix)
+	{
+		if(data.length < prefix.length)
+		{
+			return false;
+		}
+
+		for(int i = 0; i < prefix.length; i++)
+		{
+			if(data[i] != prefix[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
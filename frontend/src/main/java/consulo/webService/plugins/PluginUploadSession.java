@@ -0,0 +1,33 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.security.MessageDigest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import consulo.webService.plugins.archive.GzipStreamValidator;
+
+/**
+ * State of chunked upload. Chunks must be sent in order - next chunk offset is {@link #offset}
+ *
+ * @since 18-Oct-26
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PluginUploadSession
+{
+	public String id;
+	public PluginDeployJob.Type type;
+	public PluginChannel channel;
+	// only for platform
+	public Integer platformVersion;
+	public String pluginId;
+
+	// count of received bytes
+	public long offset;
+
+	public transient File file;
+	// sha256 of received bytes
+	public transient MessageDigest digest;
+	// only for platform
+	public transient GzipStreamValidator gzipValidator;
+	public transient long lastAccessTime;
+}
@@ -0,0 +1,221 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Check gzip stream, which is received by parts - data is inflated, and checked by crc and size of each gzip member.
+ *
+ * Nothing is stored - inflated data is dropped
+ *
+ * @since 18-Oct-26
+ */
+public class GzipStreamValidator
+{
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private static final int HEADER = 0;
+	private static final int BODY = 1;
+	private static final int TRAILER = 2;
+
+	private final Inflater myInflater = new Inflater(true);
+	private final CRC32 myCrc = new CRC32();
+	private final byte[] myBuffer = new byte[64 * 1024];
+
+	// not completed header or trailer
+	private final ByteArrayOutputStream myPart = new ByteArrayOutputStream();
+
+	private int myState = HEADER;
+	private int myMemberCount;
+	private long myMemberSize;
+
+	public void update(byte[] data, int off, int len) throws IOException
+	{
+		while(len > 0)
+		{
+			int consumed;
+			switch(myState)
+			{
+				case HEADER:
+					consumed = updateHeader(data, off, len);
+					break;
+				case BODY:
+					consumed = updateBody(data, off, len);
+					break;
+				case TRAILER:
+					consumed = updateTrailer(data, off, len);
+					break;
+				default:
+					throw new IllegalStateException();
+			}
+
+			off += consumed;
+			len -= consumed;
+		}
+	}
+
+	/**
+	 * @return true if stream ends after complete gzip member
+	 */
+	public boolean isComplete()
+	{
+		return myMemberCount > 0 && myState == HEADER && myPart.size() == 0;
+	}
+
+	public void dispose()
+	{
+		myInflater.end();
+	}
+
+	private int updateHeader(byte[] data, int off, int len) throws IOException
+	{
+		int oldSize = myPart.size();
+		myPart.write(data, off, len);
+
+		byte[] header = myPart.toByteArray();
+		int headerLength = parseHeader(header);
+		if(headerLength == -1)
+		{
+			return len;
+		}
+
+		myPart.reset();
+		myState = BODY;
+		myCrc.reset();
+		myMemberSize = 0;
+		return headerLength - oldSize;
+	}
+
+	private int updateBody(byte[] data, int off, int len) throws IOException
+	{
+		myInflater.setInput(data, off, len);
+		try
+		{
+			while(true)
+			{
+				int count = myInflater.inflate(myBuffer);
+				if(count > 0)
+				{
+					myCrc.update(myBuffer, 0, count);
+					myMemberSize += count;
+					continue;
+				}
+
+				if(myInflater.finished())
+				{
+					int remaining = myInflater.getRemaining();
+					myInflater.reset();
+					myState = TRAILER;
+					return len - remaining;
+				}
+
+				if(myInflater.needsInput())
+				{
+					return len;
+				}
+
+				throw new IOException("Bad gzip data: dictionary is required");
+			}
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("Bad gzip data", e);
+		}
+	}
+
+	private int updateTrailer(byte[] data, int off, int len) throws IOException
+	{
+		int count = Math.min(len, 8 - myPart.size());
+		myPart.write(data, off, count);
+		if(myPart.size() < 8)
+		{
+			return count;
+		}
+
+		byte[] trailer = myPart.toByteArray();
+		myPart.reset();
+
+		if(readIntLE(trailer, 0) != (int) myCrc.getValue())
+		{
+			throw new IOException("Bad gzip data: crc mismatch");
+		}
+
+		if(readIntLE(trailer, 4) != (int) myMemberSize)
+		{
+			throw new IOException("Bad gzip data: size mismatch");
+		}
+
+		myMemberCount++;
+		myState = HEADER;
+		return count;
+	}
+
+	/**
+	 * @return length of header, or -1 if header is not complete
+	 */
+	private static int parseHeader(byte[] header) throws IOException
+	{
+		if(header.length >= 1 && (header[0] & 0xff) != 0x1f || header.length >= 2 && (header[1] & 0xff) != 0x8b)
+		{
+			throw new IOException("Bad gzip data: not gzip stream");
+		}
+
+		if(header.length >= 3 && header[2] != 8)
+		{
+			throw new IOException("Bad gzip data: unsupported compression method");
+		}
+
+		if(header.length < 10)
+		{
+			return -1;
+		}
+
+		int flags = header[3] & 0xff;
+		int position = 10;
+		if((flags & FEXTRA) != 0)
+		{
+			if(header.length < position + 2)
+			{
+				return -1;
+			}
+			position += 2 + ((header[position] & 0xff) | (header[position + 1] & 0xff) << 8);
+		}
+
+		for(int flag : new int[]{FNAME, FCOMMENT})
+		{
+			if((flags & flag) != 0)
+			{
+				// zero-terminated string
+				while(true)
+				{
+					if(position >= header.length)
+					{
+						return -1;
+					}
+					if(header[position++] == 0)
+					{
+						break;
+					}
+				}
+			}
+		}
+
+		if((flags & FHCRC) != 0)
+		{
+			position += 2;
+		}
+
+		return position <= header.length ? position : -1;
+	}
+
+	private static int readIntLE(byte[] data, int off)
+	{
+		return (data[off] & 0xff) | (data[off + 1] & 0xff) << 8 | (data[off + 2] & 0xff) << 16 | (data[off + 3] & 0xff) << 24;
+	}
+}
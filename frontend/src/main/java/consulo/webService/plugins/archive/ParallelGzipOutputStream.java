@@ -0,0 +1,231 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Gzip output stream, which compress data by blocks in many threads (like pigz).
+ *
+ * Each block is raw deflate stream, which ends by sync flush (except last block), and use last 32K of previous block as dictionary -
+ * so concatenation of blocks is one deflate stream, and result is single gzip member, which can be read by any gzip reader
+ *
+ * @since 18-Oct-26
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+	private static final int ourBlockSize = 128 * 1024;
+	private static final int ourDictionarySize = 32 * 1024;
+
+	private static final byte[] ourHeader = {
+			(byte) 0x1f,
+			(byte) 0x8b,
+			Deflater.DEFLATED,
+			0, // flags
+			0,
+			0,
+			0,
+			0, // modification time
+			0, // extra flags
+			(byte) 0xff // unknown OS
+	};
+
+	private final OutputStream myOutputStream;
+	private final int myThreads;
+	private final ExecutorService myExecutor;
+
+	private final Deque<Future<byte[]>> myPending = new ArrayDeque<>();
+	private final CRC32 myCrc = new CRC32();
+	private long myInputSize;
+
+	private byte[] myPreviousBlock;
+	private byte[] myBlock = new byte[ourBlockSize];
+	private int myBlockLength;
+
+	private boolean myFinished;
+
+	public ParallelGzipOutputStream(@Nonnull OutputStream outputStream, int threads) throws IOException
+	{
+		if(threads < 1)
+		{
+			throw new IllegalArgumentException("Threads: " + threads);
+		}
+
+		myOutputStream = outputStream;
+		myThreads = threads;
+		myExecutor = Executors.newFixedThreadPool(threads, runnable ->
+		{
+			Thread thread = new Thread(runnable, "parallel gzip");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		myOutputStream.write(ourHeader);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(@Nonnull byte[] b, int off, int len) throws IOException
+	{
+		if(myFinished)
+		{
+			throw new IOException("Stream is finished");
+		}
+
+		myCrc.update(b, off, len);
+		myInputSize += len;
+
+		while(len > 0)
+		{
+			int count = Math.min(len, ourBlockSize - myBlockLength);
+			System.arraycopy(b, off, myBlock, myBlockLength, count);
+			myBlockLength += count;
+			off += count;
+			len -= count;
+
+			if(myBlockLength == ourBlockSize)
+			{
+				submitBlock(false);
+			}
+		}
+	}
+
+	public void finish() throws IOException
+	{
+		if(myFinished)
+		{
+			return;
+		}
+		myFinished = true;
+
+		submitBlock(true);
+
+		while(!myPending.isEmpty())
+		{
+			writeCompleted();
+		}
+
+		writeIntLE((int) myCrc.getValue());
+		writeIntLE((int) myInputSize);
+		myOutputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			finish();
+		}
+		finally
+		{
+			myExecutor.shutdownNow();
+
+			myOutputStream.close();
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException
+	{
+		byte[] block = myBlock;
+		int length = myBlockLength;
+		// blocks are never changed after submit, and can be used as dictionary
+		byte[] dictionary = myPreviousBlock;
+
+		myPending.addLast(myExecutor.submit(() -> compress(block, length, dictionary, last)));
+
+		myPreviousBlock = block;
+		myBlock = new byte[ourBlockSize];
+		myBlockLength = 0;
+
+		// limit memory, while output is slower than compression
+		while(myPending.size() > myThreads * 2)
+		{
+			writeCompleted();
+		}
+	}
+
+	private void writeCompleted() throws IOException
+	{
+		Future<byte[]> future = myPending.removeFirst();
+		try
+		{
+			myOutputStream.write(future.get());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void writeIntLE(int value) throws IOException
+	{
+		myOutputStream.write(value & 0xff);
+		myOutputStream.write((value >> 8) & 0xff);
+		myOutputStream.write((value >> 16) & 0xff);
+		myOutputStream.write((value >> 24) & 0xff);
+	}
+
+	private static byte[] compress(byte[] block, int length, byte[] dictionary, boolean last)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			if(dictionary != null)
+			{
+				deflater.setDictionary(dictionary, dictionary.length - ourDictionarySize, ourDictionarySize);
+			}
+
+			deflater.setInput(block, 0, length);
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[64 * 1024];
+			if(last)
+			{
+				deflater.finish();
+				while(!deflater.finished())
+				{
+					int count = deflater.deflate(buffer);
+					result.write(buffer, 0, count);
+				}
+			}
+			else
+			{
+				// sync flush align block to byte boundary, without ending of deflate stream
+				int count;
+				do
+				{
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					result.write(buffer, 0, count);
+				}
+				while(count == buffer.length);
+			}
+			return result.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package consulo.webService.plugins.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.io.StreamUtil;
+
+/**
+ * Random access view of uploaded plugin zip. Plugin archive contains plugin directories, like 'pluginDir/lib/*.jar',
+ * and one of jars contains plugin descriptor, or descriptor is stored as 'pluginDir/META-INF/plugin.xml'.
+ *
+ * Nested jars are read from archive stream, without extracting archive to disk
+ *
+ * @since 18-Oct-26
+ */
+public class PluginZipArchive implements Closeable
+{
+	public static final String PLUGIN_XML_PATH = "META-INF/plugin.xml";
+
+	private final ZipFile myZipFile;
+
+	public PluginZipArchive(@Nonnull File file) throws IOException
+	{
+		myZipFile = new ZipFile(file);
+	}
+
+	/**
+	 * @return prefixes of plugin directories (with ending slash), which have plugin descriptor, or jar with plugin descriptor in lib directory
+	 */
+	@Nonnull
+	public List<String> findPluginDirectories() throws IOException
+	{
+		Set<String> result = new LinkedHashSet<>();
+
+		Enumeration<ZipArchiveEntry> entries = myZipFile.getEntriesInPhysicalOrder();
+		while(entries.hasMoreElements())
+		{
+			ZipArchiveEntry entry = entries.nextElement();
+
+			String descriptorPrefix = getPluginPrefixOfDescriptor(entry);
+			if(descriptorPrefix != null)
+			{
+				result.add(descriptorPrefix);
+				continue;
+			}
+
+			String pluginPrefix = getPluginPrefixOfLibrary(entry);
+			if(pluginPrefix == null || result.contains(pluginPrefix))
+			{
+				continue;
+			}
+
+			if(containsPluginDescriptor(entry))
+			{
+				result.add(pluginPrefix);
+			}
+		}
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * Extract only jars from lib directory of plugin, and plugin descriptor - other files are not required for loading plugin descriptor and classpath
+	 */
+	public void extractLibraries(@Nonnull String pluginPrefix, @Nonnull File pluginDirectory) throws IOException
+	{
+		File libDirectory = new File(pluginDirectory, "lib");
+		FileUtilRt.createDirectory(libDirectory);
+
+		Enumeration<ZipArchiveEntry> entries = myZipFile.getEntriesInPhysicalOrder();
+		while(entries.hasMoreElements())
+		{
+			ZipArchiveEntry entry = entries.nextElement();
+
+			File targetFile;
+			if(pluginPrefix.equals(getPluginPrefixOfDescriptor(entry)))
+			{
+				targetFile = new File(pluginDirectory, PLUGIN_XML_PATH);
+				FileUtilRt.createParentDirs(targetFile);
+			}
+			else if(pluginPrefix.equals(getPluginPrefixOfLibrary(entry)))
+			{
+				String name = entry.getName();
+				targetFile = new File(libDirectory, name.substring(name.lastIndexOf('/') + 1));
+			}
+			else
+			{
+				continue;
+			}
+
+			try (InputStream inputStream = myZipFile.getInputStream(entry); OutputStream outputStream = new FileOutputStream(targetFile))
+			{
+				StreamUtil.copyStreamContent(inputStream, outputStream);
+			}
+		}
+	}
+
+	/**
+	 * Copy entries of plugin directory to new zip with new prefix. Entries are copied without recompression
+	 */
+	public void repack(@Nonnull String oldPrefix, @Nonnull String newPrefix, @Nonnull File targetFile) throws IOException
+	{
+		try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(targetFile))
+		{
+			Enumeration<ZipArchiveEntry> entries = myZipFile.getEntriesInPhysicalOrder();
+			while(entries.hasMoreElements())
+			{
+				ZipArchiveEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if(entry.isDirectory() || !name.startsWith(oldPrefix))
+				{
+					continue;
+				}
+
+				ZipArchiveEntry newEntry = new ZipArchiveEntry(newPrefix + name.substring(oldPrefix.length()));
+				newEntry.setMethod(entry.getMethod());
+				newEntry.setCrc(entry.getCrc());
+				newEntry.setSize(entry.getSize());
+				newEntry.setCompressedSize(entry.getCompressedSize());
+				newEntry.setTime(entry.getTime());
+
+				try (InputStream rawStream = myZipFile.getRawInputStream(entry))
+				{
+					outputStream.addRawArchiveEntry(newEntry, rawStream);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		myZipFile.close();
+	}
+
+	private boolean containsPluginDescriptor(ZipArchiveEntry jarEntry) throws IOException
+	{
+		try (ZipArchiveInputStream jarStream = new ZipArchiveInputStream(myZipFile.getInputStream(jarEntry)))
+		{
+			ZipArchiveEntry entry;
+			while((entry = jarStream.getNextZipEntry()) != null)
+			{
+				if(PLUGIN_XML_PATH.equals(entry.getName()))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return prefix of plugin directory, if entry is 'pluginDir/META-INF/plugin.xml', or null
+	 */
+	private static String getPluginPrefixOfDescriptor(ZipArchiveEntry entry)
+	{
+		String name = entry.getName();
+		if(entry.isDirectory() || !name.endsWith("/" + PLUGIN_XML_PATH))
+		{
+			return null;
+		}
+
+		String[] parts = name.split("/");
+		return parts.length == 3 ? getPluginPrefix(parts[0]) : null;
+	}
+
+	/**
+	 * @return prefix of plugin directory, if entry is 'pluginDir/lib/name.jar', or null
+	 */
+	private static String getPluginPrefixOfLibrary(ZipArchiveEntry entry)
+	{
+		String name = entry.getName();
+		if(entry.isDirectory() || !name.endsWith(".jar"))
+		{
+			return null;
+		}
+
+		String[] parts = name.split("/");
+		return parts.length == 3 && "lib".equals(parts[1]) ? getPluginPrefix(parts[0]) : null;
+	}
+
+	private static String getPluginPrefix(String directoryName)
+	{
+		if(directoryName.isEmpty() || "..".equals(directoryName) || ".".equals(directoryName))
+		{
+			return null;
+		}
+		return directoryName + "/";
+	}
+}
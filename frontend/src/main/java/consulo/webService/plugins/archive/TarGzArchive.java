@@ -1,5 +1,6 @@
 package consulo.webService.plugins.archive;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -49,25 +50,7 @@ public class TarGzArchive
 				String name = tempEntry.getName();
 				File targetFile = new File(targetDirectory, name);
 
-				byte flags;
-				if(tempEntry.isDirectory())
-				{
-					flags = TarConstants.LF_DIR;
-				}
-				else if(tempEntry.isSymbolicLink())
-				{
-					flags = TarConstants.LF_SYMLINK;
-				}
-				else if(tempEntry.isLink())
-				{
-					flags = TarConstants.LF_LINK;
-				}
-				else
-				{
-					flags = TarConstants.LF_NORMAL;
-				}
-
-				TarGzArchiveEntry value = new TarGzArchiveEntry(name, tempEntry.isDirectory(), tempEntry.getMode(), tempEntry.getLastModifiedDate().getTime(), flags, tempEntry.getLinkName());
+				TarGzArchiveEntry value = toEntry(tempEntry);
 				if(tempEntry.isDirectory())
 				{
 					FileUtilRt.createDirectory(targetFile);
@@ -89,16 +72,43 @@ public class TarGzArchive
 		}
 	}
 
+	@Nonnull
+	static TarGzArchiveEntry toEntry(@Nonnull TarArchiveEntry tarEntry)
+	{
+		byte flags;
+		if(tarEntry.isDirectory())
+		{
+			flags = TarConstants.LF_DIR;
+		}
+		else if(tarEntry.isSymbolicLink())
+		{
+			flags = TarConstants.LF_SYMLINK;
+		}
+		else if(tarEntry.isLink())
+		{
+			flags = TarConstants.LF_LINK;
+		}
+		else
+		{
+			flags = TarConstants.LF_NORMAL;
+		}
+
+		return new TarGzArchiveEntry(tarEntry.getName(), tarEntry.isDirectory(), tarEntry.getMode(), tarEntry.getLastModifiedDate().getTime(), flags, tarEntry.getLinkName());
+	}
+
 	public void create(@Nonnull File file, @Nonnull String type) throws IOException, ArchiveException
 	{
-		ArchiveStreamFactory factory = new ArchiveStreamFactory();
-		try (OutputStream pathStream = createFileStream(file, type))
+		create(file, type, 1);
+	}
+
+	/**
+	 * @param gzipThreads count of threads for compression of tar.gz, if more than one - used {@link ParallelGzipOutputStream}
+	 */
+	public void create(@Nonnull File file, @Nonnull String type, int gzipThreads) throws IOException, ArchiveException
+	{
+		try (OutputStream pathStream = createFileStream(file, type, gzipThreads))
 		{
-			ArchiveOutputStream archiveOutputStream = factory.createArchiveOutputStream(type, pathStream);
-			if(archiveOutputStream instanceof TarArchiveOutputStream)
-			{
-				((TarArchiveOutputStream) archiveOutputStream).setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-			}
+			ArchiveOutputStream archiveOutputStream = createArchiveOutputStream(pathStream, type);
 
 			for(Map.Entry<String, TarGzArchiveEntry> entry : myEntries.entrySet())
 			{
@@ -108,7 +118,7 @@ public class TarGzArchive
 
 				if(!value.isDirectory())
 				{
-					setEntrySize(value, archiveEntry);
+					setEntrySize(value.getSize(), archiveEntry);
 
 					archiveOutputStream.putArchiveEntry(archiveEntry);
 
@@ -136,15 +146,26 @@ public class TarGzArchive
 		}
 	}
 
-	private void setEntrySize(TarGzArchiveEntry value, ArchiveEntry archiveEntry)
+	@Nonnull
+	static ArchiveOutputStream createArchiveOutputStream(@Nonnull OutputStream stream, @Nonnull String type) throws ArchiveException
+	{
+		ArchiveOutputStream archiveOutputStream = new ArchiveStreamFactory().createArchiveOutputStream(type, stream);
+		if(archiveOutputStream instanceof TarArchiveOutputStream)
+		{
+			((TarArchiveOutputStream) archiveOutputStream).setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+		}
+		return archiveOutputStream;
+	}
+
+	static void setEntrySize(long size, ArchiveEntry archiveEntry)
 	{
 		if(archiveEntry instanceof ZipArchiveEntry)
 		{
-			((ZipArchiveEntry) archiveEntry).setSize(value.getSize());
+			((ZipArchiveEntry) archiveEntry).setSize(size);
 		}
 		else if(archiveEntry instanceof TarArchiveEntry)
 		{
-			((TarArchiveEntry) archiveEntry).setSize(value.getSize());
+			((TarArchiveEntry) archiveEntry).setSize(size);
 		}
 		else
 		{
@@ -153,7 +174,7 @@ public class TarGzArchive
 	}
 
 	@Nonnull
-	private ArchiveEntry createEntry(String name, TarGzArchiveEntry entry, String type)
+	static ArchiveEntry createEntry(String name, TarGzArchiveEntry entry, String type)
 	{
 		ArchiveEntry archiveEntry;
 		switch(type)
@@ -194,11 +215,15 @@ public class TarGzArchive
 	}
 
 	@Nonnull
-	private static OutputStream createFileStream(File file, String type) throws IOException
+	static OutputStream createFileStream(File file, String type, int gzipThreads) throws IOException
 	{
 		FileOutputStream fileOutputStream = new FileOutputStream(file);
 		if(ArchiveStreamFactory.TAR.equals(type))
 		{
+			if(gzipThreads > 1)
+			{
+				return new ParallelGzipOutputStream(new BufferedOutputStream(fileOutputStream, 1 << 16), gzipThreads);
+			}
 			return new GzipCompressorOutputStream(fileOutputStream);
 		}
 		return fileOutputStream;
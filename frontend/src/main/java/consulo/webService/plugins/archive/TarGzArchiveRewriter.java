@@ -0,0 +1,277 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import com.intellij.openapi.util.Pair;
+import com.intellij.util.ThrowableConsumer;
+import com.intellij.util.io.tar.TarEntry;
+
+/**
+ * Rewrite tar.gz archive with changing some entries, without extracting it to disk.
+ *
+ * Entries are copied from input stream to output archives, result is same as {@link TarGzArchive#extract(File, File)} + {@link TarGzArchive#create(File, String)}
+ *
+ * @since 18-Oct-26
+ */
+public class TarGzArchiveRewriter
+{
+	private static final int ourChunkSize = 64 * 1024;
+	// chunks in queue of each writer
+	private static final int ourQueueSize = 32;
+
+	private final Set<String> myRemovedEntries = new HashSet<>();
+	private final Map<String, byte[]> myNewEntries = new LinkedHashMap<>();
+
+	private int myGzipThreads = 1;
+
+	public void removeEntry(@Nonnull String entryName)
+	{
+		myRemovedEntries.add(entryName);
+	}
+
+	/**
+	 * @see TarGzArchive#create(File, String, int)
+	 */
+	public void setGzipThreads(int gzipThreads)
+	{
+		myGzipThreads = gzipThreads;
+	}
+
+	/**
+	 * New entries are written after all entries of original archive
+	 */
+	public void putEntry(@Nonnull String entryName, @Nonnull byte[] data)
+	{
+		myNewEntries.put(entryName, data);
+	}
+
+	/**
+	 * Read tar.gz archive once, and write all target archives. Each target is compressed by own thread, while reading thread
+	 * decompress input - so writing tar.gz and zip takes time of slowest target, not sum of them
+	 *
+	 * @param targets pairs of file and archive type ({@link org.apache.commons.compress.archivers.ArchiveStreamFactory#TAR} for tar.gz,
+	 *                or {@link org.apache.commons.compress.archivers.ArchiveStreamFactory#ZIP})
+	 */
+	public void rewrite(@Nonnull File from, @Nonnull List<Pair<File, String>> targets) throws IOException, ArchiveException
+	{
+		List<OutputStream> fileStreams = new ArrayList<>(targets.size());
+		List<OutputWriter> writers = new ArrayList<>(targets.size());
+		try
+		{
+			for(Pair<File, String> target : targets)
+			{
+				OutputStream fileStream = TarGzArchive.createFileStream(target.getFirst(), target.getSecond(), myGzipThreads);
+				fileStreams.add(fileStream);
+
+				OutputWriter writer = new OutputWriter(TarGzArchive.createArchiveOutputStream(fileStream, target.getSecond()), target.getSecond(), target.getFirst());
+				writers.add(writer);
+				writer.start();
+			}
+
+			byte[] buffer = new byte[ourChunkSize];
+
+			try (TarArchiveInputStream ais = new TarArchiveInputStream(new GzipCompressorInputStream(new FileInputStream(from))))
+			{
+				TarArchiveEntry tarEntry;
+				while((tarEntry = ais.getNextTarEntry()) != null)
+				{
+					String name = tarEntry.getName();
+					// directories are not stored, same as TarGzArchive#create
+					if(tarEntry.isDirectory() || myRemovedEntries.contains(name) || myNewEntries.containsKey(name))
+					{
+						continue;
+					}
+
+					writeEntry(writers, name, TarGzArchive.toEntry(tarEntry), tarEntry.getSize(), ais, buffer);
+				}
+			}
+
+			for(Map.Entry<String, byte[]> entry : myNewEntries.entrySet())
+			{
+				TarGzArchiveEntry archiveEntry = new TarGzArchiveEntry(entry.getKey(), false, TarEntry.DEFAULT_FILE_MODE, System.currentTimeMillis(), TarEntry.LF_NORMAL, null);
+
+				writeEntry(writers, entry.getKey(), archiveEntry, entry.getValue().length, new ByteArrayInputStream(entry.getValue()), buffer);
+			}
+
+			for(OutputWriter writer : writers)
+			{
+				writer.submit(ArchiveOutputStream::finish);
+			}
+		}
+		finally
+		{
+			// writers must be stopped before closing files, even if reading failed
+			for(OutputWriter writer : writers)
+			{
+				writer.stop();
+			}
+
+			for(OutputStream fileStream : fileStreams)
+			{
+				fileStream.close();
+			}
+		}
+
+		for(OutputWriter writer : writers)
+		{
+			writer.checkError();
+		}
+	}
+
+	private static void writeEntry(List<OutputWriter> writers, String name, TarGzArchiveEntry entry, long size, InputStream data, byte[] buffer) throws IOException
+	{
+		for(OutputWriter writer : writers)
+		{
+			ArchiveEntry archiveEntry = TarGzArchive.createEntry(name, entry, writer.myType);
+			TarGzArchive.setEntrySize(size, archiveEntry);
+
+			writer.submit(stream -> stream.putArchiveEntry(archiveEntry));
+		}
+
+		int read;
+		while((read = data.read(buffer)) != -1)
+		{
+			// chunk is shared between writers, and never changed after
+			byte[] chunk = Arrays.copyOf(buffer, read);
+
+			for(OutputWriter writer : writers)
+			{
+				writer.submit(stream -> stream.write(chunk));
+			}
+		}
+
+		for(OutputWriter writer : writers)
+		{
+			writer.submit(ArchiveOutputStream::closeArchiveEntry);
+		}
+	}
+
+	/**
+	 * Execute operations with archive output stream in own thread. Queue is bounded, and reading thread wait for slowest writer
+	 */
+	private static class OutputWriter implements Runnable
+	{
+		private static final ThrowableConsumer<ArchiveOutputStream, IOException> ourStop = stream ->
+		{
+		};
+
+		private final ArchiveOutputStream myStream;
+		private final String myType;
+		private final Thread myThread;
+		private final BlockingQueue<ThrowableConsumer<ArchiveOutputStream, IOException>> myQueue = new ArrayBlockingQueue<>(ourQueueSize);
+
+		private volatile Throwable myError;
+
+		private OutputWriter(ArchiveOutputStream stream, String type, File file)
+		{
+			myStream = stream;
+			myType = type;
+			myThread = new Thread(this, "archive writer: " + file.getName());
+			myThread.setDaemon(true);
+		}
+
+		private void start()
+		{
+			myThread.start();
+		}
+
+		private void submit(ThrowableConsumer<ArchiveOutputStream, IOException> operation) throws IOException
+		{
+			// stop reading, if writer is already failed
+			checkError();
+
+			try
+			{
+				myQueue.put(operation);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		private void stop()
+		{
+			try
+			{
+				myQueue.put(ourStop);
+				myThread.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void checkError() throws IOException
+		{
+			Throwable error = myError;
+			if(error != null)
+			{
+				throw new IOException("Failed to write " + myType + " archive", error);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			while(true)
+			{
+				ThrowableConsumer<ArchiveOutputStream, IOException> operation;
+				try
+				{
+					operation = myQueue.take();
+				}
+				catch(InterruptedException e)
+				{
+					myError = e;
+					continue;
+				}
+
+				if(operation == ourStop)
+				{
+					return;
+				}
+
+				// after error, queue is only drained - reading thread must not be blocked
+				if(myError != null)
+				{
+					continue;
+				}
+
+				try
+				{
+					operation.consume(myStream);
+				}
+				catch(Throwable e)
+				{
+					myError = e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable sorted map from platform version to value.
+ *
+ * Platform versions are builds like '1554', they are stored in sorted int array, and all lookups are binary search without boxing.
+ * Non numeric platform versions stored in separate map, and they are always before numeric versions
+ *
+ * @since 18-Oct-26
+ */
+final class PlatformVersionIndex<V>
+{
+	private static final Comparator<String> ourKeyComparator = (o1, o2) ->
+	{
+		int build1 = parseBuild(o1);
+		int build2 = parseBuild(o2);
+		if(build1 >= 0 && build2 >= 0)
+		{
+			return Integer.compare(build1, build2);
+		}
+		if(build1 >= 0)
+		{
+			return 1;
+		}
+		if(build2 >= 0)
+		{
+			return -1;
+		}
+		return o1.compareTo(o2);
+	};
+
+	private static final PlatformVersionIndex<?> EMPTY = new PlatformVersionIndex<>(new int[0], new Object[0], Collections.emptyNavigableMap());
+
+	private final int[] myBuilds;
+	private final Object[] myValues;
+	private final NavigableMap<String, V> myOtherValues;
+
+	private PlatformVersionIndex(int[] builds, Object[] values, NavigableMap<String, V> otherValues)
+	{
+		myBuilds = builds;
+		myValues = values;
+		myOtherValues = otherValues;
+	}
+
+	@Nonnull
+	@SuppressWarnings("unchecked")
+	static <V> PlatformVersionIndex<V> empty()
+	{
+		return (PlatformVersionIndex<V>) EMPTY;
+	}
+
+	/**
+	 * @return build number, or -1 if version is not canonical positive int
+	 */
+	static int parseBuild(@Nonnull String platformVersion)
+	{
+		int length = platformVersion.length();
+		// max int value have 10 digits, we accept only 9 for avoid overflow check
+		if(length == 0 || length > 9 || length > 1 && platformVersion.charAt(0) == '0')
+		{
+			return -1;
+		}
+
+		int build = 0;
+		for(int i = 0; i < length; i++)
+		{
+			char c = platformVersion.charAt(i);
+			if(c < '0' || c > '9')
+			{
+				return -1;
+			}
+			build = build * 10 + (c - '0');
+		}
+		return build;
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	V get(@Nonnull String platformVersion)
+	{
+		int build = parseBuild(platformVersion);
+		if(build < 0)
+		{
+			return myOtherValues.get(platformVersion);
+		}
+
+		int index = Arrays.binarySearch(myBuilds, build);
+		return index < 0 ? null : (V) myValues[index];
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	V last()
+	{
+		if(myBuilds.length > 0)
+		{
+			return (V) myValues[myBuilds.length - 1];
+		}
+
+		Map.Entry<String, V> entry = myOtherValues.lastEntry();
+		return entry == null ? null : entry.getValue();
+	}
+
+	int size()
+	{
+		return myBuilds.length + myOtherValues.size();
+	}
+
+	/**
+	 * Iterate in platform version order
+	 */
+	@SuppressWarnings("unchecked")
+	void forEach(@Nonnull BiConsumer<String, V> consumer)
+	{
+		myOtherValues.forEach(consumer);
+
+		for(int i = 0; i < myBuilds.length; i++)
+		{
+			consumer.accept(String.valueOf(myBuilds[i]), (V) myValues[i]);
+		}
+	}
+
+	@Nonnull
+	List<V> values()
+	{
+		List<V> values = new ArrayList<>(size());
+		forEach((platformVersion, value) -> values.add(value));
+		return values;
+	}
+
+	/**
+	 * @return new immutable map, sorted in platform version order. Map is not cached - caller must cache it, if required
+	 */
+	@Nonnull
+	<T> NavigableMap<String, T> asNavigableMap(@Nonnull Function<? super V, T> mapper)
+	{
+		NavigableMap<String, T> map = new TreeMap<>(ourKeyComparator);
+		forEach((platformVersion, value) -> map.put(platformVersion, mapper.apply(value)));
+		return Collections.unmodifiableNavigableMap(map);
+	}
+
+	/**
+	 * @param changes new values, null value mean removing
+	 */
+	@Nonnull
+	@SuppressWarnings("unchecked")
+	PlatformVersionIndex<V> with(@Nonnull Map<String, V> changes)
+	{
+		if(changes.isEmpty())
+		{
+			return this;
+		}
+
+		NavigableMap<String, V> otherValues = myOtherValues;
+
+		int[] changedBuilds = new int[changes.size()];
+		Object[] changedValues = new Object[changes.size()];
+		int changedCount = 0;
+
+		for(Map.Entry<String, V> entry : changes.entrySet())
+		{
+			int build = parseBuild(entry.getKey());
+			if(build < 0)
+			{
+				if(otherValues == myOtherValues)
+				{
+					otherValues = new TreeMap<>(myOtherValues);
+				}
+
+				if(entry.getValue() == null)
+				{
+					otherValues.remove(entry.getKey());
+				}
+				else
+				{
+					otherValues.put(entry.getKey(), entry.getValue());
+				}
+			}
+			else
+			{
+				changedBuilds[changedCount] = build;
+				changedValues[changedCount] = entry.getValue();
+				changedCount++;
+			}
+		}
+
+		int[] builds = myBuilds;
+		Object[] values = myValues;
+		if(changedCount > 0)
+		{
+			// sort changes by build
+			Integer[] order = new Integer[changedCount];
+			for(int i = 0; i < changedCount; i++)
+			{
+				order[i] = i;
+			}
+			int[] unsortedBuilds = changedBuilds;
+			Arrays.sort(order, (o1, o2) -> Integer.compare(unsortedBuilds[o1], unsortedBuilds[o2]));
+
+			// merge two sorted arrays, changes are override old values
+			int[] newBuilds = new int[myBuilds.length + changedCount];
+			Object[] newValues = new Object[myBuilds.length + changedCount];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while(i < myBuilds.length || j < changedCount)
+			{
+				int oldBuild = i < myBuilds.length ? myBuilds[i] : Integer.MAX_VALUE;
+				int newBuild = j < changedCount ? changedBuilds[order[j]] : Integer.MAX_VALUE;
+
+				Object value;
+				int build;
+				if(j < changedCount && newBuild <= oldBuild)
+				{
+					if(newBuild == oldBuild)
+					{
+						i++;
+					}
+					build = newBuild;
+					value = changedValues[order[j++]];
+				}
+				else
+				{
+					build = oldBuild;
+					value = myValues[i++];
+				}
+
+				if(value != null)
+				{
+					newBuilds[size] = build;
+					newValues[size] = value;
+					size++;
+				}
+			}
+
+			builds = Arrays.copyOf(newBuilds, size);
+			values = Arrays.copyOf(newValues, size);
+		}
+
+		return new PlatformVersionIndex<>(builds, values, otherValues == myOtherValues ? otherValues : Collections.unmodifiableNavigableMap(otherValues));
+	}
+}
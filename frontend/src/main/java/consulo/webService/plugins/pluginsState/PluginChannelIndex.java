@@ -0,0 +1,207 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.intellij.openapi.util.Pair;
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * Binary file with metadata of all plugins in channel, which allow skip reading of all json files at startup.
+ *
+ * For each plugin directory stored last modification time - if time is changed (plugin was deployed or removed, but index was not rewritten),
+ * directory must be scanned again
+ *
+ * @since 18-Oct-26
+ */
+public class PluginChannelIndex
+{
+	public static class Directory
+	{
+		public final long myLastModified;
+		public final List<Pair<PluginNode, File>> myNodes;
+
+		public Directory(long lastModified, List<Pair<PluginNode, File>> nodes)
+		{
+			myLastModified = lastModified;
+			myNodes = nodes;
+		}
+	}
+
+	public static class Content
+	{
+		// last journal record, which included to index
+		public final long myJournalSequence;
+		public final Map<String, Directory> myDirectories;
+
+		public Content(long journalSequence, Map<String, Directory> directories)
+		{
+			myJournalSequence = journalSequence;
+			myDirectories = directories;
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginChannelIndex.class);
+
+	public static final String FILE_NAME = ".index";
+
+	private static final int MAGIC = 0x43494458; // CIDX
+	// must be changed after any change of format, or PluginNode fields
+	private static final int VERSION = 3;
+
+	private final File myChannelDirectory;
+	private final File myIndexFile;
+
+	public PluginChannelIndex(@Nonnull File channelDirectory)
+	{
+		myChannelDirectory = channelDirectory;
+		myIndexFile = new File(channelDirectory, FILE_NAME);
+	}
+
+	/**
+	 * @return null if index is not exists, or broken
+	 */
+	@Nullable
+	public Content read()
+	{
+		if(!myIndexFile.exists())
+		{
+			return null;
+		}
+
+		try
+		{
+			// not mapped - mapped file can't be replaced on Windows, until buffer is collected
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(myIndexFile.toPath()));
+
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			{
+				logger.warn("Index has unsupported format: " + myIndexFile.getPath());
+				return null;
+			}
+
+			long journalSequence = buffer.getLong();
+
+			int directoryCount = buffer.getInt();
+			Map<String, Directory> directories = new HashMap<>(directoryCount * 2);
+			for(int i = 0; i < directoryCount; i++)
+			{
+				String directoryName = PluginNodeCodec.readString(buffer);
+				long lastModified = buffer.getLong();
+
+				File directory = new File(myChannelDirectory, directoryName);
+
+				int nodeCount = buffer.getInt();
+				List<Pair<PluginNode, File>> nodes = new ArrayList<>(nodeCount);
+				for(int j = 0; j < nodeCount; j++)
+				{
+					String archiveName = PluginNodeCodec.readString(buffer);
+					long archiveLength = buffer.getLong();
+
+					PluginNode node = PluginNodeCodec.readNode(buffer);
+					PluginNodeCodec.readUploadChecksum(buffer, node);
+					node.length = archiveLength;
+
+					nodes.add(Pair.create(node, new File(directory, archiveName)));
+				}
+
+				directories.put(directoryName, new Directory(lastModified, nodes));
+			}
+			return new Content(journalSequence, directories);
+		}
+		catch(IOException | BufferUnderflowException | IllegalArgumentException e)
+		{
+			logger.warn("Index is broken: " + myIndexFile.getPath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return journal sequence of index, or -1 if index is not exists, or broken
+	 */
+	public long readJournalSequence()
+	{
+		if(!myIndexFile.exists())
+		{
+			return -1;
+		}
+
+		try (DataInputStream stream = new DataInputStream(new FileInputStream(myIndexFile)))
+		{
+			if(stream.readInt() != MAGIC || stream.readInt() != VERSION)
+			{
+				return -1;
+			}
+			return stream.readLong();
+		}
+		catch(IOException e)
+		{
+			// EOFException if header is not complete
+			return -1;
+		}
+	}
+
+	/**
+	 * Write index to temp file, and replace old index atomically
+	 *
+	 * @param journalSequence last journal record, which changes are included to directories
+	 */
+	public void write(long journalSequence, @Nonnull Map<String, Directory> directories) throws IOException
+	{
+		File tempFile = new File(myChannelDirectory, FILE_NAME + ".tmp");
+
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
+		try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16)))
+		{
+			stream.writeInt(MAGIC);
+			stream.writeInt(VERSION);
+			stream.writeLong(journalSequence);
+
+			stream.writeInt(directories.size());
+			for(Map.Entry<String, Directory> entry : directories.entrySet())
+			{
+				Directory directory = entry.getValue();
+
+				PluginNodeCodec.writeString(stream, entry.getKey());
+				stream.writeLong(directory.myLastModified);
+
+				stream.writeInt(directory.myNodes.size());
+				for(Pair<PluginNode, File> pair : directory.myNodes)
+				{
+					PluginNode node = pair.getFirst();
+					File archive = pair.getSecond();
+
+					PluginNodeCodec.writeString(stream, archive.getName());
+					stream.writeLong(node.length == null ? archive.length() : node.length);
+
+					PluginNodeCodec.writeNode(stream, node);
+					PluginNodeCodec.writeUploadChecksum(stream, node);
+				}
+			}
+
+			// index must be on disk before journal compaction
+			stream.flush();
+			fileStream.getFD().sync();
+		}
+
+		Files.move(tempFile.toPath(), myIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
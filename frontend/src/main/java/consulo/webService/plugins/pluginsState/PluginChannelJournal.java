@@ -0,0 +1,697 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.intellij.util.ThrowableConsumer;
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * Append only journal of channel changes. Changes before checkpoint are stored in {@link PluginChannelIndex}, and removed from journal by {@link #compact(long, ThrowableConsumer)}.
+ *
+ * Record format: payload length, crc32 of payload, payload. Broken record at end of file (crash while writing) is truncated at {@link #open(long, Consumer)}
+ *
+ * Journal can be shared by many nodes (shared storage) - writers are serialized by file lock, and each node apply changes of other nodes by {@link #tail(Consumer)}.
+ * If journal was compacted by other node, and records which are not applied was removed - state must be reloaded by {@link #reload(LongSupplier, Consumer)}
+ *
+ * @since 18-Oct-26
+ */
+public class PluginChannelJournal implements Closeable
+{
+	public static class Record
+	{
+		public final long mySequence;
+		public final String myNodeId;
+		public final long myTime;
+		public final byte myType;
+		public final String myDirectoryName;
+		// modification time of plugin directory after change
+		public final long myDirectoryModified;
+		public final String myVersion;
+		public final String myPlatformVersion;
+
+		// only for push
+		@Nullable
+		public final PluginNode myNode;
+		@Nullable
+		public final File myArchive;
+
+		// position of next record
+		public final long myEndPosition;
+
+		public Record(long sequence,
+					  String nodeId,
+					  long time,
+					  byte type,
+					  String directoryName,
+					  long directoryModified,
+					  String version,
+					  String platformVersion,
+					  @Nullable PluginNode node,
+					  @Nullable File archive,
+					  long endPosition)
+		{
+			mySequence = sequence;
+			myNodeId = nodeId;
+			myTime = time;
+			myType = type;
+			myDirectoryName = directoryName;
+			myDirectoryModified = directoryModified;
+			myVersion = version;
+			myPlatformVersion = platformVersion;
+			myNode = node;
+			myArchive = archive;
+			myEndPosition = endPosition;
+		}
+	}
+
+	private static class JournalLock implements Closeable
+	{
+		private final FileLock myFileLock;
+		private final ReentrantLock myProcessLock;
+
+		private JournalLock(FileLock fileLock, ReentrantLock processLock)
+		{
+			myFileLock = fileLock;
+			myProcessLock = processLock;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				myFileLock.release();
+			}
+			finally
+			{
+				myProcessLock.unlock();
+			}
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(PluginChannelJournal.class);
+
+	public static final String FILE_NAME = ".journal";
+
+	public static final byte PUSH = 1;
+	public static final byte REMOVE = 2;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	// file locks are held by whole process, journals of one process (tests) are serialized by this locks
+	private static final ConcurrentMap<String, ReentrantLock> ourProcessLocks = new ConcurrentHashMap<>();
+
+	// records of this node are already applied to memory state
+	private final String myNodeId = UUID.randomUUID().toString();
+
+	private final File myChannelDirectory;
+	private final File myJournalFile;
+	private final ReentrantLock myProcessLock;
+	// return sequence of current checkpoint
+	private final LongSupplier myCheckpointReader;
+
+	private FileChannel myChannel;
+	// null if file system not support file keys
+	private Object myFileKey;
+
+	// position after last known record, while writing
+	private long myEndPosition;
+	// position of next record for tail
+	private long myTailPosition;
+	private int myRecordCount;
+
+	private volatile long myLastSequence;
+	// last record, which is applied to memory state
+	private volatile long myAppliedSequence;
+	// delay between writing and applying of last record from other node
+	private volatile long myLastApplyDelay;
+	private volatile long myLastTailTime;
+	// records after applied sequence are removed by other node
+	private boolean myReloadRequired;
+
+	private final Object mySyncLock = new Object();
+	private long mySyncedSequence;
+
+	public PluginChannelJournal(@Nonnull File channelDirectory, @Nonnull LongSupplier checkpointReader)
+	{
+		myChannelDirectory = channelDirectory;
+		myJournalFile = new File(channelDirectory, FILE_NAME);
+		myProcessLock = ourProcessLocks.computeIfAbsent(myJournalFile.getAbsolutePath(), it -> new ReentrantLock());
+		myCheckpointReader = checkpointReader;
+	}
+
+	/**
+	 * Open journal for writing, and replay records after checkpoint
+	 *
+	 * @param checkpointSequence last sequence stored in index
+	 */
+	public synchronized void open(long checkpointSequence, @Nonnull Consumer<Record> consumer) throws IOException
+	{
+		reopen();
+
+		myAppliedSequence = checkpointSequence;
+		myReloadRequired = false;
+
+		try (JournalLock ignored = lock())
+		{
+			long lastSequence = checkpointSequence;
+			long position = 0;
+			int recordCount = 0;
+
+			Record record;
+			while((record = readRecord(position)) != null)
+			{
+				if(record.mySequence > checkpointSequence)
+				{
+					consumer.accept(record);
+				}
+
+				lastSequence = Math.max(lastSequence, record.mySequence);
+				position = record.myEndPosition;
+				recordCount++;
+			}
+
+			// file is locked, nobody write it now
+			if(position != myChannel.size())
+			{
+				logger.warn("Journal has broken tail, truncated at " + position + ": " + myJournalFile.getPath());
+				myChannel.truncate(position);
+			}
+
+			myEndPosition = position;
+			myTailPosition = position;
+			myRecordCount = recordCount;
+			myLastSequence = lastSequence;
+			myAppliedSequence = lastSequence;
+			myLastTailTime = System.currentTimeMillis();
+			mySyncedSequence = lastSequence;
+
+			// index was rewritten by other node after reading, records can be already removed
+			if(myCheckpointReader.getAsLong() > checkpointSequence)
+			{
+				myReloadRequired = true;
+			}
+		}
+	}
+
+	public long getLastSequence()
+	{
+		return myLastSequence;
+	}
+
+	public long getAppliedSequence()
+	{
+		return myAppliedSequence;
+	}
+
+	public long getLastApplyDelay()
+	{
+		return myLastApplyDelay;
+	}
+
+	public long getLastTailTime()
+	{
+		return myLastTailTime;
+	}
+
+	public synchronized int getRecordCount()
+	{
+		return myRecordCount;
+	}
+
+	public void appendPush(@Nonnull String directoryName, long directoryModified, @Nonnull PluginNode node, @Nonnull File archive) throws IOException
+	{
+		append(PUSH, directoryName, directoryModified, node.version, node.platformVersion, stream ->
+		{
+			PluginNodeCodec.writeString(stream, archive.getName());
+			stream.writeLong(node.length == null ? archive.length() : node.length);
+			PluginNodeCodec.writeNode(stream, node);
+			PluginNodeCodec.writeUploadChecksum(stream, node);
+		});
+	}
+
+	public void appendRemove(@Nonnull String directoryName, long directoryModified, @Nonnull String version, @Nonnull String platformVersion) throws IOException
+	{
+		append(REMOVE, directoryName, directoryModified, version, platformVersion, stream ->
+		{
+		});
+	}
+
+	private synchronized void append(byte type,
+									 String directoryName,
+									 long directoryModified,
+									 String version,
+									 String platformVersion,
+									 ThrowableConsumer<DataOutputStream, IOException> payloadWriter) throws IOException
+	{
+		try (JournalLock ignored = lock())
+		{
+			// skip records of other nodes, for calculating next sequence
+			scanToEnd();
+
+			long sequence = myLastSequence + 1;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			// reserve header
+			bytes.write(new byte[HEADER_SIZE]);
+
+			DataOutputStream stream = new DataOutputStream(bytes);
+			stream.writeLong(sequence);
+			PluginNodeCodec.writeString(stream, myNodeId);
+			stream.writeLong(System.currentTimeMillis());
+			stream.writeByte(type);
+			PluginNodeCodec.writeString(stream, directoryName);
+			stream.writeLong(directoryModified);
+			PluginNodeCodec.writeString(stream, version);
+			PluginNodeCodec.writeString(stream, platformVersion);
+			payloadWriter.consume(stream);
+			stream.flush();
+
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			int payloadLength = buffer.capacity() - HEADER_SIZE;
+
+			CRC32 crc32 = new CRC32();
+			crc32.update(buffer.array(), HEADER_SIZE, payloadLength);
+
+			buffer.putInt(0, payloadLength);
+			buffer.putInt(4, (int) crc32.getValue());
+
+			// if there broken tail (crash of other node while writing) - it will be overwritten
+			long position = myEndPosition;
+			while(buffer.hasRemaining())
+			{
+				position += myChannel.write(buffer, position);
+			}
+
+			myEndPosition = position;
+			myRecordCount++;
+			myLastSequence = sequence;
+		}
+	}
+
+	/**
+	 * Flush all appended records to disk. Concurrent callers are batched - one fsync covers all records written before it
+	 */
+	public void sync() throws IOException
+	{
+		long sequence = myLastSequence;
+
+		synchronized (mySyncLock)
+		{
+			if(mySyncedSequence >= sequence)
+			{
+				return;
+			}
+
+			long lastSequence = myLastSequence;
+			myChannel.force(false);
+			mySyncedSequence = lastSequence;
+		}
+	}
+
+	/**
+	 * Read records, which are written by other nodes after last call
+	 *
+	 * @return count of applied records, or -1 if journal was compacted by other node, and records which are not applied was removed - state must be reloaded by {@link #reload(LongSupplier, Consumer)}
+	 */
+	public synchronized int tail(@Nonnull Consumer<Record> consumer) throws IOException
+	{
+		if(!myReloadRequired && !isSameFile())
+		{
+			// journal was compacted by other node
+			reopenReplaced();
+			scanToEnd();
+		}
+
+		if(myReloadRequired)
+		{
+			return -1;
+		}
+
+		long time = System.currentTimeMillis();
+
+		int count = 0;
+		Record record;
+		// record which is not fully written yet, will be read at next call
+		while((record = readRecord(myTailPosition)) != null)
+		{
+			myTailPosition = record.myEndPosition;
+
+			if(record.mySequence <= myAppliedSequence)
+			{
+				continue;
+			}
+
+			if(!myNodeId.equals(record.myNodeId))
+			{
+				consumer.accept(record);
+				myLastApplyDelay = time - record.myTime;
+				count++;
+			}
+
+			myAppliedSequence = record.mySequence;
+			myLastSequence = Math.max(myLastSequence, record.mySequence);
+		}
+
+		myLastTailTime = time;
+		return count;
+	}
+
+	/**
+	 * Read checkpoint and all records after it. Checkpoint can't be changed by other nodes while reading
+	 *
+	 * @param checkpointReader read checkpoint, and return its sequence
+	 */
+	public synchronized void reload(@Nonnull LongSupplier checkpointReader, @Nonnull Consumer<Record> consumer) throws IOException
+	{
+		try (JournalLock ignored = lock())
+		{
+			long checkpointSequence = checkpointReader.getAsLong();
+
+			long appliedSequence = checkpointSequence;
+			long position = 0;
+			int recordCount = 0;
+
+			Record record;
+			while((record = readRecord(position)) != null)
+			{
+				if(record.mySequence > checkpointSequence)
+				{
+					consumer.accept(record);
+				}
+
+				appliedSequence = Math.max(appliedSequence, record.mySequence);
+				position = record.myEndPosition;
+				recordCount++;
+			}
+
+			myEndPosition = position;
+			myTailPosition = position;
+			myRecordCount = recordCount;
+			myLastSequence = Math.max(myLastSequence, appliedSequence);
+			myAppliedSequence = appliedSequence;
+			myLastTailTime = System.currentTimeMillis();
+			myReloadRequired = false;
+		}
+	}
+
+	/**
+	 * Write checkpoint, and remove records, which are included to it. Nodes are serialized by file lock.
+	 * If other node already wrote newer checkpoint - nothing is written
+	 *
+	 * @param checkpointSequence last record, which is included to checkpoint
+	 * @param checkpointWriter   will be called under lock
+	 */
+	public synchronized void compact(long checkpointSequence, @Nonnull ThrowableConsumer<Long, IOException> checkpointWriter) throws IOException
+	{
+		try (JournalLock ignored = lock())
+		{
+			if(myCheckpointReader.getAsLong() > checkpointSequence)
+			{
+				// do not replace newer checkpoint, records after it are already removed
+				return;
+			}
+
+			checkpointWriter.consume(checkpointSequence);
+
+			long position = 0;
+
+			Record record;
+			long keepPosition = -1;
+			while((record = readRecord(position)) != null)
+			{
+				if(record.mySequence > checkpointSequence && keepPosition == -1)
+				{
+					keepPosition = position;
+				}
+				position = record.myEndPosition;
+			}
+
+			// first record is always changed by compaction, it's used as file identity without file keys
+			if(keepPosition == 0 || position == 0)
+			{
+				// nothing to remove
+				return;
+			}
+
+			File tempFile = new File(myChannelDirectory, FILE_NAME + ".tmp");
+
+			try (FileChannel tempChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+			{
+				if(keepPosition != -1)
+				{
+					long from = keepPosition;
+					while(from < position)
+					{
+						from += myChannel.transferTo(from, position - from, tempChannel);
+					}
+				}
+				tempChannel.force(true);
+			}
+
+			// other nodes, which wait lock of old file, will reopen journal after getting lock
+			Files.move(tempFile.toPath(), myJournalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		if(!isSameFile())
+		{
+			reopenReplaced();
+			scanToEnd();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		synchronized (mySyncLock)
+		{
+			if(myChannel != null)
+			{
+				myChannel.close();
+				myChannel = null;
+			}
+		}
+	}
+
+	/**
+	 * Must be called under this lock. All positions are reset, records are skipped by sequence
+	 */
+	private void reopen() throws IOException
+	{
+		synchronized (mySyncLock)
+		{
+			if(myChannel != null)
+			{
+				myChannel.close();
+			}
+
+			myChannel = FileChannel.open(myJournalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			myFileKey = Files.readAttributes(myJournalFile.toPath(), BasicFileAttributes.class).fileKey();
+			mySyncedSequence = myLastSequence;
+		}
+
+		myEndPosition = 0;
+		myTailPosition = 0;
+		myRecordCount = 0;
+	}
+
+	/**
+	 * Reopen journal, which was replaced by compaction. If new checkpoint is after applied record - removed records are not applied, and reload is required
+	 */
+	private void reopenReplaced() throws IOException
+	{
+		reopen();
+
+		long checkpointSequence = myCheckpointReader.getAsLong();
+		// new file can be empty, sequence must continue after removed records
+		myLastSequence = Math.max(myLastSequence, checkpointSequence);
+
+		if(checkpointSequence > myAppliedSequence)
+		{
+			myReloadRequired = true;
+		}
+	}
+
+	/**
+	 * Move end position after last complete record
+	 */
+	private void scanToEnd() throws IOException
+	{
+		Record record;
+		while((record = readRecord(myEndPosition)) != null)
+		{
+			myLastSequence = Math.max(myLastSequence, record.mySequence);
+			myEndPosition = record.myEndPosition;
+			myRecordCount++;
+		}
+	}
+
+	/**
+	 * Lock journal file. If file was replaced by other node while waiting - journal will be reopened
+	 */
+	@Nonnull
+	private JournalLock lock() throws IOException
+	{
+		myProcessLock.lock();
+		try
+		{
+			while(true)
+			{
+				FileLock lock = myChannel.lock();
+				if(isSameFile())
+				{
+					return new JournalLock(lock, myProcessLock);
+				}
+
+				lock.release();
+				reopenReplaced();
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{
+			myProcessLock.unlock();
+			throw e;
+		}
+	}
+
+	private boolean isSameFile() throws IOException
+	{
+		try
+		{
+			Object fileKey = Files.readAttributes(myJournalFile.toPath(), BasicFileAttributes.class).fileKey();
+			if(fileKey != null)
+			{
+				return fileKey.equals(myFileKey);
+			}
+
+			// file system without file keys - compare first record, compaction always replace it
+			try (FileChannel channel = FileChannel.open(myJournalFile.toPath(), StandardOpenOption.READ))
+			{
+				return Arrays.equals(readHeader(channel), readHeader(myChannel));
+			}
+		}
+		catch(NoSuchFileException e)
+		{
+			return false;
+		}
+	}
+
+	@Nonnull
+	private static byte[] readHeader(@Nonnull FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		return Arrays.copyOf(header.array(), header.position());
+	}
+
+	/**
+	 * @return null if end of file, or record is broken
+	 */
+	@Nullable
+	private Record readRecord(long position) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if(!readFully(myChannel, header, position))
+		{
+			return null;
+		}
+
+		int payloadLength = header.getInt(0);
+		int checksum = header.getInt(4);
+		if(payloadLength <= 0 || payloadLength > MAX_RECORD_SIZE)
+		{
+			return null;
+		}
+
+		ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+		if(!readFully(myChannel, payload, position + HEADER_SIZE))
+		{
+			return null;
+		}
+
+		CRC32 crc32 = new CRC32();
+		crc32.update(payload.array(), 0, payloadLength);
+		if((int) crc32.getValue() != checksum)
+		{
+			return null;
+		}
+
+		payload.flip();
+
+		try
+		{
+			long sequence = payload.getLong();
+			String nodeId = PluginNodeCodec.readString(payload);
+			long time = payload.getLong();
+			byte type = payload.get();
+			String directoryName = PluginNodeCodec.readString(payload);
+			long directoryModified = payload.getLong();
+			String version = PluginNodeCodec.readString(payload);
+			String platformVersion = PluginNodeCodec.readString(payload);
+
+			PluginNode node = null;
+			File archive = null;
+			if(type == PUSH)
+			{
+				String archiveName = PluginNodeCodec.readString(payload);
+				long archiveLength = payload.getLong();
+
+				node = PluginNodeCodec.readNode(payload);
+				if(payload.hasRemaining())
+				{
+					PluginNodeCodec.readUploadChecksum(payload, node);
+				}
+				node.length = archiveLength;
+
+				archive = new File(new File(myChannelDirectory, directoryName), archiveName);
+			}
+
+			long endPosition = position + HEADER_SIZE + payloadLength;
+			return new Record(sequence, nodeId, time, type, directoryName, directoryModified, version, platformVersion, node, archive, endPosition);
+		}
+		catch(BufferUnderflowException | IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean readFully(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,213 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * Binary serialization of {@link PluginNode}, shared by {@link PluginChannelIndex} and {@link PluginChannelJournal}
+ *
+ * @since 18-Oct-26
+ */
+final class PluginNodeCodec
+{
+	private PluginNodeCodec()
+	{
+	}
+
+	static void writeNode(DataOutputStream stream, PluginNode node) throws IOException
+	{
+		writeString(stream, node.id);
+		writeString(stream, node.name);
+		writeString(stream, node.description);
+		writeString(stream, node.category);
+		writeString(stream, node.vendor);
+		writeString(stream, node.version);
+		writeString(stream, node.platformVersion);
+		writeString(stream, node.iconBytes);
+		writeLong(stream, node.date);
+		writeInt(stream, node.rating);
+		writeStringArray(stream, node.dependencies);
+		writeStringArray(stream, node.optionalDependencies);
+		writeExtensions(stream, node.extensions);
+		writeExtensions(stream, node.extensionsV2);
+		stream.writeBoolean(node.experimental);
+		writeString(stream, node.checksum == null ? null : node.checksum.sha_256);
+	}
+
+	@Nonnull
+	static PluginNode readNode(ByteBuffer buffer)
+	{
+		PluginNode node = new PluginNode();
+		node.id = readString(buffer);
+		node.name = readString(buffer);
+		node.description = readString(buffer);
+		node.category = readString(buffer);
+		node.vendor = readString(buffer);
+		node.version = readString(buffer);
+		node.platformVersion = readString(buffer);
+		node.iconBytes = readString(buffer);
+		node.date = readLong(buffer);
+		node.rating = readInt(buffer);
+		node.dependencies = readStringArray(buffer);
+		node.optionalDependencies = readStringArray(buffer);
+		node.extensions = readExtensions(buffer);
+		node.extensionsV2 = readExtensions(buffer);
+		node.experimental = buffer.get() != 0;
+		String sha256 = readString(buffer);
+		if(sha256 != null)
+		{
+			node.checksum = new PluginNode.Checksum();
+			node.checksum.sha_256 = sha256;
+		}
+		return node;
+	}
+
+	/**
+	 * Upload checksum is stored after node - journal records of old versions have no it
+	 */
+	static void writeUploadChecksum(DataOutputStream stream, PluginNode node) throws IOException
+	{
+		writeString(stream, node.checksum == null ? null : node.checksum.upload_sha_256);
+	}
+
+	static void readUploadChecksum(ByteBuffer buffer, PluginNode node)
+	{
+		String uploadSha256 = readString(buffer);
+		if(uploadSha256 != null && node.checksum != null)
+		{
+			node.checksum.upload_sha_256 = uploadSha256;
+		}
+	}
+
+	static void writeString(DataOutputStream stream, @Nullable String value) throws IOException
+	{
+		if(value == null)
+		{
+			stream.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		stream.writeInt(bytes.length);
+		stream.write(bytes);
+	}
+
+	@Nullable
+	static String readString(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if(length == -1)
+		{
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeLong(DataOutputStream stream, @Nullable Long value) throws IOException
+	{
+		stream.writeBoolean(value != null);
+		if(value != null)
+		{
+			stream.writeLong(value);
+		}
+	}
+
+	@Nullable
+	private static Long readLong(ByteBuffer buffer)
+	{
+		return buffer.get() != 0 ? buffer.getLong() : null;
+	}
+
+	private static void writeInt(DataOutputStream stream, @Nullable Integer value) throws IOException
+	{
+		stream.writeBoolean(value != null);
+		if(value != null)
+		{
+			stream.writeInt(value);
+		}
+	}
+
+	@Nullable
+	private static Integer readInt(ByteBuffer buffer)
+	{
+		return buffer.get() != 0 ? buffer.getInt() : null;
+	}
+
+	private static void writeStringArray(DataOutputStream stream, @Nullable String[] values) throws IOException
+	{
+		if(values == null)
+		{
+			stream.writeInt(-1);
+			return;
+		}
+
+		stream.writeInt(values.length);
+		for(String value : values)
+		{
+			writeString(stream, value);
+		}
+	}
+
+	@Nullable
+	private static String[] readStringArray(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if(length == -1)
+		{
+			return null;
+		}
+
+		String[] values = new String[length];
+		for(int i = 0; i < length; i++)
+		{
+			values[i] = readString(buffer);
+		}
+		return values;
+	}
+
+	private static void writeExtensions(DataOutputStream stream, @Nullable PluginNode.Extension[] extensions) throws IOException
+	{
+		if(extensions == null)
+		{
+			stream.writeInt(-1);
+			return;
+		}
+
+		stream.writeInt(extensions.length);
+		for(PluginNode.Extension extension : extensions)
+		{
+			writeString(stream, extension.key);
+			writeStringArray(stream, extension.values);
+		}
+	}
+
+	@Nullable
+	private static PluginNode.Extension[] readExtensions(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if(length == -1)
+		{
+			return null;
+		}
+
+		PluginNode.Extension[] extensions = new PluginNode.Extension[length];
+		for(int i = 0; i < length; i++)
+		{
+			PluginNode.Extension extension = new PluginNode.Extension();
+			extension.key = readString(buffer);
+			extension.values = readStringArray(buffer);
+			extensions[i] = extension;
+		}
+		return extensions;
+	}
+}
@@ -0,0 +1,91 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * Immutable set of plugin nodes for one platform version, sorted by {@link VersionKey} and indexed by version string
+ *
+ * @since 18-Oct-26
+ */
+final class PluginsBucket
+{
+	private static final Comparator<PluginNode> ourComparator = (o1, o2) -> o1.versionKey.compareTo(o2.versionKey);
+
+	private final NavigableSet<PluginNode> myNodes;
+	private final Map<String, PluginNode> myNodesByVersion;
+
+	private PluginsBucket(@Nonnull NavigableSet<PluginNode> nodes)
+	{
+		myNodes = Collections.unmodifiableNavigableSet(nodes);
+
+		Map<String, PluginNode> nodesByVersion = new HashMap<>(nodes.size() * 2);
+		for(PluginNode node : nodes)
+		{
+			nodesByVersion.put(node.version, node);
+		}
+		myNodesByVersion = nodesByVersion;
+	}
+
+	/**
+	 * Nodes must have initialized {@link PluginNode#versionKey}
+	 */
+	@Nonnull
+	static PluginsBucket add(@Nullable PluginsBucket bucket, @Nonnull Collection<PluginNode> nodes)
+	{
+		NavigableSet<PluginNode> newNodes = newTreeSet(bucket);
+		newNodes.addAll(nodes);
+		return new PluginsBucket(newNodes);
+	}
+
+	/**
+	 * @return null if bucket is empty after removing
+	 */
+	@Nullable
+	PluginsBucket remove(@Nonnull PluginNode node)
+	{
+		NavigableSet<PluginNode> newNodes = newTreeSet(this);
+		newNodes.remove(node);
+		return newNodes.isEmpty() ? null : new PluginsBucket(newNodes);
+	}
+
+	@Nonnull
+	private static NavigableSet<PluginNode> newTreeSet(@Nullable PluginsBucket bucket)
+	{
+		NavigableSet<PluginNode> set = new TreeSet<>(ourComparator);
+		if(bucket != null)
+		{
+			// same comparator - linear copy without comparing
+			set.addAll(bucket.myNodes);
+		}
+		return set;
+	}
+
+	@Nullable
+	PluginNode get(@Nullable String version)
+	{
+		return myNodesByVersion.get(version);
+	}
+
+	@Nonnull
+	PluginNode last()
+	{
+		return myNodes.last();
+	}
+
+	@Nonnull
+	NavigableSet<PluginNode> getNodes()
+	{
+		return myNodes;
+	}
+}
@@ -1,18 +1,18 @@
 package consulo.webService.plugins.pluginsState;
 
 import java.io.File;
-import java.util.NavigableMap;
-import java.util.NavigableSet;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.intellij.openapi.application.AccessToken;
 import com.intellij.openapi.util.io.FileUtilRt;
-import consulo.webService.plugins.PluginNode;
+import consulo.webService.plugins.ArtifactBlobStore;
 
 /**
+ * Only writers are serialized, readers work with immutable snapshot
+ *
  * @author VISTALL
  * @since 09-May-17
  */
@@ -35,31 +35,18 @@ public class PluginsSetWithLock extends PluginsState
 		}
 	}
 
-	private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+	private final ReentrantLock myWriteLock = new ReentrantLock();
 
-	public PluginsSetWithLock(File rootDir, String pluginId)
+	public PluginsSetWithLock(File rootDir, String pluginId, @Nullable PluginChannelJournal journal, @Nullable ArtifactBlobStore blobStore)
 	{
-		super(rootDir, pluginId);
+		super(rootDir, pluginId, journal, blobStore);
 
 		FileUtilRt.createParentDirs(myPluginDirectory);
 	}
 
-	@Nonnull
-	@Override
-	public NavigableMap<String, NavigableSet<PluginNode>> getPluginsByPlatformVersion()
-	{
-		throw new UnsupportedOperationException("Plugins state with locks, does not support this method. Use copy() method before");
-	}
-
-	@Override
-	protected AccessToken readLock()
-	{
-		return new LockWrapper(myLock.readLock());
-	}
-
 	@Override
 	protected AccessToken writeLock()
 	{
-		return new LockWrapper(myLock.writeLock());
+		return new LockWrapper(myWriteLock);
 	}
 }
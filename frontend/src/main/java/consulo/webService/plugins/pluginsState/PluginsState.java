@@ -1,13 +1,16 @@
 package consulo.webService.plugins.pluginsState;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -15,13 +18,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.FileSystemUtils;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.intellij.openapi.application.AccessToken;
-import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.util.ThrowableConsumer;
-import com.intellij.util.text.VersionComparatorUtil;
+import consulo.webService.plugins.ArtifactBlobStore;
 import consulo.webService.plugins.PluginChannel;
 import consulo.webService.plugins.PluginChannelService;
 import consulo.webService.plugins.PluginNode;
@@ -29,6 +33,8 @@ import consulo.webService.plugins.PluginStatisticsService;
 import consulo.webService.util.GsonUtil;
 
 /**
+ * Readers never lock - they see immutable snapshot of plugins, which writers replace (copy-on-write) under {@link #writeLock()}
+ *
  * @author VISTALL
  * @since 09-May-17
  */
@@ -36,48 +42,70 @@ public class PluginsState
 {
 	private static final Logger logger = LoggerFactory.getLogger(PluginChannelService.class);
 
-	private final NavigableMap<String, NavigableSet<PluginNode>> myPluginsByPlatformVersion = new TreeMap<>();
+	private volatile PlatformVersionIndex<PluginsBucket> myPluginsByPlatformVersion = PlatformVersionIndex.empty();
+
+	// view of index, which was built on last request. Index is immutable - view is valid, while index is not replaced
+	private volatile Pair<PlatformVersionIndex<PluginsBucket>, NavigableMap<String, NavigableSet<PluginNode>>> myPluginsView;
 
 	protected final File myPluginDirectory;
 
 	private final String myPluginId;
 
-	protected PluginsState(File rootDir, String pluginId)
+	@Nullable
+	private final PluginChannelJournal myJournal;
+
+	@Nullable
+	private final ArtifactBlobStore myBlobStore;
+
+	protected PluginsState(File rootDir, String pluginId, @Nullable PluginChannelJournal journal, @Nullable ArtifactBlobStore blobStore)
 	{
 		myPluginId = pluginId;
+		myJournal = journal;
+		myBlobStore = blobStore;
 		myPluginDirectory = new File(rootDir, pluginId);
 	}
 
-	@Nonnull
-	public NavigableMap<String, NavigableSet<PluginNode>> getPluginsByPlatformVersion()
+	private PluginsState(PluginsState original)
 	{
-		return myPluginsByPlatformVersion;
+		myPluginId = original.myPluginId;
+		// copy is read only
+		myJournal = null;
+		myBlobStore = null;
+		myPluginDirectory = original.myPluginDirectory;
+		myPluginsByPlatformVersion = original.myPluginsByPlatformVersion;
+		myPluginsView = original.myPluginsView;
 	}
 
 	/**
-	 * @return lock free plugins state
+	 * @return immutable snapshot of plugins, sorted by platform build number. Map is built once per snapshot
 	 */
 	@Nonnull
-	public PluginsState copy()
+	public NavigableMap<String, NavigableSet<PluginNode>> getPluginsByPlatformVersion()
 	{
-		PluginsState copy = new PluginsState(myPluginDirectory, myPluginId);
+		PlatformVersionIndex<PluginsBucket> index = myPluginsByPlatformVersion;
 
-		try (AccessToken ignored = readLock())
+		Pair<PlatformVersionIndex<PluginsBucket>, NavigableMap<String, NavigableSet<PluginNode>>> view = myPluginsView;
+		if(view == null || view.getFirst() != index)
 		{
-			for(Map.Entry<String, NavigableSet<PluginNode>> entry : myPluginsByPlatformVersion.entrySet())
-			{
-				for(PluginNode node : entry.getValue())
-				{
-					copy._add(node);
-				}
-			}
+			view = Pair.create(index, index.asNavigableMap(PluginsBucket::getNodes));
+			myPluginsView = view;
 		}
-		return copy;
+		return view.getSecond();
 	}
 
-	protected AccessToken readLock()
+	@Nonnull
+	public File getPluginDirectory()
 	{
-		return AccessToken.EMPTY_ACCESS_TOKEN;
+		return myPluginDirectory;
+	}
+
+	/**
+	 * @return lock free plugins state, which will not see future changes
+	 */
+	@Nonnull
+	public PluginsState copy()
+	{
+		return new PluginsState(this);
 	}
 
 	protected AccessToken writeLock()
@@ -88,28 +116,50 @@ public class PluginsState
 	@VisibleForTesting
 	public void _add(PluginNode pluginNode)
 	{
-		NavigableSet<PluginNode> nodes = myPluginsByPlatformVersion.computeIfAbsent(pluginNode.platformVersion, PluginsState::newTreeSet);
-
-		nodes.add(pluginNode);
+		try (AccessToken ignored = writeLock())
+		{
+			addAll(Collections.singletonList(pluginNode));
+		}
 	}
 
-	private static NavigableSet<PluginNode> newTreeSet(@Nonnull String unused)
+	/**
+	 * Must be called under write lock
+	 */
+	private void addAll(Collection<PluginNode> pluginNodes)
 	{
-		return new TreeSet<>((o1, o2) -> VersionComparatorUtil.compare(o1.version, o2.version));
+		PlatformVersionIndex<PluginsBucket> oldIndex = myPluginsByPlatformVersion;
+
+		Map<String, List<PluginNode>> byPlatformVersion = new HashMap<>();
+		for(PluginNode pluginNode : pluginNodes)
+		{
+			if(pluginNode.versionKey == null)
+			{
+				pluginNode.versionKey = VersionKey.of(pluginNode.version);
+			}
+
+			byPlatformVersion.computeIfAbsent(pluginNode.platformVersion, platformVersion -> new ArrayList<>()).add(pluginNode);
+		}
+
+		Map<String, PluginsBucket> changes = new HashMap<>();
+		for(Map.Entry<String, List<PluginNode>> entry : byPlatformVersion.entrySet())
+		{
+			String platformVersion = entry.getKey();
+
+			changes.put(platformVersion, PluginsBucket.add(oldIndex.get(platformVersion), entry.getValue()));
+		}
+
+		myPluginsByPlatformVersion = oldIndex.with(changes);
 	}
 
 	@Nonnull
 	public List<PluginNode> getAll()
 	{
-		try (AccessToken ignored = readLock())
+		List<PluginNode> list = new ArrayList<>();
+		for(PluginsBucket bucket : myPluginsByPlatformVersion.values())
 		{
-			List<PluginNode> list = new ArrayList<>();
-			for(NavigableSet<PluginNode> pluginNodes : myPluginsByPlatformVersion.values())
-			{
-				list.addAll(pluginNodes);
-			}
-			return list;
+			list.addAll(bucket.getNodes());
 		}
+		return list;
 	}
 
 	@Nonnull
@@ -136,66 +186,48 @@ public class PluginsState
 
 	public boolean isInRepository(String version, String platformVersion)
 	{
-		try (AccessToken ignored = readLock())
-		{
-			NavigableSet<PluginNode> nodes = myPluginsByPlatformVersion.get(platformVersion);
-
-			if(nodes == null)
-			{
-				return false;
-			}
-
-			for(PluginNode node : nodes)
-			{
-				if(Comparing.equal(version, node.version))
-				{
-					return true;
-				}
-			}
-
-			return false;
-		}
+		PluginsBucket bucket = myPluginsByPlatformVersion.get(platformVersion);
+		return bucket != null && bucket.get(version) != null;
 	}
 
 	public void remove(String version, String platformVersion)
 	{
 		try (AccessToken ignored = writeLock())
 		{
-			NavigableSet<PluginNode> nodes = myPluginsByPlatformVersion.get(platformVersion);
+			PlatformVersionIndex<PluginsBucket> oldIndex = myPluginsByPlatformVersion;
+
+			PluginsBucket bucket = oldIndex.get(platformVersion);
 
-			if(nodes == null)
+			PluginNode target = bucket == null ? null : bucket.get(version);
+			if(target == null)
 			{
 				return;
 			}
 
-			PluginNode target = null;
-			for(PluginNode node : nodes)
+			// null bucket - mean removing platform version
+			myPluginsByPlatformVersion = oldIndex.with(Collections.singletonMap(platformVersion, bucket.remove(target)));
+
+			File targetFile = target.targetFile;
+			// in tests target file is null
+			if(targetFile != null)
 			{
-				if(Comparing.equal(version, node.version))
-				{
-					target = node;
-					break;
-				}
+				targetFile.delete();
+
+				File jsonFile = new File(targetFile.getParentFile(), targetFile.getName() + ".json");
+
+				jsonFile.delete();
 			}
 
-			if(target != null)
+			if(myJournal != null)
 			{
-				nodes.remove(target);
-
-				if(nodes.isEmpty())
+				try
 				{
-					myPluginsByPlatformVersion.remove(platformVersion);
+					myJournal.appendRemove(myPluginDirectory.getName(), myPluginDirectory.lastModified(), version, platformVersion);
 				}
-
-				File targetFile = target.targetFile;
-				// in tests target file is null
-				if(targetFile != null)
+				catch(IOException e)
 				{
-					targetFile.delete();
-
-					File jsonFile = new File(targetFile.getParentFile(), targetFile.getName() + ".json");
-
-					jsonFile.delete();
+					// directory modification time will not match journal, and directory will be scanned at next start
+					logger.error("Failed to write journal: " + myPluginId + "=" + version, e);
 				}
 			}
 		}
@@ -204,50 +236,39 @@ public class PluginsState
 	@Nullable
 	public PluginNode select(@Nonnull String platformVersion, @Nullable String version, boolean platformBuildSelect)
 	{
-		try (AccessToken ignored = readLock())
+		PluginsBucket bucket = getBucketByVersion(platformVersion, platformBuildSelect);
+		if(bucket == null)
 		{
-			NavigableSet<PluginNode> pluginNodes = getPluginSetByVersion(platformVersion, platformBuildSelect);
-			if(pluginNodes == null || pluginNodes.isEmpty())
-			{
-				return null;
-			}
-
-			if(version == null || PluginChannelService.SNAPSHOT.equals(version))
-			{
-				return pluginNodes.last();
-			}
-
-			for(PluginNode pluginNode : pluginNodes)
-			{
-				if(Comparing.equal(pluginNode.version, version))
-				{
-					return pluginNode;
-				}
-			}
-
 			return null;
 		}
+
+		if(version == null || PluginChannelService.SNAPSHOT.equals(version))
+		{
+			return bucket.last();
+		}
+
+		return bucket.get(version);
 	}
 
 	public void selectInto(@Nonnull PluginStatisticsService statisticsService, @Nonnull PluginChannel channel, @Nonnull String platformVersion, boolean platformBuildSelect, List<PluginNode> list)
 	{
-		try (AccessToken ignored = readLock())
+		PluginsBucket bucket = getBucketByVersion(platformVersion, platformBuildSelect);
+		if(bucket == null)
 		{
-			NavigableSet<PluginNode> pluginNodes = getPluginSetByVersion(platformVersion, platformBuildSelect);
-			if(pluginNodes == null || pluginNodes.isEmpty())
-			{
-				return;
-			}
+			return;
+		}
 
-			PluginNode last = pluginNodes.last();
+		PluginNode last = bucket.last();
 
-			PluginNode lastCloned = last.clone();
-			lastCloned.downloads = statisticsService.getDownloadStatCount(last.id, channel);
-			list.add(lastCloned);
-		}
+		PluginNode lastCloned = last.clone();
+		lastCloned.downloads = statisticsService.getDownloadStatCount(last.id, channel);
+		list.add(lastCloned);
 	}
 
-	public void push(PluginNode pluginNode, String ext, ThrowableConsumer<File, Exception> writeConsumer) throws Exception
+	/**
+	 * @param sha256 checksum of content, which will be written by writeConsumer, or null if it's not known
+	 */
+	public void push(PluginNode pluginNode, String ext, ThrowableConsumer<File, Exception> writeConsumer, @Nullable String sha256) throws Exception
 	{
 		try (AccessToken ignored = writeLock())
 		{
@@ -257,7 +278,16 @@ public class PluginsState
 
 			pluginNode.date = System.currentTimeMillis();
 			pluginNode.length = fileForPlugin.length();
+			PluginNode.Checksum checksum = new PluginNode.Checksum();
+			checksum.upload_sha_256 = pluginNode.checksum == null ? null : pluginNode.checksum.upload_sha_256;
+			pluginNode.checksum = checksum;
+			pluginNode.checksum.sha_256 = sha256 != null ? sha256 : Files.asByteSource(fileForPlugin).hash(Hashing.sha256()).toString();
 			pluginNode.targetFile = fileForPlugin;
+
+			if(myBlobStore != null)
+			{
+				myBlobStore.add(fileForPlugin, pluginNode.checksum.sha_256);
+			}
 			pluginNode.clean();
 
 			File metaFile = new File(fileForPlugin.getParentFile(), fileForPlugin.getName() + ".json");
@@ -266,38 +296,99 @@ public class PluginsState
 
 			FileUtil.writeToFile(metaFile, GsonUtil.get().toJson(pluginNode));
 
-			_add(pluginNode);
+			if(myJournal != null)
+			{
+				try
+				{
+					myJournal.appendPush(myPluginDirectory.getName(), myPluginDirectory.lastModified(), pluginNode, fileForPlugin);
+				}
+				catch(IOException e)
+				{
+					// directory modification time will not match journal, and directory will be scanned at next start
+					logger.error("Failed to write journal: " + myPluginId + "=" + pluginNode.version, e);
+				}
+			}
+
+			addAll(Collections.singletonList(pluginNode));
 		}
 	}
 
-	public void processEntry(Map.Entry<String, List<Pair<PluginNode, File>>> entry)
+	/**
+	 * Replace all plugins, by plugins from checkpoint. Nodes must have target files
+	 */
+	public void replace(@Nonnull Collection<PluginNode> pluginNodes)
 	{
-		List<Pair<PluginNode, File>> value = entry.getValue();
+		try (AccessToken ignored = writeLock())
+		{
+			myPluginsByPlatformVersion = PlatformVersionIndex.empty();
+
+			addAll(pluginNodes);
+		}
+	}
 
+	/**
+	 * Apply change, which made by other node. Files are not changed
+	 */
+	public void apply(@Nonnull PluginChannelJournal.Record record)
+	{
 		try (AccessToken ignored = writeLock())
 		{
-			for(Pair<PluginNode, File> pair : value)
+			if(record.myType == PluginChannelJournal.PUSH)
 			{
-				PluginNode pluginNode = pair.getFirst();
-				File targetArchive = pair.getSecond();
+				PluginNode pluginNode = Objects.requireNonNull(record.myNode);
+				pluginNode.targetFile = record.myArchive;
 
-				pluginNode.length = targetArchive.length();
-				pluginNode.targetFile = targetArchive;
+				addAll(Collections.singletonList(pluginNode));
+			}
+			else
+			{
+				PlatformVersionIndex<PluginsBucket> oldIndex = myPluginsByPlatformVersion;
+
+				PluginsBucket bucket = oldIndex.get(record.myPlatformVersion);
+
+				PluginNode target = bucket == null ? null : bucket.get(record.myVersion);
+				if(target != null)
+				{
+					myPluginsByPlatformVersion = oldIndex.with(Collections.singletonMap(record.myPlatformVersion, bucket.remove(target)));
+				}
+			}
+		}
+	}
+
+	public void processEntry(Map.Entry<String, List<Pair<PluginNode, File>>> entry)
+	{
+		List<Pair<PluginNode, File>> value = entry.getValue();
+
+		List<PluginNode> nodes = new ArrayList<>(value.size());
+		for(Pair<PluginNode, File> pair : value)
+		{
+			PluginNode pluginNode = pair.getFirst();
+			File targetArchive = pair.getSecond();
 
-				_add(pluginNode);
+			// length is set by index or json scan
+			if(pluginNode.length == null)
+			{
+				pluginNode.length = targetArchive.length();
 			}
+			pluginNode.targetFile = targetArchive;
+
+			nodes.add(pluginNode);
+		}
+
+		try (AccessToken ignored = writeLock())
+		{
+			addAll(nodes);
 		}
 	}
 
 	@Nullable
-	private NavigableSet<PluginNode> getPluginSetByVersion(@Nonnull String platformVersion, boolean platformBuildSelect)
+	private PluginsBucket getBucketByVersion(@Nonnull String platformVersion, boolean platformBuildSelect)
 	{
-		NavigableMap<String, NavigableSet<PluginNode>> map = myPluginsByPlatformVersion;
+		PlatformVersionIndex<PluginsBucket> index = myPluginsByPlatformVersion;
 		if(PluginChannelService.SNAPSHOT.equals(platformVersion) || !platformBuildSelect && PluginChannelService.isPlatformNode(myPluginId))
 		{
-			Map.Entry<String, NavigableSet<PluginNode>> entry = map.lastEntry();
-			return entry == null ? null : entry.getValue();
+			return index.last();
 		}
-		return map.get(platformVersion);
+		return index.get(platformVersion);
 	}
 }
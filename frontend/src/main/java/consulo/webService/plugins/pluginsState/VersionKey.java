@@ -0,0 +1,115 @@
+package consulo.webService.plugins.pluginsState;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.intellij.util.text.VersionComparatorUtil;
+
+/**
+ * Version string, parsed once for sorting inside {@link PluginsState}.
+ *
+ * Plain numeric versions (like '1554' or '2.0.1') without leading zeros and with same count of components are compared without tokenizing,
+ * other versions delegated to {@link VersionComparatorUtil}, so order is same as before
+ *
+ * @since 18-Oct-26
+ */
+public final class VersionKey implements Comparable<VersionKey>
+{
+	private final String myVersion;
+	@Nullable
+	private final long[] myNumbers;
+
+	private VersionKey(String version, @Nullable long[] numbers)
+	{
+		myVersion = version;
+		myNumbers = numbers;
+	}
+
+	@Nonnull
+	public static VersionKey of(@Nonnull String version)
+	{
+		return new VersionKey(version, parseNumbers(version));
+	}
+
+	@Nullable
+	private static long[] parseNumbers(@Nonnull String version)
+	{
+		if(version.isEmpty())
+		{
+			return null;
+		}
+
+		int count = 1;
+		for(int i = 0; i < version.length(); i++)
+		{
+			char c = version.charAt(i);
+			if(c == '.')
+			{
+				count++;
+			}
+			else if(c < '0' || c > '9')
+			{
+				return null;
+			}
+		}
+
+		long[] numbers = new long[count];
+		int index = 0;
+		int start = 0;
+		for(int i = 0; i <= version.length(); i++)
+		{
+			if(i == version.length() || version.charAt(i) == '.')
+			{
+				int length = i - start;
+				// empty component or possible overflow
+				if(length == 0 || length > 18)
+				{
+					return null;
+				}
+
+				// leading zeros are significant for VersionComparatorUtil ('01' and '1' are not equal), it's not numeric order
+				if(length > 1 && version.charAt(start) == '0')
+				{
+					return null;
+				}
+
+				numbers[index++] = Long.parseLong(version.substring(start, i));
+				start = i + 1;
+			}
+		}
+		return numbers;
+	}
+
+	@Nonnull
+	public String getVersion()
+	{
+		return myVersion;
+	}
+
+	@Override
+	public int compareTo(@Nonnull VersionKey o)
+	{
+		long[] numbers = myNumbers;
+		long[] otherNumbers = o.myNumbers;
+		if(numbers != null && otherNumbers != null && numbers.length == otherNumbers.length)
+		{
+			for(int i = 0; i < numbers.length; i++)
+			{
+				int result = Long.compare(numbers[i], otherNumbers[i]);
+				if(result != 0)
+				{
+					return result;
+				}
+			}
+			return 0;
+		}
+
+		return VersionComparatorUtil.compare(myVersion, o.myVersion);
+	}
+
+	@Override
+	public String toString()
+	{
+		return myVersion;
+	}
+}
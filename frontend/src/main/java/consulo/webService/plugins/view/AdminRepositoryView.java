@@ -7,8 +7,10 @@ import com.vaadin.ui.Alignment;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.VerticalLayout;
+import consulo.webService.UserConfigurationService;
 import consulo.webService.plugins.PluginChannel;
 import consulo.webService.plugins.PluginChannelIterationService;
+import consulo.webService.plugins.pluginsState.PluginChannelJournal;
 import consulo.webService.ui.util.TinyComponents;
 import consulo.webService.ui.util.VaadinUIUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,12 +29,16 @@ public class AdminRepositoryView extends VerticalLayout implements View
 
 	private TaskExecutor myTaskExecutor;
 	private PluginChannelIterationService myPluginChannelIterationService;
+	private UserConfigurationService myUserConfigurationService;
+
+	private final VerticalLayout myJournalLayout;
 
 	@Autowired
-	public AdminRepositoryView(TaskExecutor taskExecutor, PluginChannelIterationService pluginChannelIterationService)
+	public AdminRepositoryView(TaskExecutor taskExecutor, PluginChannelIterationService pluginChannelIterationService, UserConfigurationService userConfigurationService)
 	{
 		myTaskExecutor = taskExecutor;
 		myPluginChannelIterationService = pluginChannelIterationService;
+		myUserConfigurationService = userConfigurationService;
 
 		setMargin(false);
 		setSpacing(false);
@@ -51,7 +57,35 @@ public class AdminRepositoryView extends VerticalLayout implements View
 		layout.addComponent(TinyComponents.newButton("beta " + rightArrow() + " release", event -> forceIterate(PluginChannel.beta, PluginChannel.release)));
 
 		addComponent(layout);
-		setExpandRatio(layout, 1);
+
+		Label journalLabel = new Label("Journal sync");
+		journalLabel.addStyleName("headerMargin");
+		addComponent(journalLabel);
+
+		myJournalLayout = new VerticalLayout();
+		myJournalLayout.setMargin(false);
+		myJournalLayout.addStyleName("bodyMargin");
+		addComponent(myJournalLayout);
+
+		setExpandRatio(myJournalLayout, 1);
+	}
+
+	private void updateJournalStatus()
+	{
+		myJournalLayout.removeAllComponents();
+
+		long time = System.currentTimeMillis();
+		for(PluginChannel channel : PluginChannel.values())
+		{
+			PluginChannelJournal journal = myUserConfigurationService.getRepositoryByChannel(channel).getJournal();
+			if(journal == null)
+			{
+				continue;
+			}
+
+			myJournalLayout.addComponent(TinyComponents.newLabel(channel + ": applied record " + journal.getAppliedSequence() + ", last apply delay " + journal.getLastApplyDelay() +
+					" ms, last sync " + (time - journal.getLastTailTime()) + " ms ago"));
+		}
 	}
 
 	@Nonnull
@@ -68,5 +102,6 @@ public class AdminRepositoryView extends VerticalLayout implements View
 	@Override
 	public void enter(ViewChangeListener.ViewChangeEvent event)
 	{
+		updateJournalStatus();
 	}
 }
@@ -0,0 +1,64 @@
+package consulo.webService.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * @since 18-Oct-26
+ */
+public class ETagUtil
+{
+	// generation counters are started from zero after each restart, instance id prevent etag collisions between restarts
+	private static final String ourInstanceId = Long.toHexString(System.currentTimeMillis());
+
+	@Nonnull
+	public static String build(long... generations)
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append('"').append(ourInstanceId);
+		for(long generation : generations)
+		{
+			builder.append('-').append(Long.toHexString(generation));
+		}
+		builder.append('"');
+		return builder.toString();
+	}
+
+	@Nonnull
+	public static String withSuffix(@Nonnull String eTag, @Nonnull String suffix)
+	{
+		return eTag.substring(0, eTag.length() - 1) + "-" + suffix + "\"";
+	}
+
+	/**
+	 * @param ifNoneMatch value of 'If-None-Match' header
+	 */
+	public static boolean matches(@Nullable String ifNoneMatch, @Nonnull String eTag)
+	{
+		if(ifNoneMatch == null)
+		{
+			return false;
+		}
+
+		for(String value : ifNoneMatch.split(","))
+		{
+			String tag = value.trim();
+			if(tag.equals("*"))
+			{
+				return true;
+			}
+
+			// If-None-Match use weak comparison
+			if(tag.startsWith("W/"))
+			{
+				tag = tag.substring(2);
+			}
+
+			if(tag.equals(eTag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
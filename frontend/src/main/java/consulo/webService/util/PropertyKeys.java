@@ -12,4 +12,27 @@ public interface PropertyKeys
 
 	String WORKING_DIRECTORY = "working.directory";
 	String DEPLOY_KEY = "deploy.key";
+
+	// header for reverse proxy offload of downloads, 'X-Accel-Redirect' for nginx, or 'X-Sendfile' for apache. Empty - disabled
+	String DOWNLOAD_OFFLOAD_HEADER = "download.offload.header";
+	// prefix of path relative to working directory, which send in offload header. For example '/internal/'
+	String DOWNLOAD_OFFLOAD_PREFIX = "download.offload.prefix";
+	// max size in megabytes of archives, which generated on first download (zip archives of windows platform). Empty - 4096
+	String DOWNLOAD_DERIVED_CACHE_SIZE = "download.derived.cache.size";
+
+	// count of threads for gzip compression of platform archives. Empty - one thread
+	String DEPLOY_GZIP_THREADS = "deploy.gzip.threads";
+	// count of threads, which execute deploy jobs. Empty - 2
+	String DEPLOY_JOB_WORKER_COUNT = "deploy.job.worker.count";
+	// max count of queued deploy jobs, after it new deploys are rejected. Empty - 32
+	String DEPLOY_JOB_MAX_QUEUED = "deploy.job.max.queued";
+
+	// max size in megabytes of extracted plugin libraries, which used by analyze of dependent plugins. Empty - 1024
+	String ANALYZE_LIBRARY_CACHE_SIZE = "analyze.library.cache.size";
+	// count of processes, which execute plugin code while analyze. 0 - plugin code is executed inside webservice. Empty - 2
+	String ANALYZE_WORKER_COUNT = "analyze.worker.count";
+	// max heap size in megabytes of analyze process. Empty - 512
+	String ANALYZE_WORKER_MEMORY = "analyze.worker.memory";
+	// max time in seconds of plugin analyze, after it process is killed. Empty - 60
+	String ANALYZE_WORKER_TIMEOUT = "analyze.worker.timeout";
 }
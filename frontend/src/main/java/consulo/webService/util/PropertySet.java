@@ -25,4 +25,22 @@ public class PropertySet
 		String property = myProperties.getProperty(name);
 		return Boolean.valueOf(property);
 	}
+
+	public int getIntProperty(String name, int defaultValue)
+	{
+		String property = myProperties.getProperty(name);
+		if(property == null)
+		{
+			return defaultValue;
+		}
+
+		try
+		{
+			return Integer.parseInt(property.trim());
+		}
+		catch(NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
 }
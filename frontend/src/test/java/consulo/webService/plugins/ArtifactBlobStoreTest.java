@@ -0,0 +1,105 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * @since 18-Oct-26
+ */
+public class ArtifactBlobStoreTest extends Assert
+{
+	private File myTempDir;
+	private ArtifactBlobStore myBlobStore;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+
+		myBlobStore = new ArtifactBlobStore(new File(myTempDir, ArtifactBlobStore.DIRECTORY_NAME));
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testSameContent() throws Exception
+	{
+		File first = write("release/consulo.java_1.zip", "plugin");
+		File second = write("alpha/consulo.java_1.zip", "plugin");
+
+		myBlobStore.add(first, "abcd");
+		myBlobStore.add(second, "abcd");
+
+		File blob = myBlobStore.getBlobFile("abcd");
+		assertEquals(new File(new File(myTempDir, ArtifactBlobStore.DIRECTORY_NAME), "ab/abcd"), blob);
+		assertTrue(Files.isSameFile(blob.toPath(), first.toPath()));
+		assertTrue(Files.isSameFile(blob.toPath(), second.toPath()));
+		assertEquals("plugin", read(second));
+
+		// adding again is not changing anything
+		myBlobStore.add(first, "abcd");
+		assertTrue(Files.isSameFile(blob.toPath(), first.toPath()));
+		assertFalse(new File(first.getParentFile(), first.getName() + ".link").exists());
+	}
+
+	@Test
+	public void testLink() throws Exception
+	{
+		File file = write("release/consulo.java_1.zip", "plugin");
+		myBlobStore.add(file, "abcd");
+
+		File target = new File(myTempDir, "nightly/consulo.java_1.zip");
+		FileUtil.createDirectory(target.getParentFile());
+
+		assertTrue(myBlobStore.link("abcd", target));
+		assertEquals("plugin", read(target));
+
+		// not existing blob
+		assertFalse(myBlobStore.link("ffff", new File(myTempDir, "nightly/other.zip")));
+		// target already exists
+		assertFalse(myBlobStore.link("abcd", target));
+	}
+
+	@Test
+	public void testCollectGarbage() throws Exception
+	{
+		File used = write("release/used.zip", "used");
+		File removed = write("release/removed.zip", "removed");
+
+		myBlobStore.add(used, "aaaa");
+		myBlobStore.add(removed, "bbbb");
+
+		FileUtil.delete(removed);
+
+		myBlobStore.collectGarbage();
+
+		assertTrue(myBlobStore.getBlobFile("aaaa").exists());
+		assertFalse(myBlobStore.getBlobFile("bbbb").exists());
+		assertEquals("used", read(used));
+	}
+
+	private File write(String path, String text) throws Exception
+	{
+		File file = new File(myTempDir, path);
+		FileUtil.createDirectory(file.getParentFile());
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws Exception
+	{
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
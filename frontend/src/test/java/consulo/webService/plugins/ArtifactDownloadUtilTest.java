@@ -0,0 +1,72 @@
+package consulo.webService.plugins;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @since 18-Oct-26
+ */
+public class ArtifactDownloadUtilTest extends Assert
+{
+	private static final long[] ourIgnored = new long[0];
+
+	@Test
+	public void testClosedRange()
+	{
+		assertArrayEquals(new long[]{0, 99}, ArtifactDownloadUtil.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[]{100, 100}, ArtifactDownloadUtil.parseRange("bytes=100-100", 1000));
+		assertArrayEquals(new long[]{10, 20}, ArtifactDownloadUtil.parseRange("bytes= 10 - 20 ", 1000));
+	}
+
+	@Test
+	public void testEndAfterLength()
+	{
+		assertArrayEquals(new long[]{900, 999}, ArtifactDownloadUtil.parseRange("bytes=900-5000", 1000));
+	}
+
+	@Test
+	public void testOpenRange()
+	{
+		assertArrayEquals(new long[]{500, 999}, ArtifactDownloadUtil.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[]{999, 999}, ArtifactDownloadUtil.parseRange("bytes=999-", 1000));
+	}
+
+	@Test
+	public void testSuffixRange()
+	{
+		assertArrayEquals(new long[]{900, 999}, ArtifactDownloadUtil.parseRange("bytes=-100", 1000));
+		// suffix longer than file - all file
+		assertArrayEquals(new long[]{0, 999}, ArtifactDownloadUtil.parseRange("bytes=-5000", 1000));
+	}
+
+	@Test
+	public void testUnsatisfiable()
+	{
+		assertNull(ArtifactDownloadUtil.parseRange("bytes=1000-", 1000));
+		assertNull(ArtifactDownloadUtil.parseRange("bytes=2000-3000", 1000));
+		assertNull(ArtifactDownloadUtil.parseRange("bytes=-0", 1000));
+		assertNull(ArtifactDownloadUtil.parseRange("bytes=0-", 0));
+		assertNull(ArtifactDownloadUtil.parseRange("bytes=-10", 0));
+	}
+
+	@Test
+	public void testMultiRangeFallback()
+	{
+		// multipart/byteranges is not supported, full file is sent
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=0-10,20-30", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=-10, 0-5", 1000));
+	}
+
+	@Test
+	public void testIgnored()
+	{
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("items=0-10", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=10", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=a-b", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=-", 1000));
+		// last position before first
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=20-10", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=5-3", 1000));
+		assertArrayEquals(ourIgnored, ArtifactDownloadUtil.parseRange("bytes=2000-1000", 1000));
+	}
+}
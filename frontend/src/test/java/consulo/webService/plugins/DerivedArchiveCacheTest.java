@@ -0,0 +1,214 @@
+package consulo.webService.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ThrowableConsumer;
+
+/**
+ * @since 18-Oct-26
+ */
+public class DerivedArchiveCacheTest extends Assert
+{
+	private File myTempDir;
+	private File myRoot;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+
+		myRoot = new File(myTempDir, DerivedArchiveCache.DIRECTORY_NAME);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testGenerateOnce() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> Long.MAX_VALUE);
+
+		AtomicInteger count = new AtomicInteger();
+		File first = get(cache, "key", "consulo.zip", file -> write(file, 10, count));
+		File second = get(cache, "key", "consulo.zip", file -> fail());
+
+		assertEquals(first, second);
+		assertEquals("consulo.zip", first.getName());
+		assertEquals(1, count.get());
+		assertEquals(10, first.length());
+	}
+
+	@Test
+	public void testConcurrentGeneration() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> Long.MAX_VALUE);
+
+		AtomicInteger count = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<File>> futures = new ArrayList<>();
+			futures.add(executor.submit(() -> get(cache, "key", "consulo.zip", file ->
+			{
+				started.countDown();
+				assertTrue(release.await(10, TimeUnit.SECONDS));
+				write(file, 10, count);
+			})));
+
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			for(int i = 0; i < 3; i++)
+			{
+				futures.add(executor.submit(() -> get(cache, "key", "consulo.zip", file -> write(file, 10, count))));
+			}
+
+			release.countDown();
+
+			for(Future<File> future : futures)
+			{
+				assertEquals(10, future.get(10, TimeUnit.SECONDS).length());
+			}
+			assertEquals(1, count.get());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailedGeneration() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> Long.MAX_VALUE);
+
+		try
+		{
+			get(cache, "key", "consulo.zip", file ->
+			{
+				Files.write(file.toPath(), new byte[5]);
+				throw new IOException("broken");
+			});
+			fail();
+		}
+		catch(IOException e)
+		{
+			assertEquals("broken", e.getMessage());
+		}
+
+		// temp file is deleted, next request generates again
+		assertFalse(new File(myRoot, "key/consulo.zip.tmp").exists());
+		assertFalse(new File(myRoot, "key/consulo.zip").exists());
+
+		AtomicInteger count = new AtomicInteger();
+		get(cache, "key", "consulo.zip", file -> write(file, 10, count));
+		assertEquals(1, count.get());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> 25, 0);
+
+		AtomicInteger count = new AtomicInteger();
+		File first = get(cache, "first", "first.zip", file -> write(file, 10, count));
+		File second = get(cache, "second", "second.zip", file -> write(file, 10, count));
+
+		// first is used after second
+		get(cache, "first", "first.zip", file -> fail());
+
+		File third = get(cache, "third", "third.zip", file -> write(file, 10, count));
+
+		assertTrue(first.exists());
+		assertFalse(second.exists());
+		assertTrue(third.exists());
+	}
+
+	@Test
+	public void testArchiveInUseIsNotEvicted() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> 15, 0);
+
+		AtomicInteger count = new AtomicInteger();
+		DerivedArchiveCache.Archive first = cache.acquire("first", "first.zip", file -> write(file, 10, count));
+
+		File second = get(cache, "second", "second.zip", file -> write(file, 10, count));
+
+		// first is sending, cache is larger than max size
+		assertTrue(first.getFile().exists());
+		assertTrue(second.exists());
+
+		first.close();
+
+		File third = get(cache, "third", "third.zip", file -> write(file, 10, count));
+
+		assertFalse(first.getFile().exists());
+		assertFalse(second.exists());
+		assertTrue(third.exists());
+	}
+
+	@Test
+	public void testReleasedArchiveIsNotEvictedBeforeDelay() throws Exception
+	{
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> 15, TimeUnit.MINUTES.toMillis(1));
+
+		AtomicInteger count = new AtomicInteger();
+		File first = get(cache, "first", "first.zip", file -> write(file, 10, count));
+		File second = get(cache, "second", "second.zip", file -> write(file, 10, count));
+
+		// file can be still opened by reverse proxy
+		assertTrue(first.exists());
+		assertTrue(second.exists());
+	}
+
+	@Test
+	public void testLoadAfterRestart() throws Exception
+	{
+		AtomicInteger count = new AtomicInteger();
+		get(new DerivedArchiveCache(myRoot, () -> Long.MAX_VALUE), "key", "consulo.zip", file -> write(file, 10, count));
+
+		// not finished generation
+		File tempFile = new File(myRoot, "broken/consulo.zip.tmp");
+		FileUtil.createDirectory(tempFile.getParentFile());
+		Files.write(tempFile.toPath(), new byte[5]);
+
+		DerivedArchiveCache cache = new DerivedArchiveCache(myRoot, () -> Long.MAX_VALUE);
+		get(cache, "key", "consulo.zip", file -> fail());
+
+		assertFalse(tempFile.getParentFile().exists());
+	}
+
+	private static File get(DerivedArchiveCache cache, String key, String fileName, ThrowableConsumer<File, Exception> generator) throws Exception
+	{
+		try (DerivedArchiveCache.Archive archive = cache.acquire(key, fileName, generator))
+		{
+			return archive.getFile();
+		}
+	}
+
+	private static void write(File file, int size, AtomicInteger count) throws IOException
+	{
+		count.incrementAndGet();
+		Files.write(file.toPath(), new byte[size]);
+	}
+}
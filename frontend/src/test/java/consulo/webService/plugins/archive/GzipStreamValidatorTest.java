@@ -0,0 +1,260 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @since 18-Oct-26
+ */
+public class GzipStreamValidatorTest extends Assert
+{
+	@Test
+	public void testAllSplits() throws Exception
+	{
+		byte[] gzip = gzip("consulo.java plugin".getBytes(StandardCharsets.UTF_8));
+
+		// split inside header, body and trailer
+		for(int split = 0; split <= gzip.length; split++)
+		{
+			GzipStreamValidator validator = new GzipStreamValidator();
+			validator.update(gzip, 0, split);
+			validator.update(gzip, split, gzip.length - split);
+			assertTrue("split: " + split, validator.isComplete());
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void testByteByByte() throws Exception
+	{
+		assertComplete(gzip(randomBytes(10000, 1)), 1);
+	}
+
+	@Test
+	public void testRandomChunks() throws Exception
+	{
+		byte[] gzip = gzip(randomBytes(300 * 1024, 2));
+
+		Random random = new Random(3);
+		for(int i = 0; i < 20; i++)
+		{
+			GzipStreamValidator validator = new GzipStreamValidator();
+			int offset = 0;
+			while(offset < gzip.length)
+			{
+				int length = Math.min(gzip.length - offset, 1 + random.nextInt(100 * 1024));
+				validator.update(gzip, offset, length);
+				offset += length;
+			}
+			assertTrue(validator.isComplete());
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void testEmptyData() throws Exception
+	{
+		assertComplete(gzip(new byte[0]), 1);
+	}
+
+	@Test
+	public void testNoData()
+	{
+		GzipStreamValidator validator = new GzipStreamValidator();
+		assertFalse(validator.isComplete());
+		validator.dispose();
+	}
+
+	@Test
+	public void testManyMembers() throws Exception
+	{
+		byte[] first = gzip("first".getBytes(StandardCharsets.UTF_8));
+		byte[] second = gzip(randomBytes(1000, 4));
+
+		byte[] gzip = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, gzip, first.length, second.length);
+
+		assertComplete(gzip, 1);
+		assertComplete(gzip, 7);
+	}
+
+	@Test
+	public void testHeaderFields() throws Exception
+	{
+		byte[] data = "consulo".getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		// FHCRC | FEXTRA | FNAME | FCOMMENT
+		stream.write(new byte[]{0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+		// extra field: length 3
+		stream.write(new byte[]{3, 0, 'a', 'b', 'c'});
+		stream.write("consulo.tar\0".getBytes(StandardCharsets.UTF_8));
+		stream.write("comment\0".getBytes(StandardCharsets.UTF_8));
+		// header crc is not checked
+		stream.write(new byte[]{0, 0});
+		stream.write(deflate(data));
+		writeTrailer(stream, data);
+
+		byte[] gzip = stream.toByteArray();
+		for(int split = 0; split <= gzip.length; split++)
+		{
+			GzipStreamValidator validator = new GzipStreamValidator();
+			validator.update(gzip, 0, split);
+			validator.update(gzip, split, gzip.length - split);
+			assertTrue("split: " + split, validator.isComplete());
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void testTruncated() throws Exception
+	{
+		byte[] gzip = gzip(randomBytes(5000, 5));
+
+		// inside trailer, body and header
+		for(int length : new int[]{gzip.length - 1, gzip.length - 4, gzip.length - 8, gzip.length / 2, 12, 5, 1})
+		{
+			GzipStreamValidator validator = new GzipStreamValidator();
+			validator.update(gzip, 0, length);
+			assertFalse("length: " + length, validator.isComplete());
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void testBadCrc() throws Exception
+	{
+		byte[] gzip = gzip(randomBytes(5000, 6));
+		gzip[gzip.length - 8] ^= 1;
+
+		assertBroken(gzip, "crc mismatch");
+	}
+
+	@Test
+	public void testBadSize() throws Exception
+	{
+		byte[] gzip = gzip(randomBytes(5000, 7));
+		gzip[gzip.length - 1] ^= 1;
+
+		assertBroken(gzip, "size mismatch");
+	}
+
+	@Test
+	public void testBadData() throws Exception
+	{
+		byte[] gzip = gzip(randomBytes(5000, 8));
+		// stored block header: 'block type 3' is reserved
+		gzip[10] = (byte) 0xff;
+
+		assertBroken(gzip, "Bad gzip data");
+	}
+
+	@Test
+	public void testNotGzip() throws Exception
+	{
+		assertBroken("PK\3\4".getBytes(StandardCharsets.UTF_8), "not gzip stream");
+		assertBroken(new byte[]{0x1f, (byte) 0x8b, 7}, "unsupported compression method");
+	}
+
+	@Test
+	public void testGarbageAfterMember() throws Exception
+	{
+		byte[] gzip = gzip("consulo".getBytes(StandardCharsets.UTF_8));
+		byte[] data = Arrays.copyOf(gzip, gzip.length + 1);
+		data[gzip.length] = 'x';
+
+		assertBroken(data, "not gzip stream");
+	}
+
+	private static void assertComplete(byte[] gzip, int chunkSize) throws IOException
+	{
+		GzipStreamValidator validator = new GzipStreamValidator();
+		for(int offset = 0; offset < gzip.length; offset += chunkSize)
+		{
+			validator.update(gzip, offset, Math.min(chunkSize, gzip.length - offset));
+		}
+		assertTrue(validator.isComplete());
+		validator.dispose();
+	}
+
+	private static void assertBroken(byte[] data, String message)
+	{
+		// error must be detected for any split
+		for(int split = 0; split <= data.length; split += Math.max(1, data.length / 50))
+		{
+			GzipStreamValidator validator = new GzipStreamValidator();
+			try
+			{
+				validator.update(data, 0, split);
+				validator.update(data, split, data.length - split);
+				fail("split: " + split);
+			}
+			catch(IOException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains(message));
+			}
+			finally
+			{
+				validator.dispose();
+			}
+		}
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (GZIPOutputStream stream = new GZIPOutputStream(result))
+		{
+			stream.write(data);
+		}
+		return result.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		while(!deflater.finished())
+		{
+			result.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		return result.toByteArray();
+	}
+
+	private static void writeTrailer(ByteArrayOutputStream stream, byte[] data)
+	{
+		CRC32 crc32 = new CRC32();
+		crc32.update(data);
+		writeIntLE(stream, (int) crc32.getValue());
+		writeIntLE(stream, data.length);
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream stream, int value)
+	{
+		stream.write(value & 0xff);
+		stream.write((value >> 8) & 0xff);
+		stream.write((value >> 16) & 0xff);
+		stream.write((value >> 24) & 0xff);
+	}
+
+	private static byte[] randomBytes(int size, long seed)
+	{
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+}
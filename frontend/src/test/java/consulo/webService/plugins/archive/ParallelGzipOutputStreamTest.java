@@ -0,0 +1,174 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @since 18-Oct-26
+ */
+public class ParallelGzipOutputStreamTest extends Assert
+{
+	// same as in ParallelGzipOutputStream
+	private static final int ourBlockSize = 128 * 1024;
+
+	@Test
+	public void testEmpty() throws Exception
+	{
+		assertRoundTrip(new byte[0], 1, Integer.MAX_VALUE);
+		assertRoundTrip(new byte[0], 4, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testSmall() throws Exception
+	{
+		assertRoundTrip(randomBytes(1, 1), 1, Integer.MAX_VALUE);
+		assertRoundTrip(randomBytes(100, 2), 4, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testBlockBoundaries() throws Exception
+	{
+		int[] sizes = {
+				ourBlockSize - 1,
+				ourBlockSize,
+				ourBlockSize + 1,
+				2 * ourBlockSize,
+				2 * ourBlockSize + 1
+		};
+
+		for(int size : sizes)
+		{
+			assertRoundTrip(randomBytes(size, size), 2, Integer.MAX_VALUE);
+			assertRoundTrip(textBytes(size), 2, Integer.MAX_VALUE);
+		}
+	}
+
+	@Test
+	public void testLargerThanThreadsBlocks() throws Exception
+	{
+		int threads = 3;
+		// more blocks than queue limit (threads * 2), last block is not full
+		int size = threads * ourBlockSize * 3 + 12345;
+
+		assertRoundTrip(randomBytes(size, 3), threads, Integer.MAX_VALUE);
+		assertRoundTrip(textBytes(size), threads, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testSmallWrites() throws Exception
+	{
+		// writes are not aligned to blocks
+		assertRoundTrip(textBytes(2 * ourBlockSize + 7), 2, 1000);
+		assertRoundTrip(randomBytes(ourBlockSize + 3, 4), 2, 1);
+	}
+
+	@Test
+	public void testSingleMember() throws Exception
+	{
+		byte[] data = textBytes(3 * ourBlockSize);
+		byte[] compressed = compress(data, 4, Integer.MAX_VALUE);
+
+		// header, without optional fields
+		assertEquals((byte) 0x1f, compressed[0]);
+		assertEquals((byte) 0x8b, compressed[1]);
+		assertEquals(8, compressed[2]);
+		assertEquals(0, compressed[3]);
+
+		// trailer: size of input
+		int length = compressed.length;
+		int size = (compressed[length - 4] & 0xff) | (compressed[length - 3] & 0xff) << 8 | (compressed[length - 2] & 0xff) << 16 | (compressed[length - 1] & 0xff) << 24;
+		assertEquals(data.length, size);
+
+		// text is compressed well, because previous block is used as dictionary
+		assertTrue(compressed.length < data.length / 4);
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteAfterFinish() throws Exception
+	{
+		ParallelGzipOutputStream stream = new ParallelGzipOutputStream(new ByteArrayOutputStream(), 2);
+		try
+		{
+			stream.finish();
+			stream.write(1);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreads() throws Exception
+	{
+		new ParallelGzipOutputStream(new ByteArrayOutputStream(), 0);
+	}
+
+	private static void assertRoundTrip(byte[] data, int threads, int writeSize) throws IOException
+	{
+		byte[] compressed = compress(data, threads, writeSize);
+
+		assertArrayEquals(data, decompress(compressed));
+	}
+
+	private static byte[] compress(byte[] data, int threads, int writeSize) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (ParallelGzipOutputStream stream = new ParallelGzipOutputStream(result, threads))
+		{
+			for(int offset = 0; offset < data.length; offset += writeSize)
+			{
+				int length = Math.min(writeSize, data.length - offset);
+				if(length == 1)
+				{
+					stream.write(data[offset]);
+				}
+				else
+				{
+					stream.write(data, offset, length);
+				}
+			}
+		}
+		return result.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(compressed)))
+		{
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = stream.read(buffer)) > 0)
+			{
+				result.write(buffer, 0, count);
+			}
+		}
+		return result.toByteArray();
+	}
+
+	private static byte[] randomBytes(int size, long seed)
+	{
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] textBytes(int size)
+	{
+		byte[] bytes = new byte[size];
+		byte[] line = "<extension implementation=\"consulo.java.JavaFileTypeFactory\"/>\n".getBytes();
+		for(int i = 0; i < size; i++)
+		{
+			bytes[i] = line[i % line.length];
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,135 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PluginZipArchiveTest extends Assert
+{
+	private static final byte[] ourDescriptor = "<idea-plugin><id>consulo.java</id></idea-plugin>".getBytes(StandardCharsets.UTF_8);
+
+	private File myTempDir;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testDescriptorInJar() throws Exception
+	{
+		File file = createZip("consulo.java/lib/consulo.java.jar", createJar(), "consulo.java/lib/other.jar", createJar("other.txt", new byte[1]));
+
+		try (PluginZipArchive archive = new PluginZipArchive(file))
+		{
+			assertEquals(Collections.singletonList("consulo.java/"), archive.findPluginDirectories());
+
+			File pluginDirectory = new File(myTempDir, "consulo.java");
+			archive.extractLibraries("consulo.java/", pluginDirectory);
+
+			assertTrue(new File(pluginDirectory, "lib/consulo.java.jar").exists());
+			assertTrue(new File(pluginDirectory, "lib/other.jar").exists());
+			assertFalse(new File(pluginDirectory, PluginZipArchive.PLUGIN_XML_PATH).exists());
+		}
+	}
+
+	@Test
+	public void testDescriptorInDirectory() throws Exception
+	{
+		File file = createZip("consulo.java/META-INF/plugin.xml", ourDescriptor, "consulo.java/lib/other.jar", createJar("other.txt", new byte[1]), "consulo.java/readme.txt",
+				new byte[1]);
+
+		try (PluginZipArchive archive = new PluginZipArchive(file))
+		{
+			assertEquals(Collections.singletonList("consulo.java/"), archive.findPluginDirectories());
+
+			File pluginDirectory = new File(myTempDir, "consulo.java");
+			archive.extractLibraries("consulo.java/", pluginDirectory);
+
+			assertArrayEquals(ourDescriptor, Files.readAllBytes(new File(pluginDirectory, PluginZipArchive.PLUGIN_XML_PATH).toPath()));
+			assertTrue(new File(pluginDirectory, "lib/other.jar").exists());
+			assertFalse(new File(pluginDirectory, "readme.txt").exists());
+		}
+	}
+
+	@Test
+	public void testNotPluginDirectories() throws Exception
+	{
+		File file = createZip("META-INF/plugin.xml", ourDescriptor, "../lib/consulo.java.jar", createJar(), "consulo.java/lib/nested/consulo.java.jar", createJar(),
+				"other/lib/other.jar", createJar("other.txt", new byte[1]));
+
+		try (PluginZipArchive archive = new PluginZipArchive(file))
+		{
+			assertEquals(Collections.emptyList(), archive.findPluginDirectories());
+		}
+	}
+
+	@Test
+	public void testSeveralPlugins() throws Exception
+	{
+		File file = createZip("consulo.java/lib/consulo.java.jar", createJar(), "consulo.xml/META-INF/plugin.xml", ourDescriptor);
+
+		try (PluginZipArchive archive = new PluginZipArchive(file))
+		{
+			assertEquals(Arrays.asList("consulo.java/", "consulo.xml/"), archive.findPluginDirectories());
+		}
+	}
+
+	private static byte[] createJar() throws Exception
+	{
+		return createJar(PluginZipArchive.PLUGIN_XML_PATH, ourDescriptor);
+	}
+
+	private static byte[] createJar(String name, byte[] content) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream stream = new ZipOutputStream(bytes))
+		{
+			stream.putNextEntry(new ZipEntry(name));
+			stream.write(content);
+			stream.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param entries pairs of entry name and content
+	 */
+	private File createZip(Object... entries) throws Exception
+	{
+		File file = new File(myTempDir, "plugin.zip");
+		try (ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(file)))
+		{
+			for(int i = 0; i < entries.length; i += 2)
+			{
+				stream.putNextEntry(new ZipEntry((String) entries[i]));
+				stream.write((byte[]) entries[i + 1]);
+				stream.closeEntry();
+			}
+		}
+		return file;
+	}
+}
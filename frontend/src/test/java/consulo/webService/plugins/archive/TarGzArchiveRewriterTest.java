@@ -0,0 +1,192 @@
+package consulo.webService.plugins.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * @since 18-Oct-26
+ */
+public class TarGzArchiveRewriterTest extends Assert
+{
+	private File myTempDir;
+
+	private final Map<String, byte[]> mySourceEntries = new LinkedHashMap<>();
+	private File mySource;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+
+		byte[] jar = new byte[300 * 1024];
+		new Random(1).nextBytes(jar);
+
+		mySourceEntries.put("consulo.java/META-INF/plugin.xml", "<idea-plugin><id>consulo.java</id></idea-plugin>".getBytes(StandardCharsets.UTF_8));
+		// larger than chunk of rewriter, and block of parallel gzip
+		mySourceEntries.put("consulo.java/lib/consulo.java.jar", jar);
+		mySourceEntries.put("consulo.java/lib/removed.jar", new byte[]{1, 2, 3});
+		mySourceEntries.put("consulo.java/replaced.txt", "old".getBytes(StandardCharsets.UTF_8));
+		mySourceEntries.put("consulo.java/empty.txt", new byte[0]);
+
+		mySource = new File(myTempDir, "source.tar.gz");
+		try (TarArchiveOutputStream stream = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(mySource))))
+		{
+			// directories are not copied
+			stream.putArchiveEntry(new TarArchiveEntry("consulo.java/"));
+			stream.closeArchiveEntry();
+
+			for(Map.Entry<String, byte[]> entry : mySourceEntries.entrySet())
+			{
+				TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+				tarEntry.setSize(entry.getValue().length);
+				stream.putArchiveEntry(tarEntry);
+				stream.write(entry.getValue());
+				stream.closeArchiveEntry();
+			}
+		}
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testRewrite() throws Exception
+	{
+		assertRewrite(1);
+	}
+
+	@Test
+	public void testRewriteParallelGzip() throws Exception
+	{
+		assertRewrite(3);
+	}
+
+	@Test
+	public void testNoChanges() throws Exception
+	{
+		File tarGz = new File(myTempDir, "target.tar.gz");
+
+		new TarGzArchiveRewriter().rewrite(mySource, Arrays.asList(Pair.create(tarGz, ArchiveStreamFactory.TAR)));
+
+		assertEntriesEquals(mySourceEntries, readTarGz(tarGz));
+	}
+
+	@Test(expected = IOException.class)
+	public void testBrokenSource() throws Exception
+	{
+		File source = new File(myTempDir, "broken.tar.gz");
+		try (FileOutputStream stream = new FileOutputStream(source))
+		{
+			stream.write("not gzip".getBytes(StandardCharsets.UTF_8));
+		}
+
+		new TarGzArchiveRewriter().rewrite(source, Arrays.asList(Pair.create(new File(myTempDir, "target.tar.gz"), ArchiveStreamFactory.TAR)));
+	}
+
+	private void assertRewrite(int gzipThreads) throws Exception
+	{
+		TarGzArchiveRewriter rewriter = new TarGzArchiveRewriter();
+		rewriter.setGzipThreads(gzipThreads);
+		rewriter.removeEntry("consulo.java/lib/removed.jar");
+		rewriter.putEntry("consulo.java/replaced.txt", "new".getBytes(StandardCharsets.UTF_8));
+		rewriter.putEntry("consulo.java/added.txt", "added".getBytes(StandardCharsets.UTF_8));
+
+		File tarGz = new File(myTempDir, "target.tar.gz");
+		File zip = new File(myTempDir, "target.zip");
+		rewriter.rewrite(mySource, Arrays.asList(Pair.create(tarGz, ArchiveStreamFactory.TAR), Pair.create(zip, ArchiveStreamFactory.ZIP)));
+
+		Map<String, byte[]> expected = new LinkedHashMap<>(mySourceEntries);
+		expected.remove("consulo.java/lib/removed.jar");
+		// new entries are written after entries of original archive
+		expected.remove("consulo.java/replaced.txt");
+		expected.put("consulo.java/replaced.txt", "new".getBytes(StandardCharsets.UTF_8));
+		expected.put("consulo.java/added.txt", "added".getBytes(StandardCharsets.UTF_8));
+
+		assertEntriesEquals(expected, readTarGz(tarGz));
+		assertEntriesEquals(expected, readZip(zip));
+	}
+
+	private static void assertEntriesEquals(Map<String, byte[]> expected, Map<String, byte[]> actual)
+	{
+		assertEquals(Arrays.asList(expected.keySet().toArray()), Arrays.asList(actual.keySet().toArray()));
+
+		for(Map.Entry<String, byte[]> entry : expected.entrySet())
+		{
+			assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	private static Map<String, byte[]> readTarGz(File file) throws IOException
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (TarArchiveInputStream stream = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(file))))
+		{
+			TarArchiveEntry entry;
+			while((entry = stream.getNextTarEntry()) != null)
+			{
+				assertFalse(entry.isDirectory());
+				entries.put(entry.getName(), readAll(stream));
+			}
+		}
+		return entries;
+	}
+
+	private static Map<String, byte[]> readZip(File file) throws IOException
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipFile zipFile = new ZipFile(file))
+		{
+			Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+			while(enumeration.hasMoreElements())
+			{
+				ZipEntry entry = enumeration.nextElement();
+				try (InputStream stream = zipFile.getInputStream(entry))
+				{
+					entries.put(entry.getName(), readAll(stream));
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static byte[] readAll(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while((count = stream.read(buffer)) > 0)
+		{
+			result.write(buffer, 0, count);
+		}
+		return result.toByteArray();
+	}
+}
@@ -0,0 +1,187 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PlatformVersionIndexTest extends Assert
+{
+	@Test
+	public void testParseBuild()
+	{
+		assertEquals(1554, PlatformVersionIndex.parseBuild("1554"));
+		assertEquals(0, PlatformVersionIndex.parseBuild("0"));
+		assertEquals(999999999, PlatformVersionIndex.parseBuild("999999999"));
+
+		assertEquals(-1, PlatformVersionIndex.parseBuild(""));
+		assertEquals(-1, PlatformVersionIndex.parseBuild("01554"));
+		assertEquals(-1, PlatformVersionIndex.parseBuild("1234567890"));
+		assertEquals(-1, PlatformVersionIndex.parseBuild("12a"));
+		assertEquals(-1, PlatformVersionIndex.parseBuild("-1"));
+		assertEquals(-1, PlatformVersionIndex.parseBuild("SNAPSHOT"));
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.empty();
+
+		assertEquals(0, index.size());
+		assertNull(index.last());
+		assertNull(index.get("1554"));
+		assertNull(index.get("abc"));
+		assertTrue(index.values().isEmpty());
+	}
+
+	@Test
+	public void testOrder()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.<String>empty().with(map("30", "c", "abc", "x", "10", "a", "01", "y", "20", "b"));
+
+		assertEquals(5, index.size());
+		// non numeric versions are before builds
+		assertEquals(Arrays.asList("y", "x", "a", "b", "c"), index.values());
+		assertEquals(Arrays.asList("01", "abc", "10", "20", "30"), new ArrayList<>(index.asNavigableMap(Function.identity()).keySet()));
+
+		assertEquals("c", index.last());
+		assertEquals("a", index.get("10"));
+		assertEquals("y", index.get("01"));
+		assertNull(index.get("1"));
+		assertNull(index.get("15"));
+	}
+
+	@Test
+	public void testLastWithoutBuilds()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.<String>empty().with(map("b", "2", "a", "1"));
+
+		assertEquals("2", index.last());
+	}
+
+	@Test
+	public void testChangeAndRemove()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.<String>empty().with(map("10", "a", "20", "b", "30", "c", "abc", "x"));
+
+		PlatformVersionIndex<String> changed = index.with(map("20", null, "10", "a2", "25", "d", "abc", null));
+
+		assertEquals(Arrays.asList("a2", "d", "c"), changed.values());
+		assertNull(changed.get("20"));
+		assertNull(changed.get("abc"));
+
+		// index is immutable
+		assertEquals(Arrays.asList("x", "a", "b", "c"), index.values());
+		assertSame(index, index.with(Collections.emptyMap()));
+	}
+
+	@Test
+	public void testRemoveAll()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.<String>empty().with(map("10", "a", "abc", "x"));
+
+		PlatformVersionIndex<String> changed = index.with(map("10", null, "abc", null));
+
+		assertEquals(0, changed.size());
+		assertNull(changed.last());
+	}
+
+	@Test
+	public void testViewIsMapped()
+	{
+		PlatformVersionIndex<String> index = PlatformVersionIndex.<String>empty().with(map("10", "a", "abc", "x"));
+
+		NavigableMap<String, String> view = index.asNavigableMap(String::toUpperCase);
+		assertEquals("A", view.get("10"));
+		assertEquals("X", view.get("abc"));
+
+		// each mapper has own view
+		assertEquals("a", index.asNavigableMap(Function.identity()).get("10"));
+
+		try
+		{
+			view.put("20", "B");
+			fail();
+		}
+		catch(UnsupportedOperationException ignored)
+		{
+		}
+	}
+
+	@Test
+	public void testSameAsTreeMap()
+	{
+		Random random = new Random(42);
+
+		TreeMap<String, Integer> expected = new TreeMap<>(PlatformVersionIndexTest::compareVersions);
+		PlatformVersionIndex<Integer> index = PlatformVersionIndex.empty();
+
+		for(int i = 0; i < 500; i++)
+		{
+			Map<String, Integer> changes = new HashMap<>();
+			int count = 1 + random.nextInt(5);
+			for(int j = 0; j < count; j++)
+			{
+				String platformVersion = random.nextInt(10) == 0 ? "v" + random.nextInt(5) : String.valueOf(random.nextInt(200));
+				Integer value = random.nextInt(4) == 0 ? null : random.nextInt();
+				changes.put(platformVersion, value);
+			}
+
+			for(Map.Entry<String, Integer> entry : changes.entrySet())
+			{
+				if(entry.getValue() == null)
+				{
+					expected.remove(entry.getKey());
+				}
+				else
+				{
+					expected.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			index = index.with(changes);
+
+			assertEquals(expected, index.asNavigableMap(Function.identity()));
+			assertEquals(new ArrayList<>(expected.values()), index.values());
+			assertEquals(expected.size(), index.size());
+			assertEquals(expected.isEmpty() ? null : expected.lastEntry().getValue(), index.last());
+		}
+	}
+
+	private static int compareVersions(String o1, String o2)
+	{
+		boolean build1 = o1.matches("[1-9][0-9]*|0");
+		boolean build2 = o2.matches("[1-9][0-9]*|0");
+		if(build1 && build2)
+		{
+			return Integer.compare(Integer.parseInt(o1), Integer.parseInt(o2));
+		}
+		if(build1 != build2)
+		{
+			return build1 ? 1 : -1;
+		}
+		return o1.compareTo(o2);
+	}
+
+	private static Map<String, String> map(String... keyValues)
+	{
+		Map<String, String> map = new HashMap<>();
+		for(int i = 0; i < keyValues.length; i += 2)
+		{
+			map.put(keyValues[i], keyValues[i + 1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,251 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.plugins.PluginNode;
+import consulo.webService.util.GsonUtil;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PluginChannelIndexTest extends Assert
+{
+	private File myTempDir;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		PluginNode fullNode = new PluginNode();
+		fullNode.id = "consulo.java";
+		fullNode.name = "Java";
+		fullNode.description = "Java ж support";
+		fullNode.category = "Custom Languages";
+		fullNode.vendor = "consulo.io";
+		fullNode.version = "1554";
+		fullNode.platformVersion = "1554";
+		fullNode.iconBytes = "iVBORw0KGgo=";
+		fullNode.date = 1539820800000L;
+		fullNode.rating = 5;
+		fullNode.length = 4096L;
+		fullNode.dependencies = new String[]{"com.intellij.xml", "consulo.java.base"};
+		fullNode.optionalDependencies = new String[]{"org.jetbrains.idea.maven"};
+		fullNode.extensions = new PluginNode.Extension[]{extension("com.intellij.fileTypeFactory", "java", "class")};
+		fullNode.extensionsV2 = new PluginNode.Extension[]{extension("com.intellij.moduleExtensionProvider", "java")};
+		fullNode.experimental = true;
+		fullNode.checksum = new PluginNode.Checksum();
+		fullNode.checksum.sha_256 = "abcdef";
+		fullNode.checksum.upload_sha_256 = "012345";
+
+		// only required fields
+		PluginNode emptyNode = new PluginNode();
+		emptyNode.id = "consulo.empty";
+		emptyNode.version = "1";
+		emptyNode.platformVersion = "SNAPSHOT";
+		emptyNode.length = 1L;
+
+		Map<String, PluginChannelIndex.Directory> directories = new HashMap<>();
+		directories.put("consulo.java", new PluginChannelIndex.Directory(42L, Arrays.asList(Pair.create(fullNode, new File(myTempDir, "consulo.java/consulo.java_1554.zip")))));
+		directories.put("consulo.empty", new PluginChannelIndex.Directory(43L, Arrays.asList(Pair.create(emptyNode, new File(myTempDir, "consulo.empty/consulo.empty_1.zip")))));
+		directories.put("consulo.nothing", new PluginChannelIndex.Directory(44L, new ArrayList<>()));
+
+		PluginChannelIndex index = new PluginChannelIndex(myTempDir);
+		index.write(17, directories);
+
+		assertEquals(17, index.readJournalSequence());
+
+		PluginChannelIndex.Content content = index.read();
+		assertNotNull(content);
+		assertEquals(17, content.myJournalSequence);
+		assertEquals(directories.keySet(), content.myDirectories.keySet());
+
+		PluginChannelIndex.Directory javaDirectory = content.myDirectories.get("consulo.java");
+		assertEquals(42L, javaDirectory.myLastModified);
+		assertEquals(1, javaDirectory.myNodes.size());
+		assertEquals(new File(new File(myTempDir, "consulo.java"), "consulo.java_1554.zip"), javaDirectory.myNodes.get(0).getSecond());
+		assertNodeEquals(fullNode, javaDirectory.myNodes.get(0).getFirst());
+
+		PluginChannelIndex.Directory emptyDirectory = content.myDirectories.get("consulo.empty");
+		assertEquals(43L, emptyDirectory.myLastModified);
+		assertNodeEquals(emptyNode, emptyDirectory.myNodes.get(0).getFirst());
+
+		PluginChannelIndex.Directory nothingDirectory = content.myDirectories.get("consulo.nothing");
+		assertEquals(44L, nothingDirectory.myLastModified);
+		assertTrue(nothingDirectory.myNodes.isEmpty());
+
+		// rewrite replace old index
+		index.write(18, new HashMap<>());
+		content = index.read();
+		assertNotNull(content);
+		assertEquals(18, content.myJournalSequence);
+		assertTrue(content.myDirectories.isEmpty());
+		assertFalse(new File(myTempDir, PluginChannelIndex.FILE_NAME + ".tmp").exists());
+	}
+
+	@Test
+	public void testUploadChecksumOnlyInIndex() throws Exception
+	{
+		PluginNode node = new PluginNode();
+		node.id = "consulo.java";
+		node.version = "1";
+		node.platformVersion = "1554";
+		node.length = 1L;
+		node.checksum = new PluginNode.Checksum();
+		node.checksum.sha_256 = "abcdef";
+		node.checksum.upload_sha_256 = "012345";
+
+		// json is used by api and meta files
+		String json = GsonUtil.get().toJson(node);
+		assertTrue(json.contains("abcdef"));
+		assertFalse(json.contains("012345"));
+
+		PluginChannelIndex index = new PluginChannelIndex(myTempDir);
+		index.write(1, Collections.singletonMap("consulo.java", new PluginChannelIndex.Directory(1L, Arrays.asList(Pair.create(node, new File(myTempDir, "consulo.java_1.zip"))))));
+
+		PluginChannelIndex.Content content = index.read();
+		assertNotNull(content);
+		assertEquals("012345", content.myDirectories.get("consulo.java").myNodes.get(0).getFirst().checksum.upload_sha_256);
+	}
+
+	@Test
+	public void testNotExists()
+	{
+		PluginChannelIndex index = new PluginChannelIndex(myTempDir);
+
+		assertNull(index.read());
+		assertEquals(-1, index.readJournalSequence());
+	}
+
+	@Test
+	public void testTruncated() throws Exception
+	{
+		PluginNode node = new PluginNode();
+		node.id = "consulo.java";
+		node.version = "1";
+		node.platformVersion = "1554";
+		node.length = 1L;
+
+		PluginChannelIndex index = new PluginChannelIndex(myTempDir);
+		index.write(5, Collections.singletonMap("consulo.java", new PluginChannelIndex.Directory(1L, Arrays.asList(Pair.create(node, new File(myTempDir, "consulo.java_1.zip"))))));
+
+		File indexFile = new File(myTempDir, PluginChannelIndex.FILE_NAME);
+		long length = indexFile.length();
+
+		// cut inside of node
+		truncate(indexFile, length - 3);
+		assertNull(index.read());
+		assertEquals(5, index.readJournalSequence());
+
+		// cut inside of header
+		truncate(indexFile, 12);
+		assertNull(index.read());
+		assertEquals(-1, index.readJournalSequence());
+
+		truncate(indexFile, 0);
+		assertNull(index.read());
+		assertEquals(-1, index.readJournalSequence());
+	}
+
+	@Test
+	public void testGarbage() throws Exception
+	{
+		try (FileOutputStream stream = new FileOutputStream(new File(myTempDir, PluginChannelIndex.FILE_NAME)))
+		{
+			stream.write("{\"id\": \"not index\"}".getBytes("UTF-8"));
+		}
+
+		PluginChannelIndex index = new PluginChannelIndex(myTempDir);
+		assertNull(index.read());
+		assertEquals(-1, index.readJournalSequence());
+	}
+
+	private static void truncate(File file, long length) throws IOException
+	{
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+		{
+			randomAccessFile.setLength(length);
+		}
+	}
+
+	private static PluginNode.Extension extension(String key, String... values)
+	{
+		PluginNode.Extension extension = new PluginNode.Extension();
+		extension.key = key;
+		extension.values = values;
+		return extension;
+	}
+
+	private static void assertNodeEquals(PluginNode expected, PluginNode actual)
+	{
+		assertEquals(expected.id, actual.id);
+		assertEquals(expected.name, actual.name);
+		assertEquals(expected.description, actual.description);
+		assertEquals(expected.category, actual.category);
+		assertEquals(expected.vendor, actual.vendor);
+		assertEquals(expected.version, actual.version);
+		assertEquals(expected.platformVersion, actual.platformVersion);
+		assertEquals(expected.iconBytes, actual.iconBytes);
+		assertEquals(expected.date, actual.date);
+		assertEquals(expected.rating, actual.rating);
+		assertEquals(expected.length, actual.length);
+		assertArrayEquals(expected.dependencies, actual.dependencies);
+		assertArrayEquals(expected.optionalDependencies, actual.optionalDependencies);
+		assertExtensionsEquals(expected.extensions, actual.extensions);
+		assertExtensionsEquals(expected.extensionsV2, actual.extensionsV2);
+		assertEquals(expected.experimental, actual.experimental);
+
+		if(expected.checksum == null)
+		{
+			assertNull(actual.checksum);
+		}
+		else
+		{
+			assertNotNull(actual.checksum);
+			assertEquals(expected.checksum.sha_256, actual.checksum.sha_256);
+			assertEquals(expected.checksum.upload_sha_256, actual.checksum.upload_sha_256);
+		}
+	}
+
+	private static void assertExtensionsEquals(PluginNode.Extension[] expected, PluginNode.Extension[] actual)
+	{
+		if(expected == null)
+		{
+			assertNull(actual);
+			return;
+		}
+
+		assertNotNull(actual);
+		assertEquals(expected.length, actual.length);
+		for(int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i].key, actual[i].key);
+			assertArrayEquals(expected[i].values, actual[i].values);
+		}
+	}
+}
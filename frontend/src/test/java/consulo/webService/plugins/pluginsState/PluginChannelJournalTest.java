@@ -0,0 +1,201 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * Two journals on one directory - like two nodes with shared storage. Checkpoint is emulated by sequence
+ *
+ * @since 18-Oct-26
+ */
+public class PluginChannelJournalTest extends Assert
+{
+	private File myTempDir;
+
+	private final AtomicLong myCheckpoint = new AtomicLong();
+
+	private PluginChannelJournal myFirst;
+	private PluginChannelJournal mySecond;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+
+		myFirst = new PluginChannelJournal(myTempDir, myCheckpoint::get);
+		myFirst.open(0, record -> fail());
+
+		mySecond = new PluginChannelJournal(myTempDir, myCheckpoint::get);
+		mySecond.open(0, record -> fail());
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		myFirst.close();
+		mySecond.close();
+
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testTail() throws Exception
+	{
+		PluginNode node = new PluginNode();
+		node.id = "consulo.java";
+		node.version = "1";
+		node.platformVersion = "1554";
+		node.length = 10L;
+
+		myFirst.appendPush("consulo.java", 1, node, new File(myTempDir, "consulo.java_1.zip"));
+		myFirst.appendRemove("consulo.java", 2, "1", "1554");
+
+		List<PluginChannelJournal.Record> records = new ArrayList<>();
+		assertEquals(2, mySecond.tail(records::add));
+		assertEquals(1, records.get(0).mySequence);
+		assertEquals(PluginChannelJournal.PUSH, records.get(0).myType);
+		assertEquals("consulo.java", records.get(0).myNode.id);
+		assertEquals(Long.valueOf(10), records.get(0).myNode.length);
+		assertEquals(2, records.get(1).mySequence);
+		assertEquals(PluginChannelJournal.REMOVE, records.get(1).myType);
+
+		// own records are not applied again
+		assertEquals(0, myFirst.tail(record -> fail()));
+
+		mySecond.appendRemove("consulo.java", 3, "2", "1554");
+		assertEquals(3, mySecond.getLastSequence());
+		assertEquals(1, myFirst.tail(record -> assertEquals(3, record.mySequence)));
+		assertEquals(3, myFirst.getAppliedSequence());
+	}
+
+	@Test
+	public void testCompactAfterTail() throws Exception
+	{
+		myFirst.appendRemove("a", 1, "1", "1");
+		myFirst.appendRemove("a", 2, "2", "1");
+
+		assertEquals(2, mySecond.tail(record -> {}));
+
+		compact(myFirst, 2);
+		assertEquals(0, myFirst.getRecordCount());
+
+		// all records are applied before compaction
+		assertEquals(0, mySecond.tail(record -> fail()));
+
+		mySecond.appendRemove("a", 3, "3", "1");
+		assertEquals(3, mySecond.getLastSequence());
+		assertEquals(1, myFirst.tail(record -> assertEquals(3, record.mySequence)));
+	}
+
+	@Test
+	public void testCompactBeforeTail() throws Exception
+	{
+		myFirst.appendRemove("a", 1, "1", "1");
+		assertEquals(1, mySecond.tail(record -> {}));
+
+		myFirst.appendRemove("a", 2, "2", "1");
+		myFirst.appendRemove("a", 3, "3", "1");
+		compact(myFirst, 3);
+
+		// records 2 and 3 are removed before applying
+		assertEquals(-1, mySecond.tail(record -> fail()));
+		assertEquals(-1, mySecond.tail(record -> fail()));
+
+		myFirst.appendRemove("a", 4, "4", "1");
+
+		List<PluginChannelJournal.Record> records = new ArrayList<>();
+		mySecond.reload(myCheckpoint::get, records::add);
+		assertEquals(1, records.size());
+		assertEquals(4, records.get(0).mySequence);
+		assertEquals(4, mySecond.getAppliedSequence());
+
+		assertEquals(0, mySecond.tail(record -> fail()));
+	}
+
+	@Test
+	public void testAppendAfterCompaction() throws Exception
+	{
+		myFirst.appendRemove("a", 1, "1", "1");
+		myFirst.appendRemove("a", 2, "2", "1");
+		compact(myFirst, 2);
+
+		// journal is reopened while locking, records of other node are not applied yet
+		mySecond.appendRemove("a", 3, "3", "1");
+		assertEquals(3, mySecond.getLastSequence());
+		assertEquals(-1, mySecond.tail(record -> fail()));
+
+		List<PluginChannelJournal.Record> records = new ArrayList<>();
+		mySecond.reload(myCheckpoint::get, records::add);
+		assertEquals(1, records.size());
+		assertEquals(3, records.get(0).mySequence);
+
+		assertEquals(1, myFirst.tail(record -> assertEquals(3, record.mySequence)));
+	}
+
+	@Test
+	public void testCompactDoNotReplaceNewerCheckpoint() throws Exception
+	{
+		myFirst.appendRemove("a", 1, "1", "1");
+		myFirst.appendRemove("a", 2, "2", "1");
+		assertEquals(2, mySecond.tail(record -> {}));
+
+		myFirst.appendRemove("a", 3, "3", "1");
+		compact(myFirst, 3);
+
+		AtomicBoolean written = new AtomicBoolean();
+		mySecond.compact(2, sequence -> written.set(true));
+		assertFalse(written.get());
+		assertEquals(3, myCheckpoint.get());
+
+		assertEquals(-1, mySecond.tail(record -> fail()));
+	}
+
+	@Test
+	public void testCompactKeepRecordsAfterCheckpoint() throws Exception
+	{
+		myFirst.appendRemove("a", 1, "1", "1");
+		myFirst.appendRemove("a", 2, "2", "1");
+		myFirst.appendRemove("a", 3, "3", "1");
+		assertEquals(3, mySecond.tail(record -> {}));
+
+		compact(myFirst, 1);
+		assertEquals(2, myFirst.getRecordCount());
+
+		PluginChannelJournal third = new PluginChannelJournal(myTempDir, myCheckpoint::get);
+		try
+		{
+			List<PluginChannelJournal.Record> records = new ArrayList<>();
+			third.open(myCheckpoint.get(), records::add);
+			assertEquals(2, records.size());
+			assertEquals(2, records.get(0).mySequence);
+			assertEquals(3, records.get(1).mySequence);
+			assertEquals(3, third.getLastSequence());
+		}
+		finally
+		{
+			third.close();
+		}
+
+		assertEquals(0, mySecond.tail(record -> fail()));
+	}
+
+	private void compact(PluginChannelJournal journal, long sequence) throws Exception
+	{
+		// like checkpoint - all records are applied before it
+		journal.tail(record -> fail());
+
+		journal.compact(sequence, myCheckpoint::set);
+		assertEquals(sequence, myCheckpoint.get());
+	}
+}
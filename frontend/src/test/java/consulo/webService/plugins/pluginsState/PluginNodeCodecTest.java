@@ -0,0 +1,118 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PluginNodeCodecTest extends Assert
+{
+	@Test
+	public void testAllFields() throws Exception
+	{
+		PluginNode node = new PluginNode();
+		node.id = "consulo.java";
+		node.name = "Java";
+		node.description = "Java support — файл";
+		node.category = "Custom Languages";
+		node.vendor = "consulo.io";
+		node.version = "1554";
+		node.platformVersion = "1554";
+		node.iconBytes = "AAAA";
+		node.date = 1234567890123L;
+		node.rating = 5;
+		node.dependencies = new String[]{"com.intellij.xml"};
+		node.optionalDependencies = new String[0];
+		node.extensions = new PluginNode.Extension[]{extension("com.intellij.fileTypeFactory", "*.java", "*.class")};
+		node.extensionsV2 = new PluginNode.Extension[]{extension("com.intellij.fileTypeFactory", "*|java", "*|class")};
+		node.experimental = true;
+		node.checksum = new PluginNode.Checksum();
+		node.checksum.sha_256 = "sha";
+		node.checksum.upload_sha_256 = "upload";
+
+		PluginNode result = roundTrip(node);
+
+		assertEquals(node.id, result.id);
+		assertEquals(node.name, result.name);
+		assertEquals(node.description, result.description);
+		assertEquals(node.category, result.category);
+		assertEquals(node.vendor, result.vendor);
+		assertEquals(node.version, result.version);
+		assertEquals(node.platformVersion, result.platformVersion);
+		assertEquals(node.iconBytes, result.iconBytes);
+		assertEquals(node.date, result.date);
+		assertEquals(node.rating, result.rating);
+		assertArrayEquals(node.dependencies, result.dependencies);
+		assertArrayEquals(node.optionalDependencies, result.optionalDependencies);
+		assertEquals("com.intellij.fileTypeFactory", result.extensions[0].key);
+		assertArrayEquals(node.extensions[0].values, result.extensions[0].values);
+		assertArrayEquals(node.extensionsV2[0].values, result.extensionsV2[0].values);
+		assertTrue(result.experimental);
+		assertEquals("sha", result.checksum.sha_256);
+		assertEquals("upload", result.checksum.upload_sha_256);
+	}
+
+	@Test
+	public void testNullFields() throws Exception
+	{
+		PluginNode node = new PluginNode();
+		node.id = "consulo.java";
+
+		PluginNode result = roundTrip(node);
+
+		assertEquals("consulo.java", result.id);
+		assertNull(result.name);
+		assertNull(result.date);
+		assertNull(result.rating);
+		assertNull(result.dependencies);
+		assertNull(result.extensions);
+		assertNull(result.extensionsV2);
+		assertFalse(result.experimental);
+		assertNull(result.checksum);
+	}
+
+	@Test
+	public void testUploadChecksumWithoutChecksum() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(bytes))
+		{
+			PluginNodeCodec.writeString(stream, "upload");
+		}
+
+		// upload checksum is ignored, if node has no checksum
+		PluginNode node = new PluginNode();
+		PluginNodeCodec.readUploadChecksum(ByteBuffer.wrap(bytes.toByteArray()), node);
+		assertNull(node.checksum);
+	}
+
+	private static PluginNode roundTrip(PluginNode node) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(bytes))
+		{
+			PluginNodeCodec.writeNode(stream, node);
+			PluginNodeCodec.writeUploadChecksum(stream, node);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		PluginNode result = PluginNodeCodec.readNode(buffer);
+		PluginNodeCodec.readUploadChecksum(buffer, result);
+		assertFalse(buffer.hasRemaining());
+		return result;
+	}
+
+	private static PluginNode.Extension extension(String key, String... values)
+	{
+		PluginNode.Extension extension = new PluginNode.Extension();
+		extension.key = key;
+		extension.values = values;
+		return extension;
+	}
+}
@@ -0,0 +1,94 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import consulo.webService.plugins.PluginNode;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PluginsBucketTest extends Assert
+{
+	@Test
+	public void testSorted()
+	{
+		PluginsBucket bucket = PluginsBucket.add(null, nodes("1.10", "1.0", "1.9", "1.2"));
+
+		assertEquals(Arrays.asList("1.0", "1.2", "1.9", "1.10"), versions(bucket));
+		assertEquals("1.10", bucket.last().version);
+	}
+
+	@Test
+	public void testGet()
+	{
+		PluginsBucket bucket = PluginsBucket.add(null, nodes("1.0", "2.0"));
+
+		assertEquals("2.0", bucket.get("2.0").version);
+		assertNull(bucket.get("3.0"));
+		assertNull(bucket.get(null));
+	}
+
+	@Test
+	public void testAddToExisting()
+	{
+		PluginsBucket bucket = PluginsBucket.add(null, nodes("1", "3"));
+		PluginsBucket newBucket = PluginsBucket.add(bucket, nodes("2", "4"));
+
+		assertEquals(Arrays.asList("1", "2", "3", "4"), versions(newBucket));
+		assertEquals("4", newBucket.get("4").version);
+		// bucket is immutable
+		assertEquals(Arrays.asList("1", "3"), versions(bucket));
+	}
+
+	@Test
+	public void testRemove()
+	{
+		List<PluginNode> nodes = nodes("1", "2");
+		PluginsBucket bucket = PluginsBucket.add(null, nodes);
+
+		PluginsBucket newBucket = bucket.remove(nodes.get(1));
+		assertNotNull(newBucket);
+		assertEquals(Arrays.asList("1"), versions(newBucket));
+		assertNull(newBucket.get("2"));
+		assertEquals("1", newBucket.last().version);
+
+		assertEquals(Arrays.asList("1", "2"), versions(bucket));
+
+		assertNull(newBucket.remove(nodes.get(0)));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testNodesAreImmutable()
+	{
+		PluginsBucket bucket = PluginsBucket.add(null, nodes("1"));
+
+		bucket.getNodes().clear();
+	}
+
+	private static List<PluginNode> nodes(String... versions)
+	{
+		List<PluginNode> nodes = new ArrayList<>();
+		for(String version : versions)
+		{
+			PluginNode node = new PluginNode();
+			node.version = version;
+			node.versionKey = VersionKey.of(version);
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	private static List<String> versions(PluginsBucket bucket)
+	{
+		List<String> versions = new ArrayList<>();
+		for(PluginNode node : bucket.getNodes())
+		{
+			versions.add(node.version);
+		}
+		return versions;
+	}
+}
@@ -0,0 +1,90 @@
+package consulo.webService.plugins.pluginsState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.intellij.util.text.VersionComparatorUtil;
+
+/**
+ * @since 18-Oct-26
+ */
+public class VersionKeyTest extends Assert
+{
+	private static final List<String> ourVersions = Arrays.asList("", "0", "00", "0.1", "1", "01", "001", "1.0", "1.00", "1.0.0", "1.0.0.0", "1.01", "1.0.1", "1.1", "1.9",
+			"1.10", "1.010", "2", "9", "10", "1554", "01554", "2.0.1", "2.0.10", "1.0-SNAPSHOT", "1.0-snapshot", "1.0-beta", "1.0-rc1", "1.0a", "abc", "1..2", "1.", ".1",
+			"99999999999999999999", "100000000000000000000", "999999999999999999", "1000000000000000000");
+
+	@Test
+	public void testSameOrderAsVersionComparator()
+	{
+		for(String v1 : ourVersions)
+		{
+			for(String v2 : ourVersions)
+			{
+				int expected = Integer.signum(VersionComparatorUtil.compare(v1, v2));
+				int actual = Integer.signum(VersionKey.of(v1).compareTo(VersionKey.of(v2)));
+
+				assertEquals("'" + v1 + "' vs '" + v2 + "'", expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testSortedSameAsVersionComparator()
+	{
+		List<String> expected = new ArrayList<>(ourVersions);
+		expected.sort(VersionComparatorUtil::compare);
+
+		List<VersionKey> keys = new ArrayList<>();
+		for(String version : ourVersions)
+		{
+			keys.add(VersionKey.of(version));
+		}
+		keys.sort(VersionKey::compareTo);
+
+		List<String> actual = new ArrayList<>();
+		for(VersionKey key : keys)
+		{
+			actual.add(key.getVersion());
+		}
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testTransitive()
+	{
+		for(String v1 : ourVersions)
+		{
+			VersionKey k1 = VersionKey.of(v1);
+			for(String v2 : ourVersions)
+			{
+				VersionKey k2 = VersionKey.of(v2);
+				if(k1.compareTo(k2) > 0)
+				{
+					continue;
+				}
+
+				for(String v3 : ourVersions)
+				{
+					VersionKey k3 = VersionKey.of(v3);
+					if(k2.compareTo(k3) <= 0)
+					{
+						assertTrue("'" + v1 + "' <= '" + v2 + "' <= '" + v3 + "'", k1.compareTo(k3) <= 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNumeric()
+	{
+		assertTrue(VersionKey.of("1.9").compareTo(VersionKey.of("1.10")) < 0);
+		assertTrue(VersionKey.of("1554").compareTo(VersionKey.of("999")) > 0);
+		assertEquals(0, VersionKey.of("2.0.1").compareTo(VersionKey.of("2.0.1")));
+	}
+}
@@ -0,0 +1,65 @@
+package consulo.webService.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @since 18-Oct-26
+ */
+public class ETagUtilTest extends Assert
+{
+	@Test
+	public void testBuild()
+	{
+		String eTag = ETagUtil.build(1, 255);
+
+		assertTrue(eTag.startsWith("\""));
+		assertTrue(eTag.endsWith("-1-ff\""));
+		assertNotEquals(eTag, ETagUtil.build(1, 254));
+	}
+
+	@Test
+	public void testWithSuffix()
+	{
+		assertEquals("\"a-1-zip\"", ETagUtil.withSuffix("\"a-1\"", "zip"));
+	}
+
+	@Test
+	public void testNoHeader()
+	{
+		assertFalse(ETagUtil.matches(null, "\"a\""));
+		assertFalse(ETagUtil.matches("", "\"a\""));
+	}
+
+	@Test
+	public void testStrong()
+	{
+		assertTrue(ETagUtil.matches("\"a\"", "\"a\""));
+		assertFalse(ETagUtil.matches("\"b\"", "\"a\""));
+		// quotes are part of tag
+		assertFalse(ETagUtil.matches("a", "\"a\""));
+	}
+
+	@Test
+	public void testWeak()
+	{
+		assertTrue(ETagUtil.matches("W/\"a\"", "\"a\""));
+		assertFalse(ETagUtil.matches("W/\"b\"", "\"a\""));
+	}
+
+	@Test
+	public void testList()
+	{
+		assertTrue(ETagUtil.matches("\"b\", \"a\"", "\"a\""));
+		assertTrue(ETagUtil.matches("\"b\",W/\"a\"", "\"a\""));
+		assertTrue(ETagUtil.matches(" \"a\" ,\"b\"", "\"a\""));
+		assertFalse(ETagUtil.matches("\"b\", \"c\"", "\"a\""));
+	}
+
+	@Test
+	public void testAny()
+	{
+		assertTrue(ETagUtil.matches("*", "\"a\""));
+		assertTrue(ETagUtil.matches("\"b\", *", "\"a\""));
+	}
+}
@@ -0,0 +1,127 @@
+package consulo.webservice;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.pluginAnalyzer.Analyzer;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.plugins.PluginAnalyzerService;
+import consulo.webService.plugins.PluginChannel;
+import consulo.webService.plugins.PluginDeployService;
+import consulo.webService.plugins.PluginNode;
+import consulo.webService.util.GsonUtil;
+import consulo.webService.util.PropertyKeys;
+
+/**
+ * Extensions, which resolved from bytecode, must be same as extensions from executed plugin code
+ *
+ * @since 18-Oct-26
+ */
+public class BytecodeAnalyzerTest extends Assert
+{
+	@Test
+	public void testGitPlugin() throws Exception
+	{
+		assertSameResult("/com.intellij.git_583.zip");
+	}
+
+	@Test
+	public void testImagesPlugin() throws Exception
+	{
+		assertSameResult("/com.intellij.images_972.zip");
+	}
+
+	@Test
+	public void testXmlPlugin() throws Exception
+	{
+		assertSameResult("/com.intellij.xml_108.zip");
+	}
+
+	@Test
+	public void testNodeJsPlugin() throws Exception
+	{
+		assertSameResult("/consulo.nodejs_3624.zip");
+	}
+
+	@Test
+	public void testDotIgnorePlugin() throws Exception
+	{
+		assertSameResult("/mobi.hsz.idea.gitignore.consulo-plugin");
+	}
+
+	@Test
+	public void testCsvPlugin() throws Exception
+	{
+		assertSameResult("/net.seesharpsoft.intellij.plugins.csv_1.zip");
+	}
+
+	@Test
+	public void testJavaFxPlugin() throws Exception
+	{
+		assertSameResult("/com.intellij.xml_108.zip", "/org.jetbrains.plugins.javaFX_4413.zip");
+	}
+
+	private static void assertSameResult(String... pluginPaths) throws Exception
+	{
+		PluginNode bytecodeNode = loadPlugin(true, pluginPaths);
+		PluginNode reflectionNode = loadPlugin(false, pluginPaths);
+
+		assertEquals(GsonUtil.prettyGet().toJson(reflectionNode.extensions), GsonUtil.prettyGet().toJson(bytecodeNode.extensions));
+		assertEquals(GsonUtil.prettyGet().toJson(reflectionNode.extensionsV2), GsonUtil.prettyGet().toJson(bytecodeNode.extensionsV2));
+	}
+
+	private static PluginNode loadPlugin(boolean bytecode, String... pluginPaths) throws Exception
+	{
+		File tempDir = FileUtil.createTempDirectory("webService", null);
+
+		FileSystemUtils.deleteRecursively(tempDir);
+
+		String canonicalPath = tempDir.getCanonicalPath();
+
+		String oldValue = System.setProperty(Analyzer.BYTECODE_PROPERTY, String.valueOf(bytecode));
+		try
+		{
+			UserConfigurationService userConfigurationService = new UserConfigurationService(canonicalPath, Runnable::run);
+			Properties properties = new Properties();
+			properties.setProperty(PropertyKeys.WORKING_DIRECTORY, canonicalPath);
+			// system property is visible only inside webservice process
+			properties.setProperty(PropertyKeys.ANALYZE_WORKER_COUNT, "0");
+
+			userConfigurationService.setProperties(properties);
+
+			PluginAnalyzerService pluginAnalyzerService = new PluginAnalyzerService(userConfigurationService);
+
+			PluginDeployService deploy = new PluginDeployService(userConfigurationService, pluginAnalyzerService);
+
+			userConfigurationService.contextInitialized();
+
+			PluginNode lastNode = null;
+			for(String pluginPath : pluginPaths)
+			{
+				InputStream resourceAsStream = BytecodeAnalyzerTest.class.getResourceAsStream(pluginPath);
+
+				lastNode = deploy.deployPlugin(PluginChannel.alpha, () -> resourceAsStream);
+			}
+
+			return lastNode;
+		}
+		finally
+		{
+			if(oldValue == null)
+			{
+				System.clearProperty(Analyzer.BYTECODE_PROPERTY);
+			}
+			else
+			{
+				System.setProperty(Analyzer.BYTECODE_PROPERTY, oldValue);
+			}
+
+			FileSystemUtils.deleteRecursively(tempDir);
+		}
+	}
+}
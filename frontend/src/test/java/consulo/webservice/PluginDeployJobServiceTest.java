@@ -0,0 +1,219 @@
+package consulo.webservice;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import consulo.webService.UserConfigurationService;
+import consulo.webService.plugins.PluginAnalyzerService;
+import consulo.webService.plugins.PluginChannel;
+import consulo.webService.plugins.PluginDeployJob;
+import consulo.webService.plugins.PluginDeployJobService;
+import consulo.webService.plugins.PluginDeployService;
+import consulo.webService.plugins.PluginNode;
+import consulo.webService.util.PropertyKeys;
+
+/**
+ * @since 18-Oct-26
+ */
+public class PluginDeployJobServiceTest extends Assert
+{
+	private static class TestDeployService extends PluginDeployService
+	{
+		private final CountDownLatch myStarted = new CountDownLatch(1);
+		private final boolean myBlock;
+
+		private final List<String> myDeployed = new CopyOnWriteArrayList<>();
+
+		private TestDeployService(UserConfigurationService userConfigurationService, boolean block)
+		{
+			super(userConfigurationService, new PluginAnalyzerService(userConfigurationService));
+			myBlock = block;
+		}
+
+		@Override
+		public PluginNode deployPlugin(@Nonnull PluginChannel channel, @Nonnull File zipFile, @Nullable String uploadSha256, @Nonnull Consumer<PluginDeployJob.Stage> progress)
+				throws Exception
+		{
+			myStarted.countDown();
+			if(myBlock)
+			{
+				// until shutdown
+				new CountDownLatch(1).await();
+			}
+
+			if(uploadSha256 == null)
+			{
+				throw new IllegalArgumentException("no checksum");
+			}
+
+			myDeployed.add(new String(Files.readAllBytes(zipFile.toPath()), StandardCharsets.UTF_8) + ":" + uploadSha256);
+
+			PluginNode node = new PluginNode();
+			node.id = "consulo.java";
+			return node;
+		}
+	}
+
+	private File myTempDir;
+	private File myJobsDirectory;
+
+	@Before
+	public void before() throws Exception
+	{
+		myTempDir = FileUtil.createTempDirectory("webService", null);
+
+		myJobsDirectory = new File(myTempDir, PluginDeployJobService.DIRECTORY_NAME);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		FileSystemUtils.deleteRecursively(myTempDir);
+	}
+
+	@Test
+	public void testDeploy() throws Exception
+	{
+		UserConfigurationService userConfigurationService = createConfigurationService();
+		TestDeployService deployService = new TestDeployService(userConfigurationService, false);
+		PluginDeployJobService jobService = new PluginDeployJobService(userConfigurationService, deployService);
+		try
+		{
+			PluginDeployJob job = jobService.submitPlugin(PluginChannel.release, createUpload(userConfigurationService, "plugin"), "sha");
+			waitFor(job::isDone);
+
+			assertEquals(PluginDeployJob.Stage.finished, job.stage);
+			assertEquals("consulo.java", job.node.id);
+			assertEquals("plugin:sha", deployService.myDeployed.get(0));
+
+			// manifest and upload are deleted after deploy
+			waitFor(() -> listJobFiles().length == 0);
+		}
+		finally
+		{
+			jobService.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailedDeploy() throws Exception
+	{
+		UserConfigurationService userConfigurationService = createConfigurationService();
+		PluginDeployJobService jobService = new PluginDeployJobService(userConfigurationService, new TestDeployService(userConfigurationService, false));
+		try
+		{
+			PluginDeployJob job = jobService.submitPlugin(PluginChannel.release, createUpload(userConfigurationService, "plugin"), null);
+			waitFor(job::isDone);
+
+			assertEquals(PluginDeployJob.Stage.failed, job.stage);
+			assertEquals("no checksum", job.error);
+
+			// failed job is not queued again after restart
+			waitFor(() -> listJobFiles().length == 0);
+		}
+		finally
+		{
+			jobService.shutdown();
+		}
+	}
+
+	@Test
+	public void testRestoreAfterShutdown() throws Exception
+	{
+		UserConfigurationService userConfigurationService = createConfigurationService();
+		TestDeployService blockedDeployService = new TestDeployService(userConfigurationService, true);
+		PluginDeployJobService jobService = new PluginDeployJobService(userConfigurationService, blockedDeployService);
+
+		PluginDeployJob job = jobService.submitPlugin(PluginChannel.release, createUpload(userConfigurationService, "plugin"), "sha");
+		assertTrue(blockedDeployService.myStarted.await(10, TimeUnit.SECONDS));
+
+		jobService.shutdown();
+		waitFor(() -> job.finishTime != null);
+
+		// manifest and upload
+		assertEquals(2, listJobFiles().length);
+
+		// not finished write of other job, and temp manifest
+		Files.write(new File(myJobsDirectory, "other.zip").toPath(), new byte[]{1});
+		Files.write(new File(myJobsDirectory, "other.json.tmp").toPath(), new byte[]{1});
+
+		// restart
+		UserConfigurationService restartedConfigurationService = new UserConfigurationService(myTempDir.getCanonicalPath(), Runnable::run);
+		TestDeployService deployService = new TestDeployService(restartedConfigurationService, false);
+		PluginDeployJobService restartedJobService = new PluginDeployJobService(restartedConfigurationService, deployService);
+		try
+		{
+			assertNull(restartedJobService.getJob(job.id));
+
+			// jobs are restored after initialization
+			restartedConfigurationService.contextInitialized();
+
+			PluginDeployJob restoredJob = restartedJobService.getJob(job.id);
+			assertNotNull(restoredJob);
+			waitFor(restoredJob::isDone);
+
+			assertEquals(PluginDeployJob.Stage.finished, restoredJob.stage);
+			assertEquals(job.createTime, restoredJob.createTime);
+			assertEquals("plugin:sha", deployService.myDeployed.get(0));
+
+			waitFor(() -> listJobFiles().length == 0);
+		}
+		finally
+		{
+			restartedJobService.shutdown();
+		}
+	}
+
+	private UserConfigurationService createConfigurationService() throws Exception
+	{
+		String canonicalPath = myTempDir.getCanonicalPath();
+
+		UserConfigurationService userConfigurationService = new UserConfigurationService(canonicalPath, Runnable::run);
+		Properties properties = new Properties();
+		properties.setProperty(PropertyKeys.WORKING_DIRECTORY, canonicalPath);
+
+		userConfigurationService.setProperties(properties);
+		return userConfigurationService;
+	}
+
+	private static File createUpload(UserConfigurationService userConfigurationService, String text) throws Exception
+	{
+		File file = userConfigurationService.createTempFile("upload", "zip");
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private File[] listJobFiles()
+	{
+		File[] files = myJobsDirectory.listFiles();
+		return files == null ? new File[0] : files;
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		long time = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while(!condition.getAsBoolean())
+		{
+			assertTrue("timeout", System.currentTimeMillis() < time);
+
+			Thread.sleep(10);
+		}
+	}
+}
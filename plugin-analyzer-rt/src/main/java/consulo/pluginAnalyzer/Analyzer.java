@@ -14,6 +14,8 @@ import consulo.test.light.LightApplicationBuilder;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.util.Set;
 
 /**
@@ -72,9 +74,17 @@ public class Analyzer
 		}
 	}
 
+	// extensions, which are analyzed by analyzeExtension()
+	public static final String CONFIGURATION_TYPE = "com.intellij.configurationType";
+	public static final String FILE_TYPE_FACTORY = "com.intellij.fileTypeFactory";
+	public static final String ARTIFACT_TYPE = "com.intellij.packaging.artifactType";
+
+	// system property, 'false' - extensions are analyzed only by reflection. Used by tests, for comparing results
+	public static final String BYTECODE_PROPERTY = "consulo.pluginAnalyzer.bytecode";
+
 	private static Disposable ourRootDisposable = Disposable.newDisposable();
 
-	// called by reflection inside PluginAnalyzerService
+	// called by reflection inside PluginAnalyzerService, or by AnalyzerWorker
 	public static void before()
 	{
 		LoggerFactoryInitializer.setFactory(new SilentFactory());
@@ -97,11 +107,116 @@ public class Analyzer
 		}
 	}
 
-	// called by reflection inside PluginAnalyzerService
-	public static void analyzeFileType(Set<String> extensions, Set<String> extensionsV2, FileTypeFactory fileTypeFactory)
+	/**
+	 * Analyze extension, which value can be received only from plugin code. Result is resolved from bytecode if possible,
+	 * in other case extension is instantiated and executed
+	 *
+	 * Called by reflection inside PluginAnalyzerService, or by {@link AnalyzerWorker}
+	 *
+	 * @param classLoader class loader of plugin and dependencies
+	 */
+	public static void analyzeExtension(ClassLoader classLoader, String extensionKey, String implementation, Set<String> extensions, Set<String> extensionsV2) throws Exception
+	{
+		BytecodeAnalyzer bytecodeAnalyzer = Boolean.parseBoolean(System.getProperty(BYTECODE_PROPERTY, "true")) ? new BytecodeAnalyzer(classLoader) : null;
+
+		switch(extensionKey)
+		{
+			case CONFIGURATION_TYPE:
+			case ARTIFACT_TYPE:
+			{
+				String id = resolveStringMethod(bytecodeAnalyzer, implementation, "getId");
+				if(id == null)
+				{
+					Object instance = newInstance(classLoader.loadClass(implementation));
+
+					Class<?> extensionClass = classLoader.loadClass(CONFIGURATION_TYPE.equals(extensionKey) ? "com.intellij.execution.configurations.ConfigurationType" :
+							"com.intellij.packaging.artifacts.ArtifactType");
+
+					Method idMethod = extensionClass.getMethod("getId");
+					idMethod.setAccessible(true);
+
+					id = (String) idMethod.invoke(instance);
+				}
+
+				if(id != null && !id.isEmpty())
+				{
+					extensions.add(id);
+					extensionsV2.add(id);
+				}
+				break;
+			}
+			case FILE_TYPE_FACTORY:
+			{
+				if(collectFileTypes(bytecodeAnalyzer, implementation, extensions, extensionsV2))
+				{
+					return;
+				}
+
+				FileTypeFactory fileTypeFactory = (FileTypeFactory) newInstance(classLoader.loadClass(implementation));
+				try
+				{
+					fileTypeFactory.createFileTypes(new CollectFileTypeConsumer(extensions, extensionsV2));
+				}
+				catch(Throwable e)
+				{
+					e.printStackTrace();
+					// somebodies can insert foreign logic in factory (com.intellij.xml.XmlFileTypeFactory:38)
+					// it can failed, but - before logic, extensions can be registered
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unsupported extension: " + extensionKey);
+		}
+	}
+
+	@Nullable
+	private static String resolveStringMethod(@Nullable BytecodeAnalyzer bytecodeAnalyzer, String className, String methodName)
+	{
+		if(bytecodeAnalyzer == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			return bytecodeAnalyzer.resolveStringMethod(className, methodName);
+		}
+		catch(Throwable e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean collectFileTypes(@Nullable BytecodeAnalyzer bytecodeAnalyzer, String className, Set<String> extensions, Set<String> extensionsV2)
 	{
-		CollectFileTypeConsumer consumer = new CollectFileTypeConsumer(extensions, extensionsV2);
+		if(bytecodeAnalyzer == null)
+		{
+			return false;
+		}
+
+		try
+		{
+			return bytecodeAnalyzer.collectFileTypes(className, extensions, extensionsV2);
+		}
+		catch(Throwable e)
+		{
+			return false;
+		}
+	}
+
+	@Nonnull
+	private static Object newInstance(Class<?> clazz) throws Exception
+	{
+		for(Constructor<?> constructor : clazz.getDeclaredConstructors())
+		{
+			if(constructor.getParameterCount() == 0)
+			{
+				constructor.setAccessible(true);
+				return constructor.newInstance();
+			}
+		}
 
-		fileTypeFactory.createFileTypes(consumer);
+		throw new IllegalArgumentException("no empty constructor");
 	}
 }
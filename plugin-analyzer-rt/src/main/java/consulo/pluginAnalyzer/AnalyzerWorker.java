@@ -0,0 +1,96 @@
+package consulo.pluginAnalyzer;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Main class of analyzer process. Platform jars are in classpath of process, plugin and dependency jars are received with each request.
+ *
+ * Protocol - {@link DataInput}/{@link DataOutput} over stdin and stdout:
+ * request - count of jar urls, urls, count of extensions, pairs of extension key and implementation class;
+ * response - for each extension: true, count of values, values, count of values v2, values v2 - or false and error message.
+ *
+ * Process is stopped when stdin is closed
+ *
+ * @since 18-Oct-26
+ */
+public class AnalyzerWorker
+{
+	public static void main(String[] args) throws Exception
+	{
+		// stdout is used by protocol, but plugin code and logger can print to it
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+
+		DataInputStream input = new DataInputStream(new BufferedInputStream(System.in));
+
+		Analyzer.before();
+
+		while(true)
+		{
+			int urlCount;
+			try
+			{
+				urlCount = input.readInt();
+			}
+			catch(EOFException e)
+			{
+				break;
+			}
+
+			URL[] urls = new URL[urlCount];
+			for(int i = 0; i < urlCount; i++)
+			{
+				urls[i] = new URL(input.readUTF());
+			}
+
+			int count = input.readInt();
+			String[] keys = new String[count];
+			String[] implementations = new String[count];
+			for(int i = 0; i < count; i++)
+			{
+				keys[i] = input.readUTF();
+				implementations[i] = input.readUTF();
+			}
+
+			try (URLClassLoader classLoader = new URLClassLoader(urls, AnalyzerWorker.class.getClassLoader()))
+			{
+				for(int i = 0; i < count; i++)
+				{
+					Set<String> extensions = new TreeSet<>();
+					Set<String> extensionsV2 = new TreeSet<>();
+					try
+					{
+						Analyzer.analyzeExtension(classLoader, keys[i], implementations[i], extensions, extensionsV2);
+
+						output.writeBoolean(true);
+						writeStrings(output, extensions);
+						writeStrings(output, extensionsV2);
+					}
+					catch(Throwable e)
+					{
+						output.writeBoolean(false);
+						output.writeUTF(e.toString());
+					}
+				}
+			}
+
+			output.flush();
+		}
+
+		// plugins can start not daemon threads
+		System.exit(0);
+	}
+
+	private static void writeStrings(DataOutputStream output, Set<String> values) throws IOException
+	{
+		output.writeInt(values.size());
+		for(String value : values)
+		{
+			output.writeUTF(value);
+		}
+	}
+}
@@ -0,0 +1,669 @@
+package consulo.pluginAnalyzer;
+
+import com.intellij.openapi.fileTypes.FileTypeConsumer;
+import com.intellij.openapi.util.text.StringUtil;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Analyze extensions by class files, without loading and executing plugin code.
+ *
+ * Only simple methods are supported - without branches, loops and exception handlers. Values are tracked only if they are string constants,
+ * or fields, which assigned by string constants in constructors. If method can't be analyzed - result is null, and caller must use reflection
+ *
+ * @since 18-Oct-26
+ */
+public class BytecodeAnalyzer
+{
+	private static class Value
+	{
+		private static final int UNKNOWN = 0;
+		private static final int THIS = 1;
+		private static final int CONSTANT = 2;
+		// field of this object, myOwner.myName
+		private static final int FIELD = 3;
+		// static field, myOwner.myName with type myDesc
+		private static final int STATIC = 4;
+		// new object of class myOwner, created by constructor with descriptor myDesc and myArguments. Descriptor is null, if constructor is not called yet
+		private static final int NEW = 5;
+		// argument of analyzed method, which usage is tracked
+		private static final int TRACKED = 6;
+
+		private static final Value ourUnknown = new Value(UNKNOWN, null, null, null);
+
+		private final int myKind;
+		private final String myOwner;
+		private final String myName;
+		private final String myDesc;
+		private final List<Value> myArguments;
+
+		private Value(int kind, String owner, String name, String desc)
+		{
+			this(kind, owner, name, desc, Collections.emptyList());
+		}
+
+		private Value(int kind, String owner, String name, String desc, List<Value> arguments)
+		{
+			myKind = kind;
+			myOwner = owner;
+			myName = name;
+			myDesc = desc;
+			myArguments = arguments;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(o == null || getClass() != o.getClass())
+			{
+				return false;
+			}
+			Value value = (Value) o;
+			return myKind == value.myKind && Objects.equals(myOwner, value.myOwner) && Objects.equals(myName, value.myName) && Objects.equals(myDesc, value.myDesc) &&
+					myArguments.equals(value.myArguments);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(myKind, myOwner, myName, myDesc, myArguments);
+		}
+	}
+
+	private interface InstructionCallback
+	{
+		/**
+		 * Called for field stores, array stores and invocations
+		 *
+		 * @param operands popped operands - receiver (if exists) and arguments
+		 * @return false if analyze must be stopped
+		 */
+		boolean accept(@Nonnull AbstractInsnNode insn, @Nonnull List<Value> operands);
+	}
+
+	private static final String FILE_TYPE_CONSUMER = "com/intellij/openapi/fileTypes/FileTypeConsumer";
+	private static final String FILE_TYPE_DESC = "Lcom/intellij/openapi/fileTypes/FileType;";
+	private static final String PLAIN_TEXT_FILE_TYPE = "com/intellij/openapi/fileTypes/PlainTextFileType";
+	private static final String OBJECT = "java/lang/Object";
+	private static final String CONSTRUCTOR = "<init>";
+
+	// max depth of super constructors
+	private static final int ourMaxDepth = 16;
+
+	private final ClassLoader myClassLoader;
+
+	// internal name -> class, null if class is not found
+	private final Map<String, ClassNode> myClasses = new HashMap<>();
+
+	public BytecodeAnalyzer(@Nonnull ClassLoader classLoader)
+	{
+		myClassLoader = classLoader;
+	}
+
+	/**
+	 * @return result of string method without parameters for instance, which created by constructor without parameters. Null if result is not constant
+	 */
+	@Nullable
+	public String resolveStringMethod(@Nonnull String className, @Nonnull String methodName)
+	{
+		return resolveStringMethod(className.replace('.', '/'), methodName, "()V", Collections.emptyList());
+	}
+
+	/**
+	 * @param constructorDesc      constructor, which creates instance
+	 * @param constructorArguments arguments of constructor
+	 */
+	@Nullable
+	private String resolveStringMethod(String internalName, String methodName, String constructorDesc, List<Value> constructorArguments)
+	{
+		if(!isInstantiable(internalName, constructorDesc))
+		{
+			return null;
+		}
+
+		MethodNode method = findMethod(internalName, methodName, "()Ljava/lang/String;");
+		if(method == null)
+		{
+			return null;
+		}
+
+		// method, which changes fields, or passes instance to other code, can return not value of constructor
+		List<Value> returned = execute(method, new Value[]{thisValue()}, (insn, operands) -> !containsThis(operands));
+		if(returned == null || returned.isEmpty() || new HashSet<>(returned).size() != 1)
+		{
+			return null;
+		}
+
+		Value value = returned.get(0);
+		if(value.myKind == Value.FIELD)
+		{
+			value = resolveField(internalName, constructorDesc, constructorArguments, value.myOwner, value.myName);
+		}
+
+		return value != null && value.myKind == Value.CONSTANT ? value.myName : null;
+	}
+
+	/**
+	 * Collect extensions of file type factory, same as {@link CollectFileTypeConsumer}
+	 *
+	 * @return false if factory can't be analyzed
+	 */
+	public boolean collectFileTypes(@Nonnull String className, @Nonnull Set<String> extensions, @Nonnull Set<String> extensionsV2)
+	{
+		String internalName = className.replace('.', '/');
+		if(!isInstantiable(internalName, "()V"))
+		{
+			return false;
+		}
+
+		MethodNode method = findMethod(internalName, "createFileTypes", "(L" + FILE_TYPE_CONSUMER + ";)V");
+		if(method == null)
+		{
+			return false;
+		}
+
+		Value consumer = new Value(Value.TRACKED, null, null, null);
+
+		Set<String> extensionsResult = new TreeSet<>();
+		Set<String> extensionsV2Result = new TreeSet<>();
+
+		List<Value> returned = execute(method, new Value[]{thisValue(), consumer}, (insn, operands) ->
+		{
+			if(insn instanceof MethodInsnNode && FILE_TYPE_CONSUMER.equals(((MethodInsnNode) insn).owner) && operands.get(0) == consumer)
+			{
+				return consume((MethodInsnNode) insn, operands, extensionsResult, extensionsV2Result);
+			}
+
+			// consumer is passed to unknown code
+			return !operands.contains(consumer);
+		});
+
+		if(returned == null)
+		{
+			return false;
+		}
+
+		extensions.addAll(extensionsResult);
+		extensionsV2.addAll(extensionsV2Result);
+		return true;
+	}
+
+	private boolean consume(MethodInsnNode insn, List<Value> operands, Set<String> extensions, Set<String> extensionsV2)
+	{
+		if(!"consume".equals(insn.name))
+		{
+			return false;
+		}
+
+		Value fileType = operands.get(1);
+		boolean plainText = fileType.myKind == Value.STATIC && PLAIN_TEXT_FILE_TYPE.equals(fileType.myOwner);
+
+		String extensionsValue;
+		if(insn.desc.equals("(" + FILE_TYPE_DESC + ")V"))
+		{
+			if(plainText)
+			{
+				return true;
+			}
+
+			extensionsValue = resolveStringMethod(fileType, "getDefaultExtension");
+		}
+		else if(insn.desc.equals("(" + FILE_TYPE_DESC + "Ljava/lang/String;)V"))
+		{
+			Value value = operands.get(2);
+			extensionsValue = value.myKind == Value.CONSTANT ? value.myName : null;
+		}
+		else
+		{
+			// file name matchers are not supported
+			return false;
+		}
+
+		if(extensionsValue == null)
+		{
+			return false;
+		}
+
+		if(plainText)
+		{
+			return true;
+		}
+
+		for(String extension : StringUtil.split(extensionsValue, FileTypeConsumer.EXTENSION_DELIMITER))
+		{
+			String lowerCase = extension.toLowerCase(Locale.US);
+			extensions.add("*." + lowerCase);
+			extensionsV2.add("*|" + lowerCase);
+		}
+		return true;
+	}
+
+	/**
+	 * Resolve string method of object, if class and constructor of object are known exactly
+	 */
+	@Nullable
+	private String resolveStringMethod(Value value, String methodName)
+	{
+		switch(value.myKind)
+		{
+			case Value.NEW:
+				// constructor with arguments is executed again for resolving fields
+				return value.myDesc == null ? null : resolveStringMethod(value.myOwner, methodName, value.myDesc, value.myArguments);
+			case Value.STATIC:
+				// singleton like 'XmlFileType.INSTANCE' - field type is class of instance. Initializer of field is not analyzed - it's expected, what it's created by constructor without parameters
+				Type type = Type.getType(value.myDesc);
+				if(type.getSort() == Type.OBJECT && type.getInternalName().equals(value.myOwner))
+				{
+					return resolveStringMethod(value.myOwner, methodName, "()V", Collections.emptyList());
+				}
+				return null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Execute constructor of class, and return value of field
+	 */
+	@Nullable
+	private Value resolveField(String className, String constructorDesc, List<Value> constructorArguments, String fieldOwner, String fieldName)
+	{
+		List<Value> operands = new ArrayList<>();
+		operands.add(thisValue());
+		operands.addAll(constructorArguments);
+
+		Map<String, Value> fields = new HashMap<>();
+		if(!construct(className, constructorDesc, toArguments(operands, constructorDesc), fields, 0))
+		{
+			return null;
+		}
+		return fields.get(fieldOwner + "." + fieldName);
+	}
+
+	private boolean construct(String className, String desc, Value[] arguments, Map<String, Value> fields, int depth)
+	{
+		if(OBJECT.equals(className))
+		{
+			return true;
+		}
+
+		if(depth > ourMaxDepth)
+		{
+			return false;
+		}
+
+		ClassNode classNode = getClassNode(className);
+		MethodNode constructor = classNode == null ? null : findDeclaredMethod(classNode, CONSTRUCTOR, desc);
+		if(constructor == null)
+		{
+			return false;
+		}
+
+		List<Value> returned = execute(constructor, arguments, (insn, operands) ->
+		{
+			if(insn.getOpcode() == Opcodes.PUTFIELD && operands.get(0).myKind == Value.THIS)
+			{
+				FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+				fields.put(fieldInsn.owner + "." + fieldInsn.name, operands.get(1));
+				return true;
+			}
+
+			// super or this constructor
+			if(insn.getOpcode() == Opcodes.INVOKESPECIAL && CONSTRUCTOR.equals(((MethodInsnNode) insn).name) && operands.get(0).myKind == Value.THIS)
+			{
+				MethodInsnNode methodInsn = (MethodInsnNode) insn;
+				return construct(methodInsn.owner, methodInsn.desc, toArguments(operands, methodInsn.desc), fields, depth + 1);
+			}
+
+			// other methods can change fields
+			return !containsThis(operands);
+		});
+		return returned != null;
+	}
+
+	/**
+	 * Execute method without branches
+	 *
+	 * @param arguments values of local variables for parameters
+	 * @return returned values, or null if method is not supported
+	 */
+	@Nullable
+	private static List<Value> execute(MethodNode method, Value[] arguments, InstructionCallback callback)
+	{
+		if(method.instructions.size() == 0 || method.tryCatchBlocks != null && !method.tryCatchBlocks.isEmpty())
+		{
+			return null;
+		}
+
+		Value[] locals = new Value[Math.max(method.maxLocals, arguments.length)];
+		Arrays.fill(locals, Value.ourUnknown);
+		System.arraycopy(arguments, 0, locals, 0, arguments.length);
+
+		Deque<Value> stack = new ArrayDeque<>();
+		List<Value> returned = new ArrayList<>();
+
+		for(AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+		{
+			int opcode = insn.getOpcode();
+			// labels, line numbers and frames
+			if(opcode == -1)
+			{
+				continue;
+			}
+
+			switch(opcode)
+			{
+				case Opcodes.ACONST_NULL:
+				case Opcodes.ICONST_M1:
+				case Opcodes.ICONST_0:
+				case Opcodes.ICONST_1:
+				case Opcodes.ICONST_2:
+				case Opcodes.ICONST_3:
+				case Opcodes.ICONST_4:
+				case Opcodes.ICONST_5:
+				case Opcodes.LCONST_0:
+				case Opcodes.LCONST_1:
+				case Opcodes.FCONST_0:
+				case Opcodes.FCONST_1:
+				case Opcodes.FCONST_2:
+				case Opcodes.DCONST_0:
+				case Opcodes.DCONST_1:
+				case Opcodes.BIPUSH:
+				case Opcodes.SIPUSH:
+					stack.push(Value.ourUnknown);
+					break;
+				case Opcodes.LDC:
+					Object cst = ((LdcInsnNode) insn).cst;
+					stack.push(cst instanceof String ? new Value(Value.CONSTANT, null, (String) cst, null) : Value.ourUnknown);
+					break;
+				case Opcodes.ILOAD:
+				case Opcodes.LLOAD:
+				case Opcodes.FLOAD:
+				case Opcodes.DLOAD:
+				case Opcodes.ALOAD:
+					stack.push(locals[((VarInsnNode) insn).var]);
+					break;
+				case Opcodes.ISTORE:
+				case Opcodes.LSTORE:
+				case Opcodes.FSTORE:
+				case Opcodes.DSTORE:
+				case Opcodes.ASTORE:
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					locals[((VarInsnNode) insn).var] = stack.pop();
+					break;
+				case Opcodes.POP:
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					stack.pop();
+					break;
+				case Opcodes.DUP:
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					stack.push(stack.peek());
+					break;
+				case Opcodes.NEW:
+					stack.push(new Value(Value.NEW, ((TypeInsnNode) insn).desc, null, null));
+					break;
+				case Opcodes.CHECKCAST:
+					break;
+				case Opcodes.ANEWARRAY:
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					stack.pop();
+					stack.push(Value.ourUnknown);
+					break;
+				case Opcodes.GETSTATIC:
+				{
+					FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+					stack.push(new Value(Value.STATIC, fieldInsn.owner, fieldInsn.name, fieldInsn.desc));
+					break;
+				}
+				case Opcodes.GETFIELD:
+				{
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+					Value receiver = stack.pop();
+					stack.push(receiver.myKind == Value.THIS ? new Value(Value.FIELD, fieldInsn.owner, fieldInsn.name, fieldInsn.desc) : Value.ourUnknown);
+					break;
+				}
+				case Opcodes.PUTSTATIC:
+				case Opcodes.PUTFIELD:
+				case Opcodes.AASTORE:
+				{
+					int count = opcode == Opcodes.PUTSTATIC ? 1 : opcode == Opcodes.PUTFIELD ? 2 : 3;
+					List<Value> operands = pop(stack, count);
+					if(operands == null || !callback.accept(insn, operands))
+					{
+						return null;
+					}
+					break;
+				}
+				case Opcodes.INVOKEVIRTUAL:
+				case Opcodes.INVOKESPECIAL:
+				case Opcodes.INVOKESTATIC:
+				case Opcodes.INVOKEINTERFACE:
+				{
+					MethodInsnNode methodInsn = (MethodInsnNode) insn;
+					int count = Type.getArgumentTypes(methodInsn.desc).length + (opcode == Opcodes.INVOKESTATIC ? 0 : 1);
+					List<Value> operands = pop(stack, count);
+					if(operands == null || !callback.accept(insn, operands))
+					{
+						return null;
+					}
+
+					Value receiver = opcode == Opcodes.INVOKESPECIAL ? operands.get(0) : null;
+					if(receiver != null && receiver.myKind == Value.NEW && receiver.myDesc == null && CONSTRUCTOR.equals(methodInsn.name) && receiver.myOwner.equals(methodInsn.owner))
+					{
+						// all copies of created object are replaced by initialized object
+						Value initialized = new Value(Value.NEW, receiver.myOwner, null, methodInsn.desc, toConstructorArguments(operands.subList(1, operands.size())));
+						replace(stack, locals, receiver, initialized);
+					}
+
+					if(Type.getReturnType(methodInsn.desc).getSort() != Type.VOID)
+					{
+						stack.push(Value.ourUnknown);
+					}
+					break;
+				}
+				case Opcodes.ARETURN:
+					if(stack.isEmpty())
+					{
+						return null;
+					}
+					returned.add(stack.pop());
+					return returned;
+				case Opcodes.RETURN:
+					return returned;
+				default:
+					// branches, switches, throws, arithmetic and etc
+					return null;
+			}
+		}
+		return null;
+	}
+
+	private static boolean containsThis(List<Value> operands)
+	{
+		for(Value operand : operands)
+		{
+			if(operand.myKind == Value.THIS)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Nullable
+	private static List<Value> pop(Deque<Value> stack, int count)
+	{
+		if(stack.size() < count)
+		{
+			return null;
+		}
+
+		Value[] values = new Value[count];
+		for(int i = count - 1; i >= 0; i--)
+		{
+			values[i] = stack.pop();
+		}
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * Only constants and static fields are kept - other values are relative to analyzed method, and they are not valid inside constructor
+	 */
+	private static List<Value> toConstructorArguments(List<Value> arguments)
+	{
+		List<Value> result = new ArrayList<>(arguments.size());
+		for(Value argument : arguments)
+		{
+			result.add(argument.myKind == Value.CONSTANT || argument.myKind == Value.STATIC ? argument : Value.ourUnknown);
+		}
+		return result;
+	}
+
+	private static void replace(Deque<Value> stack, Value[] locals, Value oldValue, Value newValue)
+	{
+		List<Value> values = new ArrayList<>(stack);
+		stack.clear();
+		// list is in order from top to bottom
+		for(int i = values.size() - 1; i >= 0; i--)
+		{
+			stack.push(values.get(i) == oldValue ? newValue : values.get(i));
+		}
+
+		for(int i = 0; i < locals.length; i++)
+		{
+			if(locals[i] == oldValue)
+			{
+				locals[i] = newValue;
+			}
+		}
+	}
+
+	/**
+	 * Map receiver and arguments of invocation to local variables of called method
+	 */
+	private static Value[] toArguments(List<Value> operands, String desc)
+	{
+		Type[] argumentTypes = Type.getArgumentTypes(desc);
+
+		List<Value> locals = new ArrayList<>();
+		locals.add(operands.get(0));
+		for(int i = 0; i < argumentTypes.length; i++)
+		{
+			locals.add(operands.get(i + 1));
+			// long and double use two slots
+			if(argumentTypes[i].getSize() == 2)
+			{
+				locals.add(Value.ourUnknown);
+			}
+		}
+		return locals.toArray(new Value[locals.size()]);
+	}
+
+	private static Value thisValue()
+	{
+		return new Value(Value.THIS, null, null, null);
+	}
+
+	/**
+	 * Same check as newInstance() inside PluginAnalyzerService - class is not abstract and has constructor
+	 */
+	private boolean isInstantiable(String className, String constructorDesc)
+	{
+		ClassNode classNode = getClassNode(className);
+		return classNode != null && (classNode.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE)) == 0 && findDeclaredMethod(classNode, CONSTRUCTOR, constructorDesc) != null;
+	}
+
+	/**
+	 * @return not abstract method, declared in class or in super classes
+	 */
+	@Nullable
+	private MethodNode findMethod(String className, String name, String desc)
+	{
+		String current = className;
+		for(int i = 0; current != null && i < ourMaxDepth; i++)
+		{
+			ClassNode classNode = getClassNode(current);
+			if(classNode == null)
+			{
+				return null;
+			}
+
+			MethodNode method = findDeclaredMethod(classNode, name, desc);
+			if(method != null)
+			{
+				return (method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_STATIC)) == 0 ? method : null;
+			}
+
+			current = classNode.superName;
+		}
+		return null;
+	}
+
+	@Nullable
+	private static MethodNode findDeclaredMethod(ClassNode classNode, String name, String desc)
+	{
+		for(MethodNode method : classNode.methods)
+		{
+			if(method.name.equals(name) && method.desc.equals(desc))
+			{
+				return method;
+			}
+		}
+		return null;
+	}
+
+	@Nullable
+	private ClassNode getClassNode(String className)
+	{
+		if(myClasses.containsKey(className))
+		{
+			return myClasses.get(className);
+		}
+
+		ClassNode classNode = null;
+		try (InputStream stream = myClassLoader.getResourceAsStream(className + ".class"))
+		{
+			if(stream != null)
+			{
+				classNode = new ClassNode();
+				new ClassReader(stream).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{
+			// not supported class file version and etc
+			classNode = null;
+		}
+
+		myClasses.put(className, classNode);
+		return classNode;
+	}
+}